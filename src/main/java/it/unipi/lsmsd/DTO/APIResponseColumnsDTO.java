@@ -0,0 +1,37 @@
+package it.unipi.lsmsd.DTO;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Handle the response of Open-Meteo API, with the hourly data decoded into primitive columns
+@JsonIgnoreProperties(ignoreUnknown = true) // Ignore the properites that are not included in the DTO
+public class APIResponseColumnsDTO {
+    private double latitude;
+    private double longitude;
+    private double elevation;
+
+    @JsonProperty("hourly")
+    private HourlyMeasurementColumns hourly;
+
+    // Getters
+    public double getLatitude() { return latitude; }
+    public double getLongitude() { return longitude; }
+    public double getElevation() { return elevation; }
+    public HourlyMeasurementColumns getHourly() { return hourly; }
+
+    public static APIResponseColumnsDTO merge(APIResponseColumnsDTO a, APIResponseColumnsDTO b) {
+        if (a == null) return b;
+        if (b == null) return a;
+
+        APIResponseColumnsDTO merged = new APIResponseColumnsDTO();
+
+        merged.latitude = a.latitude;
+        merged.longitude = a.longitude;
+        merged.elevation = a.elevation;
+
+        // Merge Hourly Measurements
+        merged.hourly = HourlyMeasurementColumns.merge(a.hourly, b.hourly);
+
+        return merged;
+    }
+}
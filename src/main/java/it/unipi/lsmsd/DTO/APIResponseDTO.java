@@ -35,6 +35,11 @@ public class APIResponseDTO {
     public double getElevation() { return elevation; }
     public HourlyMeasurementDTO getHourly() { return hourly; }
 
+    public void setLatitude(double latitude) { this.latitude = latitude; }
+    public void setLongitude(double longitude) { this.longitude = longitude; }
+    public void setElevation(double elevation) { this.elevation = elevation; }
+    public void setHourly(HourlyMeasurementDTO hourly) { this.hourly = hourly; }
+
     public static APIResponseDTO merge(APIResponseDTO a, APIResponseDTO b) {
         if (a == null) return b;
         if (b == null) return a;
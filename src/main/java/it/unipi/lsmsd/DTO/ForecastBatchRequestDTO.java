@@ -0,0 +1,24 @@
+package it.unipi.lsmsd.DTO;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Body of a batch forecast request: the daily forecasts of many cities, over the same days
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ForecastBatchRequestDTO {
+    private List<String> cityIds;
+    private LocalDate startDate; // UTC day, today if missing
+    private LocalDate endDate; // UTC day (inclusive), startDate if missing
+
+    // Setters and Getters
+    public List<String> getCityIds() { return cityIds; }
+    public void setCityIds(List<String> cityIds) { this.cityIds = cityIds; }
+
+    public LocalDate getStartDate() { return startDate; }
+    public void setStartDate(LocalDate startDate) { this.startDate = startDate; }
+
+    public LocalDate getEndDate() { return endDate; }
+    public void setEndDate(LocalDate endDate) { this.endDate = endDate; }
+}
@@ -0,0 +1,210 @@
+package it.unipi.lsmsd.DTO;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import it.unipi.lsmsd.utility.ISODateUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Columnar, primitive-backed variant of HourlyMeasurementDTO
+// Times are stored as hours since the epoch (UTC), missing values as NaN.
+// An instance is a view [offset, offset + size) over arrays that may be shared with other views.
+@JsonDeserialize(using = HourlyMeasurementColumnsDeserializer.class)
+@JsonSerialize(using = HourlyMeasurementColumnsSerializer.class)
+public final class HourlyMeasurementColumns {
+    private String cityId; // MongoDB city ID after saving City
+
+    private final long[] epochHours;
+    private final double[] temperature;
+    private final double[] rain;
+    private final double[] snowfall;
+    private final double[] windspeed;
+
+    private final int offset;
+    private final int size;
+
+    public HourlyMeasurementColumns(long[] epochHours, double[] temperature, double[] rain, double[] snowfall, double[] windspeed) {
+        this(null, epochHours, temperature, rain, snowfall, windspeed, 0, epochHours.length);
+    }
+
+    private HourlyMeasurementColumns(String cityId, long[] epochHours, double[] temperature, double[] rain,
+                                     double[] snowfall, double[] windspeed, int offset, int size) {
+        if (temperature.length != epochHours.length || rain.length != epochHours.length
+                || snowfall.length != epochHours.length || windspeed.length != epochHours.length) {
+            throw new IllegalArgumentException("All columns must have the same length as the time column");
+        }
+        this.cityId = cityId;
+        this.epochHours = epochHours;
+        this.temperature = temperature;
+        this.rain = rain;
+        this.snowfall = snowfall;
+        this.windspeed = windspeed;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    // Getters
+    public String getCityId() { return cityId; }
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public long getEpochHour(int i) { return epochHours[index(i)]; }
+    public String getTime(int i) { return ISODateUtil.formatEpochHour(getEpochHour(i)); }
+    public double getTemperature(int i) { return temperature[index(i)]; }
+    public double getRain(int i) { return rain[index(i)]; }
+    public double getSnowfall(int i) { return snowfall[index(i)]; }
+    public double getWindspeed(int i) { return windspeed[index(i)]; }
+
+    // Setters
+    public void setCityId(String cityId) { this.cityId = cityId; }
+
+    // Copies of the columns of this view, for consumers that need plain arrays
+    public long[] copyEpochHours() { return Arrays.copyOfRange(epochHours, offset, offset + size); }
+    public double[] copyTemperature() { return Arrays.copyOfRange(temperature, offset, offset + size); }
+    public double[] copyRain() { return Arrays.copyOfRange(rain, offset, offset + size); }
+    public double[] copySnowfall() { return Arrays.copyOfRange(snowfall, offset, offset + size); }
+    public double[] copyWindspeed() { return Arrays.copyOfRange(windspeed, offset, offset + size); }
+
+    private int index(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+        }
+        return offset + i;
+    }
+
+    /**
+     * Returns a view over the hours in {@code [from, to)} of this instance.
+     * No data is copied: the returned view shares the underlying arrays.
+     *
+     * @param from index of the first hour (inclusive)
+     * @param to   index of the last hour (exclusive)
+     * @return a view of {@code to - from} hours, with the same {@code cityId}
+     */
+    public HourlyMeasurementColumns slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Slice [" + from + ", " + to + ") out of bounds for size " + size);
+        }
+        return new HourlyMeasurementColumns(cityId, epochHours, temperature, rain, snowfall, windspeed, offset + from, to - from);
+    }
+
+    /**
+     * Splits this instance into consecutive views, one per UTC day.
+     *
+     * @return the per-day views, in time order
+     */
+    public List<HourlyMeasurementColumns> splitByDay() {
+        List<HourlyMeasurementColumns> days = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= size; i++) {
+            if (i == size || Math.floorDiv(getEpochHour(i), 24) != Math.floorDiv(getEpochHour(start), 24)) {
+                days.add(slice(start, i));
+                start = i;
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Merges two {@link HourlyMeasurementColumns} instances by concatenating their hours.
+     * <p>
+     * When {@code b} is the view directly following {@code a} over the same arrays (e.g. two slices of
+     * the same response), the result is a wider view and nothing is copied; otherwise the columns are
+     * copied into new arrays. No checks are performed on coordinate consistency.
+     *
+     * @param a the first instance (can be null)
+     * @param b the second instance (can be null)
+     * @return an instance containing the hours of {@code a} followed by the hours of {@code b}
+     */
+    public static HourlyMeasurementColumns merge(HourlyMeasurementColumns a, HourlyMeasurementColumns b) {
+        if (a == null) return b;
+        if (b == null) return a;
+
+        // Set CityId (prioritize A)
+        String cityId = a.cityId != null ? a.cityId : b.cityId;
+
+        if (a.epochHours == b.epochHours && a.offset + a.size == b.offset) {
+            return new HourlyMeasurementColumns(cityId, a.epochHours, a.temperature, a.rain, a.snowfall, a.windspeed, a.offset, a.size + b.size);
+        }
+
+        return new HourlyMeasurementColumns(
+                cityId,
+                concat(a.epochHours, a.offset, a.size, b.epochHours, b.offset, b.size),
+                concat(a.temperature, a.offset, a.size, b.temperature, b.offset, b.size),
+                concat(a.rain, a.offset, a.size, b.rain, b.offset, b.size),
+                concat(a.snowfall, a.offset, a.size, b.snowfall, b.offset, b.size),
+                concat(a.windspeed, a.offset, a.size, b.windspeed, b.offset, b.size),
+                0,
+                a.size + b.size
+        );
+    }
+
+    private static long[] concat(long[] a, int aOffset, int aSize, long[] b, int bOffset, int bSize) {
+        long[] result = new long[aSize + bSize];
+        System.arraycopy(a, aOffset, result, 0, aSize);
+        System.arraycopy(b, bOffset, result, aSize, bSize);
+        return result;
+    }
+
+    private static double[] concat(double[] a, int aOffset, int aSize, double[] b, int bOffset, int bSize) {
+        double[] result = new double[aSize + bSize];
+        System.arraycopy(a, aOffset, result, 0, aSize);
+        System.arraycopy(b, bOffset, result, aSize, bSize);
+        return result;
+    }
+
+    // Maps HourlyMeasurementDTO to HourlyMeasurementColumns (null values become NaN)
+    public static HourlyMeasurementColumns fromDTO(HourlyMeasurementDTO dto) {
+        List<String> times = dto.getTime() != null ? dto.getTime() : List.of();
+        int n = times.size();
+
+        long[] epochHours = new long[n];
+        for (int i = 0; i < n; i++) {
+            epochHours[i] = Math.floorDiv(ISODateUtil.getEpochMillis(times.get(i)), 3_600_000L);
+        }
+
+        HourlyMeasurementColumns columns = new HourlyMeasurementColumns(
+                epochHours,
+                toArray(dto.getTemperature(), n),
+                toArray(dto.getRain(), n),
+                toArray(dto.getSnowfall(), n),
+                toArray(dto.getWindspeed(), n)
+        );
+        columns.setCityId(dto.getCityId());
+        return columns;
+    }
+
+    // Maps HourlyMeasurementColumns to HourlyMeasurementDTO (NaN values become null)
+    public HourlyMeasurementDTO toDTO() {
+        List<String> times = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            times.add(getTime(i));
+        }
+
+        HourlyMeasurementDTO dto = new HourlyMeasurementDTO();
+        dto.setCityId(cityId);
+        dto.setTime(times);
+        dto.setTemperature(toList(temperature));
+        dto.setRain(toList(rain));
+        dto.setSnowfall(toList(snowfall));
+        dto.setWindspeed(toList(windspeed));
+        return dto;
+    }
+
+    private static double[] toArray(List<Double> values, int n) {
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            Double value = values != null && i < values.size() ? values.get(i) : null;
+            result[i] = value != null ? value : Double.NaN;
+        }
+        return result;
+    }
+
+    private List<Double> toList(double[] values) {
+        List<Double> result = new ArrayList<>(size);
+        for (int i = offset; i < offset + size; i++) {
+            result.add(Double.isNaN(values[i]) ? null : values[i]);
+        }
+        return result;
+    }
+}
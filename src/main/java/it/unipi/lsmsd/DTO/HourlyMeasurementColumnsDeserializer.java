@@ -0,0 +1,140 @@
+package it.unipi.lsmsd.DTO;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import it.unipi.lsmsd.utility.ISODateUtil;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+// Streams the Open-Meteo "hourly" object straight into primitive arrays
+// {"time":["2025-03-15T00:00",...],"temperature_2m":[...],"rain":[...],"snowfall":[...],"wind_speed_10m":[...]}
+public class HourlyMeasurementColumnsDeserializer extends StdDeserializer<HourlyMeasurementColumns> {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    public HourlyMeasurementColumnsDeserializer() {
+        super(HourlyMeasurementColumns.class);
+    }
+
+    @Override
+    public HourlyMeasurementColumns deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (HourlyMeasurementColumns) ctxt.handleUnexpectedToken(HourlyMeasurementColumns.class, p);
+        }
+
+        long[] time = new long[0];
+        int timeSize = 0;
+        double[] temperature = null, rain = null, snowfall = null, windspeed = null;
+        String cityId = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "time" -> {
+                    time = readTimes(p, ctxt);
+                    timeSize = time.length;
+                }
+                case "temperature_2m" -> temperature = readValues(p, ctxt);
+                case "rain" -> rain = readValues(p, ctxt);
+                case "snowfall" -> snowfall = readValues(p, ctxt);
+                case "wind_speed_10m" -> windspeed = readValues(p, ctxt);
+                case "cityId" -> cityId = p.getValueAsString();
+                // Any other variable requested from the API is ignored
+                default -> p.skipChildren();
+            }
+        }
+
+        HourlyMeasurementColumns columns = new HourlyMeasurementColumns(
+                time,
+                fit(temperature, timeSize),
+                fit(rain, timeSize),
+                fit(snowfall, timeSize),
+                fit(windspeed, timeSize)
+        );
+        columns.setCityId(cityId);
+        return columns;
+    }
+
+    // Reads the time array as hours since the epoch
+    private long[] readTimes(JsonParser p, DeserializationContext ctxt) throws IOException {
+        expectArray(p, ctxt);
+        long[] values = new long[INITIAL_CAPACITY];
+        int n = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = epochHourOf(p);
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    // Reads a value array, null entries become NaN
+    private double[] readValues(JsonParser p, DeserializationContext ctxt) throws IOException {
+        expectArray(p, ctxt);
+        double[] values = new double[INITIAL_CAPACITY];
+        int n = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = valueOf(p);
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    // Current element of a time array as hours since the epoch, without allocating a String per value
+    public static long epochHourOf(JsonParser p) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            CharBuffer text = CharBuffer.wrap(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            return Math.floorDiv(ISODateUtil.getEpochMillis(text), 3_600_000L);
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            // timeformat=unixtime
+            return Math.floorDiv(p.getLongValue(), 3600L);
+        }
+        throw new JsonParseException(p, "Unexpected token in hourly time array: " + token);
+    }
+
+    // Current element of a value array, NaN for null
+    public static double valueOf(JsonParser p) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            return p.getDoubleValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return Double.NaN;
+        }
+        throw new JsonParseException(p, "Unexpected token in hourly value array: " + token);
+    }
+
+    private void expectArray(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            ctxt.handleUnexpectedToken(double[].class, p);
+        }
+    }
+
+    // Pads (with NaN) or truncates a column to the length of the time column
+    private static double[] fit(double[] values, int size) {
+        if (values == null) {
+            double[] missing = new double[size];
+            Arrays.fill(missing, Double.NaN);
+            return missing;
+        }
+        if (values.length == size) {
+            return values;
+        }
+        double[] fitted = Arrays.copyOf(values, size);
+        if (values.length < size) {
+            Arrays.fill(fitted, values.length, size, Double.NaN);
+        }
+        return fitted;
+    }
+}
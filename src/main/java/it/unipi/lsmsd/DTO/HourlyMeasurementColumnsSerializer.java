@@ -0,0 +1,49 @@
+package it.unipi.lsmsd.DTO;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.function.IntToDoubleFunction;
+
+// Writes HourlyMeasurementColumns in the same JSON shape as HourlyMeasurementDTO (NaN values as null)
+public class HourlyMeasurementColumnsSerializer extends StdSerializer<HourlyMeasurementColumns> {
+
+    public HourlyMeasurementColumnsSerializer() {
+        super(HourlyMeasurementColumns.class);
+    }
+
+    @Override
+    public void serialize(HourlyMeasurementColumns columns, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        if (columns.getCityId() != null) {
+            gen.writeStringField("cityId", columns.getCityId());
+        }
+
+        gen.writeArrayFieldStart("time");
+        for (int i = 0; i < columns.size(); i++) {
+            gen.writeString(columns.getTime(i));
+        }
+        gen.writeEndArray();
+
+        writeColumn(gen, "temperature_2m", columns.size(), columns::getTemperature);
+        writeColumn(gen, "rain", columns.size(), columns::getRain);
+        writeColumn(gen, "snowfall", columns.size(), columns::getSnowfall);
+        writeColumn(gen, "wind_speed_10m", columns.size(), columns::getWindspeed);
+        gen.writeEndObject();
+    }
+
+    private static void writeColumn(JsonGenerator gen, String name, int size, IntToDoubleFunction values) throws IOException {
+        gen.writeArrayFieldStart(name);
+        for (int i = 0; i < size; i++) {
+            double value = values.applyAsDouble(i);
+            if (Double.isNaN(value)) {
+                gen.writeNull();
+            } else {
+                gen.writeNumber(value);
+            }
+        }
+        gen.writeEndArray();
+    }
+}
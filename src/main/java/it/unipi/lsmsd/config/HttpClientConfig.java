@@ -0,0 +1,50 @@
+package it.unipi.lsmsd.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+// HTTP client used to reach the Open-Meteo APIs
+@Configuration
+public class HttpClientConfig {
+
+    // Threads completing the asynchronous exchanges: requests in flight don't hold a thread,
+    // so a few threads serve dozens of concurrent requests
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService openMeteoHttpExecutor(@Value("${open-meteo.http.threads:4}") int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    // Threads decoding the asynchronous response bodies while they are streamed in
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService openMeteoDecodeExecutor(@Value("${open-meteo.http.decode-threads:4}") int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    // Schedules the delayed attempts of the asynchronous retries
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService openMeteoRetryScheduler() {
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    // Shared client: keeps the connections alive between requests and multiplexes them over HTTP/2 when possible
+    @Bean
+    public HttpClient openMeteoHttpClient(
+            @Qualifier("openMeteoHttpExecutor") ExecutorService openMeteoHttpExecutor,
+            @Value("${open-meteo.http.connect-timeout:5s}") Duration connectTimeout
+    ) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(openMeteoHttpExecutor)
+                .build();
+    }
+}
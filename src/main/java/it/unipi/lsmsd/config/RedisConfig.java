@@ -1,14 +1,19 @@
 package it.unipi.lsmsd.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.DefaultJedisClientConfig;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // Configuration class where Spring will look for bean definitions
 @Configuration
@@ -39,6 +44,29 @@ public class RedisConfig {
     // method to connect with a Redis Cluster
     @Bean
     public JedisCluster jedisCluster() {
+        return new JedisCluster(clusterNodes());
+    }
+
+    // Slot-aware connections to the cluster nodes, used to build ClusterPipelines
+    // (JedisCluster does not expose its own provider)
+    @Bean(destroyMethod = "close")
+    public ClusterConnectionProvider clusterConnectionProvider() {
+        return new ClusterConnectionProvider(clusterNodes(), DefaultJedisClientConfig.builder().build());
+    }
+
+    // Threads reading from different cluster nodes at the same time, see RedisForecastService
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService redisReadExecutor(@Value("${forecast.batch.threads:6}") int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    // Background upkeep of the forecasts (expiring old generations), off the request and common pools
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService forecastMaintenanceExecutor() {
+        return Executors.newSingleThreadExecutor();
+    }
+
+    private static Set<HostAndPort> clusterNodes() {
         Set<HostAndPort> clusterNodes = new HashSet<>();
         clusterNodes.add(new HostAndPort("10.1.1.9", 6379));
         clusterNodes.add(new HostAndPort("10.1.1.9", 6380));
@@ -46,7 +74,6 @@ public class RedisConfig {
         clusterNodes.add(new HostAndPort("10.1.1.84", 6380));
         clusterNodes.add(new HostAndPort("10.1.1.87", 6379));
         clusterNodes.add(new HostAndPort("10.1.1.87", 6380));
-
-        return new JedisCluster(clusterNodes);
+        return clusterNodes;
     }
 }
\ No newline at end of file
@@ -15,6 +15,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 
 import it.unipi.lsmsd.service.DataInitializeService;
 import it.unipi.lsmsd.service.DataRefreshService;
+import it.unipi.lsmsd.service.ExtremeWeatherEventRunner;
+import it.unipi.lsmsd.service.ForecastNearCache;
+import it.unipi.lsmsd.service.HarvestScheduler;
+import it.unipi.lsmsd.service.MeasurementCollectionService;
+import it.unipi.lsmsd.service.MeasurementMigrationService;
+import it.unipi.lsmsd.service.RedisForecastService;
 
 @RestController
 @RequestMapping("/data-manager")
@@ -32,10 +38,31 @@ public class DataManagerController {
     @Autowired
     private AutomatingService automatingService;
 
+    @Autowired
+    private MeasurementMigrationService measurementMigrationService;
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
+
+    @Autowired
+    private HarvestScheduler harvestScheduler;
+    @Autowired
+    private ForecastNearCache forecastNearCache;
+    @Autowired
+    private ExtremeWeatherEventRunner extremeWeatherEventRunner;
+    @Autowired
+    private RedisForecastService redisForecastService;
+
 
     @PutMapping("/update/forecasts")
     public ResponseEntity<Object> updateForecasts(@RequestHeader("Authorization") String token) {
         try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            // Would be rejected anyway, tell the caller instead of accepting it
+            if (redisForecastService.isRefreshRunning()) {
+                return ResponseEntity
+                        .status(HttpStatus.CONFLICT)
+                        .body("Forecast refresh already running");
+            }
             automatingService.updateForecastsAsync(token);
             return ResponseEntity
                     .status(HttpStatus.OK).build();
@@ -72,6 +99,18 @@ public class DataManagerController {
     @PutMapping("/update/ewes")
     public ResponseEntity<Object> updateEWEs(@RequestHeader("Authorization") String token) {
         try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            // Would be skipped anyway, tell the caller instead of accepting it
+            if (extremeWeatherEventRunner.getProgress().isRunning()) {
+                return ResponseEntity
+                        .status(HttpStatus.CONFLICT)
+                        .body("Extreme weather event detection already running");
+            }
+            if (measurementCollectionService.isMigrating()) {
+                return ResponseEntity
+                        .status(HttpStatus.CONFLICT)
+                        .body("Measurements are being migrated to a time-series collection");
+            }
             automatingService.updateExtremeWeatherEventsAsync(token);
             return ResponseEntity
                     .status(HttpStatus.OK).build();
@@ -274,4 +313,81 @@ public class DataManagerController {
                     .body("Internal server error: " + e.getMessage());
         }
     }
+
+    @PostMapping("migrate-measurements-timeseries")
+    public ResponseEntity<String> migrateMeasurementsToTimeSeries(
+            @RequestHeader("Authorization") String token){
+        try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            long copied = measurementMigrationService.migrateToTimeSeries();
+            return ResponseEntity.status(HttpStatus.OK).body("Measurements migrated to time-series collection, " + copied + " documents copied. Check Log to Verify");
+        }
+        catch(UnauthorizedException Ue){
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Unauthorized: " + Ue.getMessage());
+        }
+        catch (Exception e){
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    // Size, hit ratio, evictions and invalidations of the forecast near cache
+    @GetMapping("forecast-cache-status")
+    public ResponseEntity<Object> getForecastCacheStatus(@RequestHeader("Authorization") String token) {
+        try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            return ResponseEntity.status(HttpStatus.OK).body(forecastNearCache.getStats());
+        }
+        catch(UnauthorizedException Ue){
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Unauthorized: " + Ue.getMessage());
+        }
+        catch (Exception e){
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    // Progress and throughput of the current (or last) extreme weather event detection over all the cities
+    @GetMapping("ewe-detection-status")
+    public ResponseEntity<Object> getEweDetectionStatus(@RequestHeader("Authorization") String token) {
+        try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            return ResponseEntity.status(HttpStatus.OK).body(extremeWeatherEventRunner.getProgress());
+        }
+        catch(UnauthorizedException Ue){
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Unauthorized: " + Ue.getMessage());
+        }
+        catch (Exception e){
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    // Current concurrency limit, queue depth and counters of the Open-Meteo requests
+    @GetMapping("harvest-status")
+    public ResponseEntity<Object> getHarvestStatus(@RequestHeader("Authorization") String token) {
+        try{
+            userService.getAndCheckUserFromToken(token, Role.ADMIN);
+            return ResponseEntity.status(HttpStatus.OK).body(harvestScheduler.getStatus());
+        }
+        catch(UnauthorizedException Ue){
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Unauthorized: " + Ue.getMessage());
+        }
+        catch (Exception e){
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
 }
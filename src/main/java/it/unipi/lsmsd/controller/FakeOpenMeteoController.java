@@ -0,0 +1,178 @@
+package it.unipi.lsmsd.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import it.unipi.lsmsd.utility.FakeWeatherGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Open-Meteo forecast, archive and geocoding endpoints, for offline load tests of the
+ * ingestion. Only available with the {@code fake-open-meteo} profile, which also points
+ * {@code open-meteo.*-url} here (see {@code application-fake-open-meteo.yml}).
+ * <p>
+ * The data comes from {@link FakeWeatherGenerator}, so it is deterministic. Every request waits
+ * {@code latency} plus up to {@code latency-jitter}, then fails with probability {@code throttle-rate}
+ * (429) or {@code error-rate} (503).
+ */
+@Profile("fake-open-meteo")
+@RestController
+@RequestMapping("/fake-open-meteo")
+public class FakeOpenMeteoController {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @Value("${fake-open-meteo.latency:50ms}")
+    private Duration latency;
+    @Value("${fake-open-meteo.latency-jitter:50ms}")
+    private Duration latencyJitter;
+    @Value("${fake-open-meteo.error-rate:0.0}")
+    private double errorRate;
+    @Value("${fake-open-meteo.throttle-rate:0.0}")
+    private double throttleRate;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    // https://api.open-meteo.com/v1/forecast?latitude=43.7085&longitude=10.4036&hourly=...&forecast_days=7&past_days=1
+    @GetMapping("/v1/forecast")
+    public ResponseEntity<StreamingResponseBody> getForecast(
+            @RequestParam String latitude,
+            @RequestParam String longitude,
+            @RequestParam(name = "forecast_days", defaultValue = "7") int forecastDays,
+            @RequestParam(name = "past_days", defaultValue = "0") int pastDays) {
+        LocalDate today = LocalDate.now();
+        return respond(latitude, longitude, today.minusDays(pastDays), today.plusDays(forecastDays).minusDays(1));
+    }
+
+    // https://archive-api.open-meteo.com/v1/archive?latitude=...&longitude=...&start_date=2024-01-01&end_date=2024-12-31&hourly=...
+    @GetMapping("/v1/archive")
+    public ResponseEntity<StreamingResponseBody> getArchive(
+            @RequestParam String latitude,
+            @RequestParam String longitude,
+            @RequestParam(name = "start_date") LocalDate startDate,
+            @RequestParam(name = "end_date") LocalDate endDate) {
+        return respond(latitude, longitude, startDate, endDate);
+    }
+
+    // https://geocoding-api.open-meteo.com/v1/search?name=Pisa&countryCode=IT
+    @GetMapping("/v1/search")
+    public ResponseEntity<Object> searchCity(@RequestParam String name, @RequestParam(defaultValue = "IT") String countryCode) {
+        ResponseEntity<Object> failure = injectFaults();
+        if (failure != null) {
+            return failure;
+        }
+        // Coordinates derived from the name, so the same city is always in the same place
+        int hash = (name.toLowerCase(Locale.ROOT) + "/" + countryCode).hashCode();
+        double latitude = Math.round((36 + 11 * ((hash >>> 8) & 0xFFFF) / 65536.0) * 1e4) / 1e4;
+        double longitude = Math.round((7 + 11 * (hash & 0xFF) / 256.0) * 1e4) / 1e4;
+
+        Map<String, Object> city = new LinkedHashMap<>();
+        city.put("id", Math.abs(hash));
+        city.put("name", name);
+        city.put("latitude", latitude);
+        city.put("longitude", longitude);
+        city.put("elevation", FakeWeatherGenerator.elevation(latitude, longitude));
+        city.put("country_code", countryCode);
+        city.put("admin1", "Fake Region");
+        return ResponseEntity.ok(Map.of("results", new Object[] { city }, "generationtime_ms", 0.1));
+    }
+
+    // Counters of the served requests, to compare with the client side
+    @GetMapping("/stats")
+    public ResponseEntity<Object> getStats() {
+        return ResponseEntity.ok(Map.of(
+                "requests", requests.get(),
+                "errors", errors.get(),
+                "throttled", throttled.get()
+        ));
+    }
+
+    // Streams one response per location, as an array for a multi-location request like Open-Meteo does
+    private ResponseEntity<StreamingResponseBody> respond(String latitudes, String longitudes, LocalDate startDate, LocalDate endDate) {
+        ResponseEntity<Object> failure = injectFaults();
+        if (failure != null) {
+            return ResponseEntity.status(failure.getStatusCode()).contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> out.write(String.valueOf(failure.getBody()).getBytes()));
+        }
+
+        double[] latitude = parseCoordinates(latitudes);
+        double[] longitude = parseCoordinates(longitudes);
+        if (latitude == null || longitude == null || latitude.length != longitude.length || endDate.isBefore(startDate)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> out.write(error("Invalid coordinates or date range").getBytes()));
+        }
+
+        long firstEpochHour = startDate.toEpochDay() * 24;
+        long lastEpochHour = endDate.toEpochDay() * 24 + 23;
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+                if (latitude.length > 1) {
+                    generator.writeStartArray();
+                }
+                for (int i = 0; i < latitude.length; i++) {
+                    FakeWeatherGenerator.writeResponse(generator, latitude[i], longitude[i], firstEpochHour, lastEpochHour);
+                }
+                if (latitude.length > 1) {
+                    generator.writeEndArray();
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // Applies the configured latency, then returns the injected failure if any
+    private ResponseEntity<Object> injectFaults() {
+        requests.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latency.toMillis() + (latencyJitter.isZero() ? 0 : random.nextLong(latencyJitter.toMillis() + 1));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        double draw = random.nextDouble();
+        if (draw < throttleRate) {
+            throttled.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(error("Too many concurrent requests"));
+        }
+        if (draw < throttleRate + errorRate) {
+            errors.incrementAndGet();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error("Service temporarily unavailable"));
+        }
+        return null;
+    }
+
+    private static double[] parseCoordinates(String list) {
+        try {
+            return Arrays.stream(list.split(",")).mapToDouble(value -> Double.parseDouble(value.trim())).toArray();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Same error body of Open-Meteo
+    private static String error(String reason) {
+        return "{\"error\":true,\"reason\":\"" + reason + "\"}";
+    }
+}
@@ -2,13 +2,21 @@ package it.unipi.lsmsd.controller;
 
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import it.unipi.lsmsd.DTO.ForecastBatchRequestDTO;
 import it.unipi.lsmsd.service.RedisForecastService;
+import it.unipi.lsmsd.utility.ForecastCodec;
 
 @RestController
 @RequestMapping("/forecast")
@@ -27,7 +35,7 @@ public class HourlyMeasurementController {
     @GetMapping("/today")
     public ResponseEntity<Object> get24HrForecast(@RequestParam String cityId) {
         try {
-            LocalDate today = LocalDate.now();
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
             String jsonForecast = forecastRedisService.getForecastTargetDay(cityId, today);
             return ResponseEntity.status(HttpStatus.OK).body(jsonForecast);
         }
@@ -67,14 +75,122 @@ public class HourlyMeasurementController {
      * Handles HTTP GET requests to retrieve the 7-day weather forecast for a specified city.
      *
      * @param cityId the unique identifier of the city for which the forecast is requested
-     * @return a {@link ResponseEntity} containing the 7-day forecast as a JSON-formatted string and an HTTP status code 200 (OK)
+     * @param acceptEncoding the Accept-Encoding header: when it allows gzip, the stored payload is sent compressed
+     * @return a {@link ResponseEntity} containing the 7-day forecast as JSON and an HTTP status code 200 (OK)
      * @throws IOException if an I/O error occurs during the retrieval of the forecast data
      */
     @GetMapping("/week")
-    public ResponseEntity<Object> get7DayForecast(@RequestParam String cityId) throws IOException {
+    public ResponseEntity<Object> get7DayForecast(
+            @RequestParam String cityId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) throws IOException {
         try {
-            String jsonForecast = forecastRedisService.get7DayForecast(cityId);
-            return ResponseEntity.status(HttpStatus.OK).body(jsonForecast);
+            // Pre-rendered and pre-compressed: the bytes are passed through without being parsed
+            byte[] gzipForecast = forecastRedisService.get7DayForecastGzip(cityId);
+            boolean gzipAccepted = acceptsGzip(acceptEncoding);
+            return ResponseEntity.status(HttpStatus.OK)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .headers(headers -> {
+                        if (gzipAccepted) {
+                            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                        }
+                    })
+                    .body(gzipAccepted ? gzipForecast : RedisForecastService.gunzip(gzipForecast));
+        }
+        catch (Exception e) {
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles HTTP GET requests to retrieve the hourly aggregates (min, max, mean and sum of every variable)
+     * of the forecasts of all the cities of a region, precomputed at refresh time.
+     *
+     * @param region the region code, i.e. the first three characters of the ids of its cities
+     * @param targetDate the day (UTC) of the aggregates, by default today
+     * @return a {@link ResponseEntity} containing the aggregates as JSON and an HTTP status code 200 (OK)
+     */
+    @GetMapping("/region")
+    public ResponseEntity<Object> getRegionForecastAggregates(
+            @RequestParam String region,
+            @RequestParam(required = false) LocalDate targetDate
+    ) {
+        try {
+            LocalDate day = targetDate != null ? targetDate : LocalDate.now(ZoneOffset.UTC);
+            String jsonAggregates = forecastRedisService.getRegionForecastAggregates(region, day);
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(jsonAggregates);
+        }
+        catch(IllegalStateException ISe){
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Illegal argument: region or targetDate specified is not available");
+        }
+        catch (Exception e) {
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles HTTP GET requests to retrieve some variables of the forecast of a city over a window of hours,
+     * e.g. the temperature of the next 6 hours for a widget.
+     *
+     * @param cityId the unique identifier of the city for which the forecast is requested
+     * @param variables comma-separated variables among temperature_2m, rain, snowfall and wind_speed_10m, by default all
+     * @param start the first hour (UTC) of the window, by default the current hour
+     * @param hours the number of hours of the window, at most 168
+     * @return a {@link ResponseEntity} containing the time array and one array per variable, as JSON
+     */
+    @GetMapping("/slice")
+    public ResponseEntity<Object> getForecastSlice(
+            @RequestParam String cityId,
+            @RequestParam(required = false) List<String> variables,
+            @RequestParam(required = false) LocalDateTime start,
+            @RequestParam(defaultValue = "24") int hours
+    ) {
+        try {
+            LocalDateTime firstHour = (start != null ? start : LocalDateTime.now(ZoneOffset.UTC)).truncatedTo(ChronoUnit.HOURS);
+            String jsonForecast = forecastRedisService.getForecastSlice(cityId, firstHour, hours,
+                    variables != null && !variables.isEmpty() ? variables : ForecastCodec.FIELDS);
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(jsonForecast);
+        }
+        catch(IllegalArgumentException IAe){
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Illegal argument: " + IAe.getMessage());
+        }
+        catch (Exception e) {
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles HTTP POST requests to retrieve the daily forecasts of many cities at once, e.g. for a map view.
+     *
+     * @param request the city ids and the days (UTC) of the forecasts, by default today only
+     * @return a {@link ResponseEntity} containing, for each city id, the array of its daily forecasts
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<Object> getForecastsBatch(@RequestBody ForecastBatchRequestDTO request) {
+        try {
+            if (request.getCityIds() == null) {
+                throw new IllegalArgumentException("cityIds is required");
+            }
+            LocalDate startDate = request.getStartDate() != null ? request.getStartDate() : LocalDate.now(ZoneOffset.UTC);
+            LocalDate endDate = request.getEndDate() != null ? request.getEndDate() : startDate;
+            String jsonForecasts = forecastRedisService.getForecastsBatch(request.getCityIds(), startDate, endDate);
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(jsonForecasts);
+        }
+        catch(IllegalArgumentException IAe){
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Illegal argument: " + IAe.getMessage());
         }
         catch (Exception e) {
             return ResponseEntity
@@ -89,22 +205,22 @@ public class HourlyMeasurementController {
      * <p>
      * The forecast corresponds to the current UTC day and is retrieved based on geolocation parameters.
      *
-     * @param region the name of the region in which the city is located
+     * @param region ignored, kept for compatibility: the nearest cities are used regardless of their region
      * @param latitude the geographic latitude of the city
      * @param longitude the geographic longitude of the city
      * @return a {@link ResponseEntity} containing the forecast as a JSON-formatted string and an HTTP status code 200 (OK)
      */
     @GetMapping("/today/arbitrary-city")
     public ResponseEntity<Object> get24HrForecastArbCity(
-            @RequestParam String region,
+            @RequestParam(required = false) String region,
             @RequestParam Double latitude,
             @RequestParam Double longitude,
             @RequestParam Double elevation
     ) {
         try {
-            LocalDate today = LocalDate.now();
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
 
-            String jsonForecast = forecastRedisService.getForecastArbitraryCityTargetDay(region, latitude, longitude, elevation, today);
+            String jsonForecast = forecastRedisService.getForecastArbitraryCityTargetDay(latitude, longitude, elevation, today);
             return ResponseEntity.status(HttpStatus.OK).body(jsonForecast);
         }
         catch (Exception e) {
@@ -116,14 +232,14 @@ public class HourlyMeasurementController {
 
     @GetMapping("/day/arbitrary-city")
     public ResponseEntity<Object> get24HrForecastArbCity(
-            @RequestParam String region,
+            @RequestParam(required = false) String region,
             @RequestParam Double latitude,
             @RequestParam Double longitude,
             @RequestParam Double elevation,
             @RequestParam LocalDate targetDate
     ) {
         try {
-            String jsonForecast = forecastRedisService.getForecastArbitraryCityTargetDay(region, latitude, longitude, elevation, targetDate);
+            String jsonForecast = forecastRedisService.getForecastArbitraryCityTargetDay(latitude, longitude, elevation, targetDate);
             return ResponseEntity.status(HttpStatus.OK).body(jsonForecast);
         }
         catch(IllegalStateException ISe){
@@ -138,4 +254,37 @@ public class HourlyMeasurementController {
         }
     }
 
+    // Whether an Accept-Encoding header allows gzip: listed (or matched by *) with a q-value above 0
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double anyQuality = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    }
+                    catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQuality = quality;
+            }
+            else if (coding.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        // An explicit gzip entry wins over *
+        double quality = gzipQuality != null ? gzipQuality : anyQuality != null ? anyQuality : 0;
+        return quality > 0;
+    }
 }
@@ -34,6 +34,7 @@ public class City {
     private LocalDateTime lastEweUpdate;
     private LocalDateTime lastMeasurementUpdate;
     private List<ExtremeWeatherEvent> eweList;
+    private List<String> backfillWindows; // Historical backfill windows already stored, see HistoricalBackfillService
 
     // Constructors   
     public City(){}
@@ -74,6 +75,7 @@ public class City {
     public LocalDateTime getLastEweUpdate() { return lastEweUpdate; }
     public LocalDateTime getLastMeasurementUpdate() { return lastMeasurementUpdate; }
     public List<ExtremeWeatherEvent> getEweList() {return eweList; };
+    public List<String> getBackfillWindows() { return backfillWindows; }
 
     // Setters
     public void setId(String id) { this.id = id; }
@@ -87,5 +89,6 @@ public class City {
     public void setLastEweUpdate(LocalDateTime lastEweUpdate) { this.lastEweUpdate = lastEweUpdate; }
     public void setLastMeasurementUpdate(LocalDateTime lastMeasurementUpdate) { this.lastMeasurementUpdate = lastMeasurementUpdate; }
     public void setEweList(List<ExtremeWeatherEvent> eweList) {this.eweList = eweList; }
+    public void setBackfillWindows(List<String> backfillWindows) { this.backfillWindows = backfillWindows; }
 
 }
@@ -6,5 +6,5 @@ public interface CityBasicProjection {
     String getRegion();
     double getLatitude();
     double getLongitude();
-    int getElevation();
+    Double getElevation();
 }
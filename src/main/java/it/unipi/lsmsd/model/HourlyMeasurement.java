@@ -5,8 +5,8 @@ import java.util.Date;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-// Time-series Collection
-@Document(collection = "hourly_measurements")
+// Time-series Collection, resolved on every operation since a migration can switch it
+@Document(collection = "#{@measurementCollectionService.name}")
 public class HourlyMeasurement {
     @Id
     private String id; // MongoDB auto generated
@@ -0,0 +1,9 @@
+package it.unipi.lsmsd.model;
+
+// Storage layout of the measurement collection
+public enum MeasurementLayout {
+    // One document per city per hour
+    HOURLY,
+    // One document per city per day, with 24-slot arrays and daily statistics
+    DAILY_BUCKET
+}
@@ -3,6 +3,7 @@ package it.unipi.lsmsd.repository;
 import it.unipi.lsmsd.model.City;
 import it.unipi.lsmsd.model.CityBasicProjection;
 import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
@@ -22,4 +23,10 @@ public interface CityRepository extends MongoRepository<City, String> {
     Optional<City> findCityWithEventsStartedBefore(String cityId, java.time.LocalDateTime startTime);
     @Query("{ '_id': ?0, 'eweList': { $elemMatch: { 'category': ?1, 'dateStart': { $gte: ?2, $lte: ?3 } } } }")
     Optional<City> findCityWithEventsInRangeAndCategory(String cityId, String category, java.time.LocalDateTime start, java.time.LocalDateTime end);
+    @Query("{ '_id': ?0 }")
+    @Update("{ '$addToSet': { 'backfillWindows': ?1 } }")
+    void addBackfillWindowById(String cityId, String window);
+    @Query("{ '_id': ?0 }")
+    @Update("{ '$unset': { 'backfillWindows': 1 } }")
+    void clearBackfillWindowsById(String cityId);
 }
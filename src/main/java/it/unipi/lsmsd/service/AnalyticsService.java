@@ -16,10 +16,16 @@ import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Field;
 import it.unipi.lsmsd.model.ExtremeWeatherEventCategory;
 import it.unipi.lsmsd.model.MeasurementField;
+import it.unipi.lsmsd.model.MeasurementLayout;
+import it.unipi.lsmsd.utility.MeasurementBucketUtility;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -28,20 +34,30 @@ import java.util.stream.StreamSupport;
 @Service
 public class AnalyticsService{
 
-    private final MongoCollection<Document> measurementCollection;
+    private final MongoDatabase database;
     private final MongoCollection<Document> cityCollection;
 
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
+
+    @Value("${spring.mongo.measurement-layout:HOURLY}")
+    private MeasurementLayout measurementLayout;
+
     public AnalyticsService() {
         MongoClient mongoClient = MongoClients.create(
                 MongoClientSettings.builder()
                         .applyConnectionString(new ConnectionString("mongodb://localhost:27018"))
                         .build()
         );
-        MongoDatabase database = mongoClient.getDatabase("WeatherApp");
-        this.measurementCollection = database.getCollection("hourly_measurements");
+        this.database = mongoClient.getDatabase("WeatherApp");
         this.cityCollection = database.getCollection("cities");
     }
 
+    // The measurement collection may change with a time-series migration
+    private MongoCollection<Document> measurementCollection() {
+        return database.getCollection(measurementCollectionService.getName());
+    }
+
     // <editor-fold desc="Measurements analytics with single city as target [ measurement/city/ ]">
 
     /**
@@ -58,12 +74,9 @@ public class AnalyticsService{
             LocalDateTime endDate
     ) {
         String projectedName = "Number of measurements";
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                gte("time", startDate),
-                                lt("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(null, startDate, endDate, false),
                         group("$cityId", sum(projectedName, 1)),
                         sort(orderBy(
                                 descending(projectedName),
@@ -81,13 +94,9 @@ public class AnalyticsService{
     ){
         String fieldName = getFieldName(measurementField);
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        eq("cityId", cityId),
-                                        gte("time", startDate),
-                                        lte("time", endDate)
-                                )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(eq("cityId", cityId), startDate, endDate, true),
                                 project(fields(
                                         excludeId(),
                                         include("time", fieldName)
@@ -115,13 +124,9 @@ public class AnalyticsService{
         String expression = "$" + fieldName;
         String projectedName = "Average " + fieldName;
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                eq("cityId", cityId),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(eq("cityId", cityId), startDate, endDate, true),
                         group(
                                 "$cityId",
                                 avg(projectedName, expression)
@@ -165,13 +170,9 @@ public class AnalyticsService{
         String expression = "$" + fieldName;
         String projectedName = "Average " + fieldName;
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                eq("cityId", cityId),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(eq("cityId", cityId), startDate, endDate, true),
                         addFields(new Field<>("month", new Document("$month", "$time"))),
                         group(new Document("month", "$month"),avg(projectedName, expression)),
                         sort(orderBy(ascending("_id.month"))),
@@ -204,13 +205,9 @@ public class AnalyticsService{
     ) {
         String fieldName = getFieldName(measurementField);
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                eq("cityId", cityId),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(eq("cityId", cityId), startDate, endDate, true),
                         sort(orderBy(descending(fieldName))),
 
                         // Limit to the top X cities with the highest average rainfall
@@ -254,13 +251,9 @@ public class AnalyticsService{
     ) {
         String fieldName = getFieldName(measurementField);
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                eq("cityId", cityId),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(eq("cityId", cityId), startDate, endDate, true),
                         sort(orderBy(ascending(fieldName))),
                         limit(numMeasurementsToFind),
                         addFields(
@@ -304,13 +297,9 @@ public class AnalyticsService{
 
         String regionPrefix = region.substring(0, 3).toLowerCase();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                regex("cityId", "^" + regionPrefix + "-"),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), startDate, endDate, true),
                         group("$cityId", avg(projectedName, expression)),
                         sort(descending(projectedName))
                         )).spliterator(), false)
@@ -339,13 +328,9 @@ public class AnalyticsService{
 
         String regionPrefix = region.substring(0, 3).toLowerCase();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                regex("cityId", "^" + regionPrefix + "-"),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), startDate, endDate, true),
                         group("$cityId", avg(projectedName, expression)),
                         sort(ascending(projectedName))
                 )).spliterator(), false)
@@ -375,13 +360,9 @@ public class AnalyticsService{
 
         String regionPrefix = region.substring(0, 3).toLowerCase();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                Arrays.asList(
-                        match(and(
-                                regex("cityId", "^" + regionPrefix + "-"),
-                                gte("time", startDate),
-                                lte("time", endDate)
-                        )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                measurementPipeline(
+                        measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), startDate, endDate, true),
                         // First sort, in order to be able to take the first element after
                         sort(orderBy(ascending("cityId"), descending(fieldName))),
                         group("$cityId",
@@ -426,13 +407,9 @@ public class AnalyticsService{
 
         String regionPrefix = region.substring(0, 3).toLowerCase();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        regex("cityId", "^" + regionPrefix + "-"),
-                                        gte("time", startDate),
-                                        lte("time", endDate)
-                                )),
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), startDate, endDate, true),
                                 // First sort, in order to be able to take the first element after
                                 sort(orderBy(ascending("cityId"), ascending(fieldName))),
                                 group("$cityId",
@@ -482,12 +459,23 @@ public class AnalyticsService{
                 .minusDays(pastDays)
                 .atStartOfDay();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        eq("cityId", cityId),
-                                        gte("time", dateLimit)
-                                )),
+        // Buckets already hold the daily sum and count
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            return StreamSupport.stream(measurementCollection().aggregate(
+                            Arrays.asList(
+                                    match(and(eq("cityId", cityId), gte("day", dateLimit))),
+                                    project(fields(
+                                            computed("_id", dayString()),
+                                            computed(projectedName, dailyAverage("$daily." + fieldName + ".sum", "$daily." + fieldName + ".count"))
+                                    )),
+                                    sort(descending("_id"))
+                            )).spliterator(), false)
+                    .collect(Collectors.toList());
+        }
+
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(eq("cityId", cityId), dateLimit, null, true),
                                 addFields(
                                         new Field<>("day", new Document(
                                                 "$dateToString", new Document()
@@ -527,12 +515,23 @@ public class AnalyticsService{
                 .minusDays(pastDays)
                 .atStartOfDay();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        eq("cityId", cityId),
-                                        gte("time", dateLimit)
-                                )),
+        // Buckets already hold the daily sum
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            return StreamSupport.stream(measurementCollection().aggregate(
+                            Arrays.asList(
+                                    match(and(eq("cityId", cityId), gte("day", dateLimit))),
+                                    project(fields(
+                                            computed("_id", dayString()),
+                                            computed(projectedName, "$daily." + fieldName + ".sum")
+                                    )),
+                                    sort(descending("_id"))
+                            )).spliterator(), false)
+                    .collect(Collectors.toList());
+        }
+
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(eq("cityId", cityId), dateLimit, null, true),
                                 addFields(
                                         new Field<>("day", new Document(
                                                 "$dateToString", new Document()
@@ -571,12 +570,24 @@ public class AnalyticsService{
                 .minusDays(pastDays)
                 .atStartOfDay();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        regex("cityId", "^" + regionPrefix + "-"),
-                                        gte("time", dateLimit)
-                                )),
+        // Buckets already hold the daily sum and count
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            return StreamSupport.stream(measurementCollection().aggregate(
+                            Arrays.asList(
+                                    match(and(regex("cityId", "^" + regionPrefix + "-"), gte("day", dateLimit))),
+                                    group("$cityId",
+                                            sum("sum", "$daily." + fieldName + ".sum"),
+                                            sum("count", "$daily." + fieldName + ".count")
+                                    ),
+                                    project(fields(computed(projectedName, dailyAverage("$sum", "$count")))),
+                                    sort(descending(projectedName))
+                            )).spliterator(), false)
+                    .collect(Collectors.toList());
+        }
+
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), dateLimit, null, true),
                                 group("$cityId", avg(projectedName, expression)),
                                 sort(descending(projectedName)),
                                 project(fields(include(projectedName)))
@@ -610,12 +621,21 @@ public class AnalyticsService{
                 .minusDays(pastDays)
                 .atStartOfDay();
 
-        return StreamSupport.stream(measurementCollection.aggregate(
-                        Arrays.asList(
-                                match(and(
-                                        regex("cityId", "^" + regionPrefix + "-"),
-                                        gte("time", dateLimit)
-                                )),
+        // Buckets already hold the daily sum
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            return StreamSupport.stream(measurementCollection().aggregate(
+                            Arrays.asList(
+                                    match(and(regex("cityId", "^" + regionPrefix + "-"), gte("day", dateLimit))),
+                                    group("$cityId", sum(projectedName, "$daily." + fieldName + ".sum")),
+                                    sort(descending(projectedName)),
+                                    project(fields(include(projectedName)))
+                            )).spliterator(), false)
+                    .collect(Collectors.toList());
+        }
+
+        return StreamSupport.stream(measurementCollection().aggregate(
+                        measurementPipeline(
+                                measurementsInRange(regex("cityId", "^" + regionPrefix + "-"), dateLimit, null, true),
                                 group("$cityId", sum(projectedName, expression)),
                                 sort(descending(projectedName)),
                                 project(fields(include(projectedName)))
@@ -976,4 +996,65 @@ public class AnalyticsService{
 
     // </editor-fold>
 
+    // <editor-fold desc="Measurement layout adapters">
+
+    /**
+     * Returns the first stages of a measurement pipeline: the measurements of the cities matching
+     * {@code cityFilter} with time in the given interval, always in the hourly document shape.
+     * With the {@code DAILY_BUCKET} layout the buckets of the covered days are matched first, then
+     * unwound into hourly documents and filtered on the exact interval.
+     *
+     * @param cityFilter   filter on {@code cityId}, or null for every city
+     * @param startDate    the start of the time interval (inclusive)
+     * @param endDate      the end of the time interval, or null for no upper bound
+     * @param endInclusive whether {@code endDate} itself is included
+     * @return the stages to put at the start of the pipeline
+     */
+    private List<Bson> measurementsInRange(Bson cityFilter, LocalDateTime startDate, LocalDateTime endDate, boolean endInclusive) {
+        List<Bson> timeFilters = new ArrayList<>();
+        if (cityFilter != null) timeFilters.add(cityFilter);
+        timeFilters.add(gte("time", startDate));
+        if (endDate != null) timeFilters.add(endInclusive ? lte("time", endDate) : lt("time", endDate));
+
+        if (measurementLayout != MeasurementLayout.DAILY_BUCKET) {
+            return List.of(match(and(timeFilters)));
+        }
+
+        List<Bson> dayFilters = new ArrayList<>();
+        if (cityFilter != null) dayFilters.add(cityFilter);
+        dayFilters.add(gte("day", startDate.toLocalDate().atStartOfDay()));
+        if (endDate != null) dayFilters.add(lte("day", endDate.toLocalDate().atStartOfDay()));
+
+        List<Bson> stages = new ArrayList<>();
+        stages.add(match(and(dayFilters)));
+        stages.addAll(MeasurementBucketUtility.unwindToHourlyStages());
+        stages.add(match(and(timeFilters)));
+        return stages;
+    }
+
+    // Concatenates the leading measurement stages with the rest of the pipeline
+    private static List<Bson> measurementPipeline(List<Bson> head, Bson... stages) {
+        List<Bson> pipeline = new ArrayList<>(head);
+        pipeline.addAll(Arrays.asList(stages));
+        return pipeline;
+    }
+
+    // Day of a bucket formatted as YYYY-MM-DD, like the hourly pipelines
+    private static Document dayString() {
+        return new Document("$dateToString", new Document()
+                .append("format", "%Y-%m-%d")
+                .append("date", "$day"));
+    }
+
+    // sum / count, or null when no value was recorded
+    private static Document dailyAverage(String sumExpression, String countExpression) {
+        return new Document("$cond", Arrays.asList(
+                new Document("$gt", Arrays.asList(countExpression, 0)),
+                new Document("$divide", Arrays.asList(sumExpression, countExpression)),
+                null
+        ));
+    }
+
+    // </editor-fold>
+
 }
@@ -0,0 +1,297 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.DTO.APIResponseDTO;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent on-disk cache of Open-Meteo archive responses.
+ * <p>
+ * Archive data settles a few days after the fact (the most recent days can be provisional or missing),
+ * so only windows ending at least {@code stable-days} ago are stored, once per location and date window,
+ * in a file named after the coordinates and the window, and read back through a memory-mapped buffer
+ * instead of the network. The directory is bounded to {@code max-bytes}: beyond it the least recently
+ * used files are deleted. The file layout is:
+ * <pre>
+ * int magic, int version,
+ * double latitude, double longitude, double elevation,
+ * long firstEpochHour, int hours,
+ * int temperature[hours], int rain[hours], int snowfall[hours], int windspeed[hours]
+ * </pre>
+ * Values are stored as hundredths ({@link #NULL_VALUE} for a missing value), which is exact for the
+ * one or two decimals returned by Open-Meteo; a response that cannot be stored exactly (e.g. with
+ * non-consecutive hours) is simply not cached.
+ */
+@Service
+public class ArchiveResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveResponseCache.class);
+
+    private static final int MAGIC = 0x4F4D4143; // "OMAC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 3 * 8 + 8 + 4;
+    private static final int NULL_VALUE = Integer.MIN_VALUE;
+    private static final double SCALE = 100.0;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int stableDays;
+    private final long maxBytes;
+
+    // Bytes in the directory, computed on the first put
+    private final AtomicLong sizeBytes = new AtomicLong(-1);
+
+    public ArchiveResponseCache(
+            @Value("${open-meteo.archive-cache.enabled:true}") boolean enabled,
+            @Value("${open-meteo.archive-cache.directory:data/open-meteo-archive}") String directory,
+            @Value("${open-meteo.archive-cache.stable-days:7}") int stableDays,
+            @Value("${open-meteo.archive-cache.max-bytes:1073741824}") long maxBytes
+    ) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.stableDays = stableDays;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached archive response of a location and date window.
+     *
+     * @return a new {@link APIResponseDTO}, or null when the window is not cached (or the cache is disabled)
+     */
+    public APIResponseDTO get(double latitude, double longitude, LocalDate startDate, LocalDate endDate) {
+        if (!enabled) {
+            return null;
+        }
+        Path file = fileOf(latitude, longitude, startDate, endDate);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            APIResponseDTO response = decode(buffer);
+            touch(file);
+            return response;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // A corrupted entry is treated as a miss and overwritten by the next put
+            logger.warn("Unreadable archive cache entry {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the archive response of a location and date window, unless the window ends within the last
+     * {@code stable-days} days. Failures are logged and ignored: the cache never makes a request fail.
+     */
+    public void put(double latitude, double longitude, LocalDate startDate, LocalDate endDate, APIResponseDTO response) {
+        if (!enabled || response == null || response.getHourly() == null) {
+            return;
+        }
+        // Recent days may still be revised by Open-Meteo
+        if (endDate.isAfter(LocalDate.now(ZoneOffset.UTC).minusDays(stableDays))) {
+            return;
+        }
+        ByteBuffer encoded = encode(response);
+        if (encoded == null) {
+            return;
+        }
+
+        Path file = fileOf(latitude, longitude, startDate, endDate);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            long previousBytes = Files.exists(file) ? Files.size(file) : 0;
+            // Written aside and moved in place, so a reader never sees a partial file
+            temp = Files.createTempFile(directory, "archive", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (encoded.hasRemaining()) {
+                    channel.write(encoded);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            if (sizeBytes.get() < 0) {
+                sizeBytes.compareAndSet(-1, directorySize());
+            } else {
+                sizeBytes.addAndGet(encoded.limit() - previousBytes);
+            }
+            if (sizeBytes.get() > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not write archive cache entry {}: {}", file, e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.warn("Could not delete archive cache temp file {}: {}", temp, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Deletes the least recently used entries, down to 90% of the limit
+    private synchronized void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> entries = Files.list(directory)) {
+            files = entries.filter(path -> path.toString().endsWith(".bin")).collect(Collectors.toList());
+        }
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        long total = 0;
+        for (Path path : files) {
+            try {
+                lastUsed.put(path, Files.getLastModifiedTime(path));
+                total += Files.size(path);
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile
+            }
+        }
+        files.removeIf(path -> !lastUsed.containsKey(path));
+        files.sort(Comparator.comparing(lastUsed::get));
+
+        long target = maxBytes / 10 * 9;
+        for (Path path : files) {
+            if (total <= target) {
+                break;
+            }
+            try {
+                long bytes = Files.size(path);
+                Files.delete(path);
+                total -= bytes;
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile
+            }
+        }
+        sizeBytes.set(total);
+        logger.info("Archive cache trimmed to {} bytes", total);
+    }
+
+    private long directorySize() throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.filter(path -> path.toString().endsWith(".bin")).mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        }
+    }
+
+    // The modification time of an entry is its last use, for the eviction
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    private Path fileOf(double latitude, double longitude, LocalDate startDate, LocalDate endDate) {
+        // Same precision used in the request url
+        return directory.resolve(String.format(Locale.US, "%f_%f_%s_%s.bin", latitude, longitude, startDate, endDate));
+    }
+
+    private static ByteBuffer encode(APIResponseDTO response) {
+        HourlyMeasurementColumns columns = HourlyMeasurementColumns.fromDTO(response.getHourly());
+        int hours = columns.size();
+        for (int i = 1; i < hours; i++) {
+            if (columns.getEpochHour(i) != columns.getEpochHour(0) + i) {
+                return null;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * 4 * hours);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putDouble(response.getLatitude()).putDouble(response.getLongitude()).putDouble(response.getElevation())
+                .putLong(hours > 0 ? columns.getEpochHour(0) : 0).putInt(hours);
+        if (!putScaled(buffer, columns.copyTemperature())
+                || !putScaled(buffer, columns.copyRain())
+                || !putScaled(buffer, columns.copySnowfall())
+                || !putScaled(buffer, columns.copyWindspeed())) {
+            return null;
+        }
+        return buffer.flip();
+    }
+
+    // False when some value cannot be represented exactly
+    private static boolean putScaled(ByteBuffer buffer, double[] values) {
+        for (double value : values) {
+            if (Double.isNaN(value)) {
+                buffer.putInt(NULL_VALUE);
+                continue;
+            }
+            long scaled = Math.round(value * SCALE);
+            if (scaled <= NULL_VALUE || scaled > Integer.MAX_VALUE || scaled / SCALE != value) {
+                return false;
+            }
+            buffer.putInt((int) scaled);
+        }
+        return true;
+    }
+
+    private static APIResponseDTO decode(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalStateException("not an archive cache entry");
+        }
+        double latitude = buffer.getDouble();
+        double longitude = buffer.getDouble();
+        double elevation = buffer.getDouble();
+        long firstEpochHour = buffer.getLong();
+        int hours = buffer.getInt();
+        if (hours < 0 || buffer.remaining() != 4 * 4 * hours) {
+            throw new IllegalStateException("truncated archive cache entry");
+        }
+
+        long[] epochHours = new long[hours];
+        for (int i = 0; i < hours; i++) {
+            epochHours[i] = firstEpochHour + i;
+        }
+        IntBuffer values = buffer.asIntBuffer();
+        HourlyMeasurementColumns columns = new HourlyMeasurementColumns(
+                epochHours, getScaled(values, hours), getScaled(values, hours), getScaled(values, hours), getScaled(values, hours));
+
+        APIResponseDTO response = new APIResponseDTO();
+        response.setLatitude(latitude);
+        response.setLongitude(longitude);
+        response.setElevation(elevation);
+        response.setHourly(columns.toDTO());
+        return response;
+    }
+
+    private static double[] getScaled(IntBuffer values, int hours) {
+        int[] scaled = new int[hours];
+        values.get(scaled);
+        double[] column = new double[hours];
+        for (int i = 0; i < hours; i++) {
+            column[i] = scaled[i] == NULL_VALUE ? Double.NaN : scaled[i] / SCALE;
+        }
+        return column;
+    }
+}
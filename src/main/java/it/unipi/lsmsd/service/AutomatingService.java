@@ -1,6 +1,5 @@
 package it.unipi.lsmsd.service;
 
-import it.unipi.lsmsd.exception.ThresholdsNotPresentException;
 import it.unipi.lsmsd.exception.UnauthorizedException;
 import it.unipi.lsmsd.model.City;
 import it.unipi.lsmsd.model.Role;
@@ -16,7 +15,7 @@ import java.util.List;
 public class AutomatingService {
 
     @Autowired
-    ExtremeWeatherEventService extremeWeatherEventService;
+    ExtremeWeatherEventRunner extremeWeatherEventRunner;
 
     @Autowired
     RedisForecastService redisForecastService;
@@ -36,14 +35,10 @@ public class AutomatingService {
 
         List<City> cities =  cityRepository.findAll();
 
-        // Loop over all cities
-        for(City city : cities){
-            try {
-                hourlyMeasurementService.refreshHourlyMeasurementsAutomaticFromOpenMeteo(city.getId());
-            }
-            catch (Exception e){
-                System.out.println("Measurements not updated: " + city.getId());
-            }
+        // Batched requests, one per group of cities with the same last update
+        List<String> failed = hourlyMeasurementService.refreshHourlyMeasurementsAutomaticFromOpenMeteo(cities);
+        for(String cityId : failed){
+            System.out.println("Measurements not updated: " + cityId);
         }
     }
     @Async
@@ -56,19 +51,23 @@ public class AutomatingService {
 
         List<City> cities =  cityRepository.findAll();
 
-        // Loop over all cities
-        for(City city : cities){
-            try {
-                // Automatic update of the extreme weather event
-                extremeWeatherEventService.updateExtremeWeatherEventAutomatic(city.getId());
-                System.out.println("EWE Updated: " + city.getId());
-            }
-            catch (ThresholdsNotPresentException e){
-                System.out.println("Thresholds not present, EWE not updated: " + city.getId());
-            }
-            catch(Exception e){
-                System.out.println("EWE not Updated: " + city.getId());
-            }
+        // All cities in parallel, each one failing on its own
+        ExtremeWeatherEventRunner.Report report;
+        try {
+            report = extremeWeatherEventRunner.run(cities);
+        } catch (IllegalStateException e) {
+            System.out.println("EWE update skipped: " + e.getMessage());
+            return;
+        }
+        if(report.isSkipped()){
+            System.out.println("EWE update skipped: a detection is already running");
+            return;
+        }
+        for(String cityId : report.getWithoutThresholds()){
+            System.out.println("Thresholds not present, EWE not updated: " + cityId);
+        }
+        for(String cityId : report.getFailed()){
+            System.out.println("EWE not Updated: " + cityId);
         }
     }
     @Async
@@ -81,17 +80,16 @@ public class AutomatingService {
 
         List<City> cities =  cityRepository.findAll();
 
-        // Empty redis
-        redisForecastService.deleteAllForecast();
-
-        // Loop over all cities
-        for(City city : cities){
-            try{
-                redisForecastService.refreshForecastAutomaticFromOpenMeteo(city.getId());
-            }
-            catch (Exception e){
-                System.out.println("Forecasts not updated: " + city.getId());
-            }
+        // Batched requests, a handful for all cities
+        List<String> failed;
+        try {
+            failed = redisForecastService.refreshAllForecastsFromOpenMeteo(cities);
+        } catch (IllegalStateException e) {
+            System.out.println("Forecasts update skipped: " + e.getMessage());
+            return;
+        }
+        for(String cityId : failed){
+            System.out.println("Forecasts not updated: " + cityId);
         }
     }
     @Async
@@ -36,6 +36,8 @@ public class CityService {
     private UserService userService;
     @Autowired
     private RedisForecastService forecastRedisService;
+    @Autowired
+    private CitySpatialIndex citySpatialIndex;
 
     // Get City info with City Name
     public List<CityDTO> getCity(String cityName) throws NoSuchElementException {
@@ -90,6 +92,10 @@ public class CityService {
             hourlyMeasurementDTO.setCityId(city.getId());
             forecastRedisService.saveForecast(hourlyMeasurementDTO);
 
+            // Immediately usable for the interpolation of nearby locations
+            citySpatialIndex.add(city);
+            forecastRedisService.invalidateForecastGrid();
+
             return city.getId();
         } catch (Exception e) {
             // ROLLBACK if necesssary
@@ -98,6 +104,7 @@ public class CityService {
             }
             if (insertedMongo) {
                 cityRepository.deleteById(city.getId());
+                citySpatialIndex.remove(city.getId());
             }
             throw e;
         }
@@ -123,6 +130,8 @@ public class CityService {
         List<City> cities = new ArrayList<>();
         for(CityDTO cityDTO: cityDTOs){ cities.add(Mapper.mapCity(cityDTO));}
         cityRepository.saveAll(cities);
+        // Reloaded from MongoDB at the next query
+        citySpatialIndex.invalidate();
         return "Saved";
     }
 
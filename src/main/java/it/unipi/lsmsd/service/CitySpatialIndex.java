@@ -0,0 +1,248 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.model.City;
+import it.unipi.lsmsd.model.CityBasicProjection;
+import it.unipi.lsmsd.repository.CityRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory spatial index of the cities, to find the cities nearest to an arbitrary point regardless of
+ * their region.
+ * <p>
+ * Cities are bucketed in a uniform latitude/longitude grid of {@code cell-degrees} cells. A query visits
+ * the rings of cells around the point, from the inside out, and stops as soon as the next ring cannot
+ * hold anything closer than the k-th city found (or is beyond the radius). The index is an immutable
+ * snapshot loaded from MongoDB, reloaded every {@code reload} and updated in place when cities are added or removed.
+ */
+@Service
+public class CitySpatialIndex {
+
+    private static final double KM_PER_DEGREE = Math.PI * 6371.0 / 180;
+
+    private final CityRepository cityRepository;
+    private final double cellDegrees;
+    private final long reloadNanos;
+
+    private volatile Snapshot snapshot;
+
+    public CitySpatialIndex(
+            CityRepository cityRepository,
+            @Value("${forecast.spatial-index.cell-degrees:0.25}") double cellDegrees,
+            @Value("${forecast.spatial-index.reload:10m}") Duration reload
+    ) {
+        if (cellDegrees <= 0) {
+            throw new IllegalArgumentException("Invalid forecast.spatial-index.cell-degrees");
+        }
+        this.cityRepository = cityRepository;
+        this.cellDegrees = cellDegrees;
+        this.reloadNanos = reload.toNanos();
+    }
+
+    /**
+     * Returns the k cities nearest to a point, within a radius.
+     *
+     * @param latitude  latitude of the point
+     * @param longitude longitude of the point
+     * @param k         maximum number of cities returned
+     * @param radiusKm  maximum distance of the cities returned, in km
+     * @return the cities found, nearest first (may be empty)
+     */
+    public List<Neighbour> nearest(double latitude, double longitude, int k, double radiusKm) {
+        Snapshot index = current();
+        int row = cellOf(latitude);
+        int column = cellOf(longitude);
+
+        // Width of a cell in km along the parallel, at the farthest latitude the radius can reach (worst case)
+        double farthestLatitude = Math.min(89, Math.abs(latitude) + radiusKm / KM_PER_DEGREE);
+        double cellKm = cellDegrees * KM_PER_DEGREE * Math.cos(Math.toRadians(farthestLatitude));
+        int maxRing = (int) Math.ceil(radiusKm / cellKm) + 1;
+
+        List<Neighbour> found = new ArrayList<>();
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Every city in this ring or beyond is at least (ring - 1) whole cells away
+            if (found.size() >= k && (ring - 1) * cellKm > found.get(k - 1).getDistanceKm()) {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                for (int c = column - ring; c <= column + ring; c++) {
+                    // Only the border of the square, the inside was visited by the previous rings
+                    if (Math.abs(r - row) != ring && Math.abs(c - column) != ring) {
+                        continue;
+                    }
+                    List<IndexedCity> cell = index.cells.get(key(r, c));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (IndexedCity city : cell) {
+                        double distance = RedisForecastService.haversine(latitude, longitude, city.latitude, city.longitude);
+                        if (distance <= radiusKm) {
+                            found.add(new Neighbour(city.id, city.name, city.latitude, city.longitude, city.elevation, distance));
+                        }
+                    }
+                }
+            }
+            found.sort(Comparator.comparingDouble(Neighbour::getDistanceKm));
+        }
+        return found.size() > k ? new ArrayList<>(found.subList(0, k)) : found;
+    }
+
+    /**
+     * Returns the bounding box of the cities, as {@code {minLatitude, minLongitude, maxLatitude, maxLongitude}},
+     * or null when there are no cities.
+     */
+    public double[] bounds() {
+        Snapshot index = current();
+        if (index.cities.isEmpty()) {
+            return null;
+        }
+        double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (IndexedCity city : index.cities) {
+            bounds[0] = Math.min(bounds[0], city.latitude);
+            bounds[1] = Math.min(bounds[1], city.longitude);
+            bounds[2] = Math.max(bounds[2], city.latitude);
+            bounds[3] = Math.max(bounds[3], city.longitude);
+        }
+        return bounds;
+    }
+
+    /**
+     * Adds (or moves) a city, visible to the next queries.
+     */
+    public synchronized void add(City city) {
+        Snapshot index = current();
+        List<IndexedCity> cities = new ArrayList<>(index.cities.size() + 1);
+        for (IndexedCity indexed : index.cities) {
+            if (!indexed.id.equals(city.getId())) {
+                cities.add(indexed);
+            }
+        }
+        cities.add(new IndexedCity(city.getId(), city.getName(), city.getLatitude(), city.getLongitude(),
+                city.getElevation() != null ? city.getElevation() : 0.0));
+        snapshot = build(cities, index.loadedAt);
+    }
+
+    /**
+     * Removes a city, so that the next queries no longer return it.
+     */
+    public synchronized void remove(String cityId) {
+        Snapshot index = current();
+        List<IndexedCity> cities = new ArrayList<>(index.cities.size());
+        for (IndexedCity indexed : index.cities) {
+            if (!indexed.id.equals(cityId)) {
+                cities.add(indexed);
+            }
+        }
+        if (cities.size() != index.cities.size()) {
+            snapshot = build(cities, index.loadedAt);
+        }
+    }
+
+    /**
+     * Drops the snapshot, so that the next query reloads the cities from MongoDB.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        Snapshot index = snapshot;
+        if (index == null || System.nanoTime() - index.loadedAt > reloadNanos) {
+            synchronized (this) {
+                index = snapshot;
+                if (index == null || System.nanoTime() - index.loadedAt > reloadNanos) {
+                    index = load();
+                    snapshot = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private Snapshot load() {
+        List<IndexedCity> cities = new ArrayList<>();
+        for (CityBasicProjection city : cityRepository.findAllBy()) {
+            cities.add(new IndexedCity(city.getId(), city.getName(), city.getLatitude(), city.getLongitude(),
+                    city.getElevation() != null ? city.getElevation() : 0.0));
+        }
+        return build(cities, System.nanoTime());
+    }
+
+    private Snapshot build(List<IndexedCity> cities, long loadedAt) {
+        Map<Long, List<IndexedCity>> cells = new HashMap<>();
+        for (IndexedCity city : cities) {
+            cells.computeIfAbsent(key(cellOf(city.latitude), cellOf(city.longitude)), cell -> new ArrayList<>()).add(city);
+        }
+        return new Snapshot(cities, cells, loadedAt);
+    }
+
+    private int cellOf(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    private static final class Snapshot {
+        private final List<IndexedCity> cities;
+        private final Map<Long, List<IndexedCity>> cells;
+        private final long loadedAt;
+
+        private Snapshot(List<IndexedCity> cities, Map<Long, List<IndexedCity>> cells, long loadedAt) {
+            this.cities = cities;
+            this.cells = cells;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final class IndexedCity {
+        private final String id;
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final double elevation;
+
+        private IndexedCity(String id, String name, double latitude, double longitude, double elevation) {
+            this.id = id;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.elevation = elevation;
+        }
+    }
+
+    // A city found by a query, with its distance from the queried point
+    public static class Neighbour {
+        private final String id;
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final double elevation;
+        private final double distanceKm;
+
+        public Neighbour(String id, String name, double latitude, double longitude, double elevation, double distanceKm) {
+            this.id = id;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.elevation = elevation;
+            this.distanceKm = distanceKm;
+        }
+
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public double getLatitude() { return latitude; }
+        public double getLongitude() { return longitude; }
+        public double getElevation() { return elevation; }
+        public double getDistanceKm() { return distanceKm; }
+    }
+}
@@ -4,39 +4,97 @@ import it.unipi.lsmsd.DTO.APIResponseDTO;
 import it.unipi.lsmsd.DTO.CityDTO;
 import it.unipi.lsmsd.utility.Mapper;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatusCode;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import io.github.resilience4j.retry.RetryRegistry;
 import io.github.resilience4j.retry.annotation.Retry;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 // Hit the Open Meteo API to retrieve Weather Data
 @Service
 public class DataHarvestService {
 
     // Base Url of Open Meteo to retrive data from
     private final RestTemplate restTemplate;
-    private static final String API_URL_HISTORY = "https://archive-api.open-meteo.com/v1/archive";
-    private static final String API_URL_FORECAST = "https://api.open-meteo.com/v1/forecast";
-    private static final String API_URL_GEOCODING = "https://geocoding-api.open-meteo.com/v1/search";
+    // Configurable, e.g. to target the fake server of the fake-open-meteo profile
+    @Value("${open-meteo.archive-url:https://archive-api.open-meteo.com/v1/archive}")
+    private String apiUrlHistory;
+    @Value("${open-meteo.forecast-url:https://api.open-meteo.com/v1/forecast}")
+    private String apiUrlForecast;
+    @Value("${open-meteo.geocoding-url:https://geocoding-api.open-meteo.com/v1/search}")
+    private String apiUrlGeocoding;
+
+    // Maximum number of locations in a multi-location request
+    @Value("${open-meteo.batch-size:50}")
+    private int batchSize;
+
+    // Pooled client shared by the blocking and the asynchronous requests
+    private final HttpClient httpClient;
+    // Timeout of a whole request (java.net.http semantics): from sending it until the response headers
+    // arrive, connection included; the body is then streamed without a timeout
+    private final Duration requestTimeout;
+    // Same retry instance used by @Retry, so both paths follow resilience4j.retry.instances.OpenMeteoApiRetry
+    private final io.github.resilience4j.retry.Retry openMeteoRetry;
+    private final ScheduledExecutorService retryScheduler;
+    // Decodes the bodies of the asynchronous responses
+    private final ExecutorService decodeExecutor;
+    // Rate and concurrency limit of all the requests
+    private final HarvestScheduler harvestScheduler;
+    // Archive responses already downloaded, for the windows old enough not to change anymore
+    private final ArchiveResponseCache archiveResponseCache;
 
     // Constructor with REST config
-    public DataHarvestService() {
-        //Configure timeouts by setting the request factory
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000); // Maximum time 5s to establish a connection with the server
-        factory.setReadTimeout(5000); //Maximum time 5s to wait for a response after the connection is established
+    public DataHarvestService(
+            HttpClient openMeteoHttpClient,
+            HarvestScheduler harvestScheduler,
+            ArchiveResponseCache archiveResponseCache,
+            RetryRegistry retryRegistry,
+            @Qualifier("openMeteoRetryScheduler") ScheduledExecutorService retryScheduler,
+            @Qualifier("openMeteoDecodeExecutor") ExecutorService decodeExecutor,
+            // read-timeout is the former name of the property, still accepted
+            @Value("${open-meteo.http.request-timeout:${open-meteo.http.read-timeout:5s}}") Duration requestTimeout
+    ) {
+        this.httpClient = openMeteoHttpClient;
+        this.harvestScheduler = harvestScheduler;
+        this.archiveResponseCache = archiveResponseCache;
+        this.requestTimeout = requestTimeout;
+        this.openMeteoRetry = retryRegistry.retry("OpenMeteoApiRetry");
+        this.retryScheduler = retryScheduler;
+        this.decodeExecutor = decodeExecutor;
+        //Configure timeouts by setting the request factory, the connect timeout is set on the client
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(openMeteoHttpClient);
+        // Despite its name, applied by the factory as the HttpRequest timeout, as in sendAsync
+        factory.setReadTimeout(requestTimeout);
         this.restTemplate = new RestTemplate(factory);
     }
 
@@ -50,6 +108,7 @@ public class DataHarvestService {
      *   <li>A forecast segment: from one day ago to {@code endDate}</li>
      * </ul>
      * It then invokes the corresponding endpoints and merges the results into a single {@link APIResponseDTO}.
+     * Archive responses are served from the {@link ArchiveResponseCache} when already downloaded.
      * </p>
      *
      * @param latitude  the latitude of the location
@@ -61,6 +120,94 @@ public class DataHarvestService {
      */
     @Retry(name = "OpenMeteoApiRetry")
     public APIResponseDTO getCityHistoricalMeasurement(double latitude, double longitude, String startDate, String endDate) throws JsonProcessingException {
+        return getCitiesHistoricalMeasurement(new double[] { latitude }, new double[] { longitude }, startDate, endDate).get(0);
+    }
+
+    /**
+     * Multi-location variant of {@link #getCityHistoricalMeasurement}: the coordinates are sent as
+     * comma-separated lists, so a single request per endpoint covers all the locations.
+     * All the locations share the same date range.
+     *
+     * @param latitude  the latitudes of the locations, at most {@code open-meteo.batch-size}
+     * @param longitude the longitudes of the locations, in the same order
+     * @param startDate the start of the time range (inclusive), in {@code YYYY-MM-DD} format
+     * @param endDate   the end of the time range (inclusive), in {@code YYYY-MM-DD} format
+     * @return one {@link APIResponseDTO} per location, in the order of the given coordinates
+     * @throws JsonProcessingException if an error occurs while mapping either API response
+     */
+    @Retry(name = "OpenMeteoApiRetry")
+    public List<APIResponseDTO> getCitiesHistoricalMeasurement(double[] latitude, double[] longitude, String startDate, String endDate) throws JsonProcessingException {
+        LocalDate[][] segments = historicalSegments(latitude, longitude, startDate, endDate);
+        List<APIResponseDTO> archiveDTOs = null;
+        List<APIResponseDTO> forecastDTOs = null;
+
+        if (segments[0] != null) {
+            LocalDate[] archive = segments[0];
+            APIResponseDTO[] responses = new APIResponseDTO[latitude.length];
+            int[] missing = lookupArchiveCache(latitude, longitude, archive, responses);
+            if (missing.length > 0) {
+                // Only the locations not cached go to the network
+                double[][] coordinates = selectCoordinates(latitude, longitude, missing);
+                List<APIResponseDTO> fetched = fetch(archiveUrl(coordinates[0], coordinates[1], archive[0].toString(), archive[1].toString()),
+                        responsesOf(missing.length));
+                storeArchiveResponses(fetched, coordinates, archive, missing, responses);
+            }
+            archiveDTOs = Arrays.asList(responses);
+        }
+        if (segments[1] != null) {
+            String url = historicalForecastUrl(latitude, longitude, segments[1][0].toString(), segments[1][1].toString());
+            forecastDTOs = fetch(url, responsesOf(latitude.length));
+        }
+        return mergeSegments(archiveDTOs, forecastDTOs, latitude.length);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getCityHistoricalMeasurement}.
+     */
+    public CompletableFuture<APIResponseDTO> getCityHistoricalMeasurementAsync(double latitude, double longitude, String startDate, String endDate) {
+        return getCitiesHistoricalMeasurementAsync(new double[] { latitude }, new double[] { longitude }, startDate, endDate)
+                .thenApply(responses -> responses.get(0));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getCitiesHistoricalMeasurement}: the archive and forecast requests are
+     * sent together and retried according to {@code OpenMeteoApiRetry} without blocking any thread.
+     */
+    public CompletableFuture<List<APIResponseDTO>> getCitiesHistoricalMeasurementAsync(double[] latitude, double[] longitude, String startDate, String endDate) {
+        LocalDate[][] segments;
+        try {
+            segments = historicalSegments(latitude, longitude, startDate, endDate);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<List<APIResponseDTO>> archive = CompletableFuture.completedFuture(null);
+        if (segments[0] != null) {
+            LocalDate[] window = segments[0];
+            APIResponseDTO[] responses = new APIResponseDTO[latitude.length];
+            int[] missing = lookupArchiveCache(latitude, longitude, window, responses);
+            if (missing.length == 0) {
+                archive = CompletableFuture.completedFuture(Arrays.asList(responses));
+            } else {
+                // Only the locations not cached go to the network
+                double[][] coordinates = selectCoordinates(latitude, longitude, missing);
+                archive = fetchAsync(archiveUrl(coordinates[0], coordinates[1], window[0].toString(), window[1].toString()), responsesOf(missing.length))
+                        .thenApply(fetched -> {
+                            storeArchiveResponses(fetched, coordinates, window, missing, responses);
+                            return Arrays.asList(responses);
+                        });
+            }
+        }
+        CompletableFuture<List<APIResponseDTO>> forecast = segments[1] == null
+                ? CompletableFuture.completedFuture(null)
+                : fetchAsync(historicalForecastUrl(latitude, longitude, segments[1][0].toString(), segments[1][1].toString()),
+                        responsesOf(latitude.length));
+        return archive.thenCombine(forecast, (archiveDTOs, forecastDTOs) -> mergeSegments(archiveDTOs, forecastDTOs, latitude.length));
+    }
+
+    // Archive and forecast windows covering [startDate, endDate], null for a segment not needed
+    private LocalDate[][] historicalSegments(double[] latitude, double[] longitude, String startDate, String endDate) {
+        checkCoordinates(latitude, longitude);
         LocalDate start = LocalDate.parse(startDate);
         LocalDate end = LocalDate.parse(endDate);
 
@@ -68,85 +215,105 @@ public class DataHarvestService {
         LocalDate archiveMax = today.minusDays(2);   // Up to two days ago
         LocalDate forecastMin = today.minusDays(1);  // From one day ago onward
 
-        APIResponseDTO archiveDTO = null;
-        APIResponseDTO forecastDTO = null;
+        LocalDate[][] segments = new LocalDate[2][];
 
         if (!start.isAfter(archiveMax)) {
             // Historical segment: [start, min(end, archiveMax)]
             LocalDate archiveEnd = end.isBefore(archiveMax) ? end : archiveMax;
-            archiveDTO = getCityHistoricalMeasurement_archive(latitude, longitude, start.toString(), archiveEnd.toString());
+            segments[0] = new LocalDate[] { start, archiveEnd };
         }
 
         if (!end.isBefore(forecastMin)) {
             // Forecast segment: [max(start, forecastMin), end]
             LocalDate forecastStart = start.isAfter(forecastMin) ? start : forecastMin;
-            forecastDTO = getCityHistoricalMeasurement_forecast(latitude, longitude, forecastStart.toString(), end.toString());
+            segments[1] = new LocalDate[] { forecastStart, end };
+        }
+        return segments;
+    }
+
+    // Fills the cached archive responses, returns the indexes of the locations not cached
+    private int[] lookupArchiveCache(double[] latitude, double[] longitude, LocalDate[] window, APIResponseDTO[] responses) {
+        int[] missing = new int[latitude.length];
+        int count = 0;
+        for (int i = 0; i < latitude.length; i++) {
+            responses[i] = archiveResponseCache.get(latitude[i], longitude[i], window[0], window[1]);
+            if (responses[i] == null) {
+                missing[count++] = i;
+            }
+        }
+        return Arrays.copyOf(missing, count);
+    }
+
+    // Places the fetched archive responses at their location and caches them
+    private void storeArchiveResponses(List<APIResponseDTO> fetched, double[][] coordinates, LocalDate[] window,
+                                       int[] missing, APIResponseDTO[] responses) {
+        for (int k = 0; k < missing.length; k++) {
+            responses[missing[k]] = fetched.get(k);
+            archiveResponseCache.put(coordinates[0][k], coordinates[1][k], window[0], window[1], fetched.get(k));
+        }
+    }
+
+    private static double[][] selectCoordinates(double[] latitude, double[] longitude, int[] indexes) {
+        double[][] selected = new double[2][indexes.length];
+        for (int k = 0; k < indexes.length; k++) {
+            selected[0][k] = latitude[indexes[k]];
+            selected[1][k] = longitude[indexes[k]];
         }
+        return selected;
+    }
 
-        // Merge results
-        if (archiveDTO != null && forecastDTO != null) {
-            return APIResponseDTO.merge(archiveDTO, forecastDTO);
-        } else if (archiveDTO != null) {
-            return archiveDTO;
-        } else if (forecastDTO != null) {
-            return forecastDTO;
-        } else {
+    // Merges the archive and forecast responses location by location
+    private static List<APIResponseDTO> mergeSegments(List<APIResponseDTO> archiveDTOs, List<APIResponseDTO> forecastDTOs, int locations) {
+        List<APIResponseDTO> responses = new ArrayList<>(locations);
+        for (int i = 0; i < locations; i++) {
+            APIResponseDTO archiveDTO = archiveDTOs == null ? null : archiveDTOs.get(i);
+            APIResponseDTO forecastDTO = forecastDTOs == null ? null : forecastDTOs.get(i);
+            APIResponseDTO merged = APIResponseDTO.merge(archiveDTO, forecastDTO);
             // Interval outside valid range (e.g., entirely before archive limit or invalid dates)
-            return new APIResponseDTO(); // Or handle as appropriate
+            responses.add(merged != null ? merged : new APIResponseDTO());
         }
+        return responses;
     }
 
 
     /**
-     * Retrieves historical meteorological data (temperature, rain, snowfall, and wind speed) for a given city
-     * using the Open-Meteo API archive endpoint.
+     * Builds the request retrieving historical meteorological data (temperature, rain, snowfall, and wind speed)
+     * for the given locations from the Open-Meteo API archive endpoint.
      * <p>
-     * The request is made for a specific geographic location (latitude and longitude) and a time interval
+     * The request is made for a list of geographic locations (latitude and longitude) and a time interval
      * defined by {@code startDate} and {@code endDate}, which must both be in the format {@code YYYY-MM-DD}
      * and cannot include dates more recent than two days before the current day (e.g., if today is May 12,
      * the maximum allowable date is May 10).
      * </p>
      *
-     * @param latitude  the latitude of the location
-     * @param longitude the longitude of the location
+     * @param latitude  the latitudes of the locations
+     * @param longitude the longitudes of the locations
      * @param startDate the start date of the historical range (inclusive), in {@code YYYY-MM-DD} format
      * @param endDate   the end date of the historical range (inclusive), in {@code YYYY-MM-DD} format
-     * @return an {@link APIResponseDTO} containing the mapped weather data for the specified range and location
-     * @throws JsonProcessingException if an error occurs while mapping the API response to the DTO
+     * @return the url of the request, whose response holds one entry per location
      */
-    @Retry(name = "OpenMeteoApiRetry")
-    private APIResponseDTO getCityHistoricalMeasurement_archive(double latitude, double longitude, String startDate, String endDate) throws JsonProcessingException{
+    private String archiveUrl(double[] latitude, double[] longitude, String startDate, String endDate) {
         // Append the parameters (Hourly Measurements of Temperature_2m, Rain, Snowfall and Wind_speed_10m) to the base URL
-        String url = String.format(Locale.US, "%s?latitude=%f&longitude=%f&start_date=%s&end_date=%s&hourly=temperature_2m,rain,snowfall,wind_speed_10m",
-                API_URL_HISTORY, latitude, longitude, startDate, endDate);
-        ResponseEntity<String> apiResponse = restTemplate.getForEntity(url, String.class);
-
-        // Handle Unsucessful Requests
-        checkAPIresponse(apiResponse);
-
-        // On success get the data and Map to the DTO
-        APIResponseDTO responseDTO = Mapper.mapAPIResponse(apiResponse.getBody());
-        return responseDTO;
+        return String.format(Locale.US, "%s?latitude=%s&longitude=%s&start_date=%s&end_date=%s&hourly=temperature_2m,rain,snowfall,wind_speed_10m",
+                apiUrlHistory, joinCoordinates(latitude), joinCoordinates(longitude), startDate, endDate);
     }
 
     /**
-     * Retrieves both forecasted and recent past meteorological data (temperature, rain, snowfall, and wind speed)
-     * for a specified location using the Open-Meteo API forecast endpoint.
+     * Builds the request retrieving both forecasted and recent past meteorological data (temperature, rain,
+     * snowfall, and wind speed) for the given locations from the Open-Meteo API forecast endpoint.
      * <p>
      * The request is parameterized using {@code startDate} and {@code endDate}, from which the number of forecast
      * days and past days is calculated relative to the current date.
      * The dates must be in {@code YYYY-MM-DD} format.
      * </p>
      *
-     * @param latitude  the latitude of the target location
-     * @param longitude the longitude of the target location
+     * @param latitude  the latitudes of the target locations
+     * @param longitude the longitudes of the target locations
      * @param startDate the start date (inclusive) of the time interval, in {@code YYYY-MM-DD} format
      * @param endDate   the end date (inclusive) of the time interval, in {@code YYYY-MM-DD} format
-     * @return an {@link APIResponseDTO} containing the weather forecast and historical data for the given location and date range
-     * @throws JsonProcessingException if the mapping of the API response to the DTO fails
+     * @return the url of the request, whose response holds one entry per location
      */
-    @Retry(name = "OpenMeteoApiRetry")
-    private APIResponseDTO getCityHistoricalMeasurement_forecast(double latitude, double longitude, String startDate, String endDate) throws JsonProcessingException{
+    private String historicalForecastUrl(double[] latitude, double[] longitude, String startDate, String endDate) {
         // Calculate forecastDays and pastDays
         LocalDate today = LocalDate.now();
         LocalDate start = LocalDate.parse(startDate);
@@ -163,68 +330,221 @@ public class DataHarvestService {
             forecastDays = (int) ChronoUnit.DAYS.between(today.minusDays(1), end);
         }
 
-        // Append the parameters (Hourly Measurements of Temperature_2m, Rain, Snowfall and Wind_speed_10m) to the base URL
-        String url = String.format(Locale.US, "%s?latitude=%f&longitude=%f&hourly=temperature_2m,rain,snowfall,wind_speed_10m&forecast_days=%d&past_days=%d",
-                API_URL_FORECAST, latitude, longitude, forecastDays, pastDays);
-
-        ResponseEntity<String> apiResponse = restTemplate.getForEntity(url, String.class);
-
-        // Handle Unsucessful Requests
-        checkAPIresponse(apiResponse);
-
-        // On success get the data and Map to the DTO
-        APIResponseDTO responseDTO = Mapper.mapAPIResponse(apiResponse.getBody());
-        return responseDTO;
+        return forecastUrl(latitude, longitude, pastDays, forecastDays);
     }
 
     // Get the forecast of the given city
     // https://api.open-meteo.com/v1/forecast?latitude=43.7085&longitude=10.4036&hourly=temperature_2m,rain,snowfall,wind_speed_10m&forecast_days=7&past_days=1
     @Retry(name="OpenMeteoApiRetry")
     public APIResponseDTO getCityForecast (double latitude, double longitude, int pastDays, int forecastDays) throws JsonProcessingException {
-        // create url for API
-        String url = String.format(Locale.US, "%s?latitude=%f&longitude=%f&hourly=temperature_2m,rain,snowfall,wind_speed_10m&forecast_days=%d&past_days=%d",
-            API_URL_FORECAST, latitude, longitude, forecastDays, pastDays);
-        // API call and Response
-        ResponseEntity<String> apiResponse = restTemplate.getForEntity(url, String.class);
+        return getCitiesForecast(new double[] { latitude }, new double[] { longitude }, pastDays, forecastDays).get(0);
+    }
 
-        // Handle Unsucessful Requests
-        checkAPIresponse(apiResponse);
+    // Get the forecast of several cities with a single request, one response per city in the order of the coordinates
+    // https://api.open-meteo.com/v1/forecast?latitude=43.7085,43.7696&longitude=10.4036,11.2558&hourly=temperature_2m,rain,snowfall,wind_speed_10m&forecast_days=7&past_days=1
+    @Retry(name="OpenMeteoApiRetry")
+    public List<APIResponseDTO> getCitiesForecast(double[] latitude, double[] longitude, int pastDays, int forecastDays) throws JsonProcessingException {
+        checkCoordinates(latitude, longitude);
+        // API call and Response, mapped to the DTOs
+        return fetch(forecastUrl(latitude, longitude, pastDays, forecastDays), responsesOf(latitude.length));
+    }
 
-        // On success get the data and Map to the DTO
-        APIResponseDTO responseDTO = Mapper.mapAPIResponse(apiResponse.getBody());
-        return responseDTO;
+    // Asynchronous variant of getCityForecast
+    public CompletableFuture<APIResponseDTO> getCityForecastAsync(double latitude, double longitude, int pastDays, int forecastDays) {
+        return getCitiesForecastAsync(new double[] { latitude }, new double[] { longitude }, pastDays, forecastDays)
+                .thenApply(responses -> responses.get(0));
+    }
+
+    // Asynchronous variant of getCitiesForecast, retried according to OpenMeteoApiRetry without blocking any thread
+    public CompletableFuture<List<APIResponseDTO>> getCitiesForecastAsync(double[] latitude, double[] longitude, int pastDays, int forecastDays) {
+        try {
+            checkCoordinates(latitude, longitude);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return fetchAsync(forecastUrl(latitude, longitude, pastDays, forecastDays), responsesOf(latitude.length));
     }
+
+    private String forecastUrl(double[] latitude, double[] longitude, int pastDays, int forecastDays) {
+        return String.format(Locale.US, "%s?latitude=%s&longitude=%s&hourly=temperature_2m,rain,snowfall,wind_speed_10m&forecast_days=%d&past_days=%d",
+                apiUrlForecast, joinCoordinates(latitude), joinCoordinates(longitude), forecastDays, pastDays);
+    }
+
+    /**
+     * Splits the given items into consecutive batches of at most {@code open-meteo.batch-size} elements,
+     * the number of locations sent in a single multi-location request.
+     */
+    public <T> List<List<T>> partitionIntoBatches(List<T> items) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += batchSize) {
+            batches.add(items.subList(from, Math.min(items.size(), from + batchSize)));
+        }
+        return batches;
+    }
+
+    // Decodes a multi-location response, checking that there is one response per requested location
+    private static BodyDecoder<List<APIResponseDTO>> responsesOf(int locations) {
+        return body -> {
+            List<APIResponseDTO> responses = Mapper.mapAPIResponseList(body);
+            if (responses.size() != locations) {
+                throw new IllegalStateException("Open-Meteo returned " + responses.size() + " responses for " + locations + " locations");
+            }
+            return responses;
+        };
+    }
+
+    private void checkCoordinates(double[] latitude, double[] longitude) {
+        if (latitude.length == 0 || latitude.length != longitude.length) {
+            throw new IllegalArgumentException("Latitudes and longitudes must be non-empty and of the same length");
+        }
+        if (latitude.length > batchSize) {
+            throw new IllegalArgumentException("At most " + batchSize + " locations per Open-Meteo request");
+        }
+    }
+
+    // Comma-separated list of coordinates, as accepted by Open-Meteo
+    private static String joinCoordinates(double[] coordinates) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < coordinates.length; i++) {
+            if (i > 0) joined.append(',');
+            joined.append(String.format(Locale.US, "%f", coordinates[i]));
+        }
+        return joined.toString();
+    }
+
     //
     @Retry(name="OpenMeteoApiRetry")
     public CityDTO getCity(String name, String countryCode) throws IOException{
-        // create url for API
-        String url = String.format(Locale.US, "%s?name=%s&countryCode=%s", API_URL_GEOCODING, name, countryCode);
-        ResponseEntity<String> apiResponse = restTemplate.getForEntity(url, String.class);
-        // Handle Unsucessful Requests
-        checkAPIresponse(apiResponse);
         // On success get the data and Map to the DTO
-        List<CityDTO> cityDTO = Mapper.mapCityList(apiResponse.getBody());
+        List<CityDTO> cityDTO = fetch(geocodingUrl(name, countryCode), Mapper::mapCityList);
         // Get the first element from the list --> Assumption that usually only 1 element and if multiple the first one matches the name exactly
         return cityDTO.get(0);
     }
 
-    // Handle Unsucessful Requests
-    private void checkAPIresponse(ResponseEntity<String> apiResponse) {
-        HttpStatusCode statusCode = apiResponse.getStatusCode();
+    // Asynchronous variant of getCity
+    public CompletableFuture<CityDTO> getCityAsync(String name, String countryCode) {
+        return fetchAsync(geocodingUrl(name, countryCode), Mapper::mapCityList).thenApply(cityDTO -> cityDTO.get(0));
+    }
 
-        if (apiResponse == null || apiResponse.getBody() == null || apiResponse.getBody().trim().isEmpty()) {
+    private String geocodingUrl(String name, String countryCode) {
+        return String.format(Locale.US, "%s?name=%s&countryCode=%s", apiUrlGeocoding, name, countryCode);
+    }
+
+    // Decodes a successful response body, reading it only once
+    @FunctionalInterface
+    private interface BodyDecoder<T> {
+        T decode(InputStream body) throws IOException;
+    }
+
+    /**
+     * Blocking GET, admitted by the {@link HarvestScheduler}. The body is decoded while it is read from
+     * the connection, only for a successful response.
+     */
+    private <T> T fetch(String url, BodyDecoder<T> decoder) throws JsonProcessingException {
+        HarvestScheduler.Permit permit = harvestScheduler.acquire().join();
+        try {
+            T result = restTemplate.execute(url, HttpMethod.GET, null,
+                    response -> decode(response.getStatusCode(), response.getBody(), decoder));
+            permit.release(HarvestScheduler.Outcome.SUCCESS);
+            return result;
+        } catch (UncheckedIOException e) {
+            permit.release(HarvestScheduler.Outcome.IGNORED);
+            if (e.getCause() instanceof JsonProcessingException mappingError) {
+                throw mappingError;
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            permit.release(HarvestScheduler.outcomeOf(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking GET through the pooled client, retried with the {@code OpenMeteoApiRetry} configuration.
+     * Every attempt waits for its admission by the {@link HarvestScheduler}.
+     * The waits between attempts are scheduled, so no thread is held while a request is queued, in flight or backing off.
+     * Failures surface as the same exceptions of the blocking path ({@link ResourceAccessException} for I/O errors,
+     * {@link HttpServerErrorException} for 5xx responses), which are the ones the retry configuration selects.
+     */
+    private <T> CompletableFuture<T> fetchAsync(String url, BodyDecoder<T> decoder) {
+        return io.github.resilience4j.retry.Retry
+                .decorateCompletionStage(openMeteoRetry, retryScheduler, () -> harvestScheduler.submit(() -> sendAsync(url, decoder)))
+                .get()
+                .toCompletableFuture();
+    }
+
+    // Single attempt of fetchAsync
+    private <T> CompletableFuture<T> sendAsync(String url, BodyDecoder<T> decoder) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout).GET().build();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                IOException ioException = cause instanceof IOException io ? io : new IOException(cause);
+                result.completeExceptionally(new ResourceAccessException(
+                        "I/O error on GET request for \"" + url + "\": " + cause.getMessage(), ioException));
+                return;
+            }
+            // Reading the body blocks until its data arrives, which the client delivers on its own threads:
+            // the decoding runs on a separate executor so that it cannot starve them
+            decodeExecutor.execute(() -> {
+                try (InputStream body = response.body()) {
+                    result.complete(decode(HttpStatusCode.valueOf(response.statusCode()), body, decoder));
+                } catch (IOException e) {
+                    result.completeExceptionally(new ResourceAccessException(
+                            "I/O error on GET request for \"" + url + "\": " + e.getMessage(), e));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        });
+        return result;
+    }
+
+    // Checks the response and decodes its body. Mapping errors are wrapped, otherwise they would be
+    // taken for I/O errors of the connection (and retried)
+    private <T> T decode(HttpStatusCode statusCode, InputStream body, BodyDecoder<T> decoder) throws IOException {
+        InputStream checkedBody = checkAPIresponse(statusCode, body);
+        try {
+            return decoder.decode(checkedBody);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Handle Unsucessful Requests, returns the body ready to be decoded
+    private InputStream checkAPIresponse(HttpStatusCode statusCode, InputStream body) throws IOException {
+        if (!statusCode.is2xxSuccessful()) {
+            // Error bodies are short, read them whole for the message
+            checkAPIresponse(statusCode, body == null ? null : new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        // Look for the first non-blank byte without consuming it
+        PushbackInputStream checkedBody = new PushbackInputStream(body == null ? InputStream.nullInputStream() : body, 1);
+        int first;
+        do {
+            first = checkedBody.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        if (first == -1) {
             throw new IllegalArgumentException("Open-Meteo API response is null or empty");
-        } else if (statusCode.is5xxServerError()) {
+        }
+        checkedBody.unread(first);
+        return checkedBody;
+    }
+
+    private void checkAPIresponse(HttpStatusCode statusCode, String body) {
+        if (statusCode.is5xxServerError()) {
             //Server error 500-599 to be retried (Handled by Resilence4j's config in application.yml)
-            throw new HttpServerErrorException(statusCode, "Open-Meteo Server Error: " + apiResponse.getBody());
+            throw new HttpServerErrorException(statusCode, "Open-Meteo Server Error: " + body);
         } else if (statusCode.is4xxClientError()) {
-            // No retry
-            throw new HttpClientErrorException(statusCode, "Open-Meteo Client error: " + apiResponse.getBody());
+            // No retry, the specific subclass (e.g. TooManyRequests) lets the HarvestScheduler spot throttling
+            throw HttpClientErrorException.create("Open-Meteo Client error: " + body, statusCode, "", null, null, null);
         } else if (!statusCode.is2xxSuccessful()) {
             // No retry
             throw new RestClientException(
-                    "Open-Meteo Request failed, Status Code: " + statusCode.value() + ", Error: " + apiResponse.getBody());
+                    "Open-Meteo Request failed, Status Code: " + statusCode.value() + ", Error: " + body);
+        } else if (body == null || body.trim().isEmpty()) {
+            throw new IllegalArgumentException("Open-Meteo API response is null or empty");
         }
     }
     
-}
\ No newline at end of file
+}
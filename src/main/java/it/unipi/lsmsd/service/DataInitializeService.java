@@ -21,6 +21,7 @@ import it.unipi.lsmsd.model.EWEThreshold;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.stereotype.Service;
@@ -30,15 +31,12 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import it.unipi.lsmsd.DTO.APIResponseDTO;
 import it.unipi.lsmsd.DTO.CityDTO;
-import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
+import it.unipi.lsmsd.utility.ISODateUtil;
 import it.unipi.lsmsd.utility.MongoInitializer;
 import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisPool;
 
-import static it.unipi.lsmsd.utility.StatisticsUtility.getEweThresholdsFromMeasurements;
-
 @Service
 public class DataInitializeService {
 
@@ -48,6 +46,14 @@ public class DataInitializeService {
     private HourlyMeasurementService hourlyMeasurementService;
     @Autowired
     private JedisCluster jedisCluster;
+    @Autowired
+    private MeasurementBulkWriteService measurementBulkWriteService;
+
+    // Hours per chunk and chunks buffered between stages of the measurement ingestion
+    @Value("${spring.mongo.ingest.chunk-hours:8760}")
+    private int ingestChunkHours;
+    @Value("${spring.mongo.ingest.queue-capacity:4}")
+    private int ingestQueueCapacity;
 
     private static final double PERCENTILE = 0.075;
 
@@ -93,20 +99,33 @@ public class DataInitializeService {
     }
 
 
+    /**
+     * Loads every per-city measurement file under {@code resources/data_init/measurements/} into MongoDB.
+     * <p>
+     * Each file is streamed through a {@link HourlyMeasurementIngestPipeline} (read, map and write stages
+     * connected by bounded queues): the file is parsed once and its columns are spilled to a temporary file,
+     * about 40 bytes per hour, from which the chunks are read. The heap used per file depends on the chunk size
+     * and the queue capacity, not on the number of years in the file. Files are processed in parallel, one per
+     * available core.
+     *
+     * @throws IOException if the measurement files cannot be listed
+     */
     public void initializeMeasurements() throws IOException {
         // Finds all JSON files under resources/data_init/measurements/
         ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
         Resource[] resources = resolver.getResources("classpath:/data_init/measurements/*.json");
 
-        // Use a thread pool with max 4 threads or number of available CPUs (whichever is lower)
-        int threadCount = Math.min(4, Runtime.getRuntime().availableProcessors());
+        // One file per available CPU, the map and write stages of each file run on their own threads
+        int threadCount = Math.max(1, Math.min(resources.length, Runtime.getRuntime().availableProcessors()));
         ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        ExecutorService stageExecutor = Executors.newFixedThreadPool(2 * threadCount);
+        HourlyMeasurementIngestPipeline pipeline = new HourlyMeasurementIngestPipeline(
+                objectMapper.getFactory(), measurementBulkWriteService, stageExecutor, ingestChunkHours, ingestQueueCapacity);
         List<Future<?>> futures = new ArrayList<>();
 
         // Submit a separate task for each file to process in parallel
         for (Resource resource : resources) {
-            // processFile(resource);
-            futures.add(executor.submit(() -> processFile(resource)));
+            futures.add(executor.submit(() -> processFile(resource, pipeline)));
         }
 
         // Wait for all threads to finish execution
@@ -119,18 +138,15 @@ public class DataInitializeService {
             }
         }
 
-        // Cleanly shut down the executor
+        // Cleanly shut down the executors
         executor.shutdown();
+        stageExecutor.shutdown();
     }
 
     
-    // Processes a single JSON file: parses, extracts cityId, and saves data to MongoDB.
-    private void processFile(Resource resource) {
-        try (InputStream is = resource.getInputStream()) {
-            // Deserialize JSON into DTO
-            APIResponseDTO responseDTO = objectMapper.readValue(is, new TypeReference<APIResponseDTO>() {});
-            HourlyMeasurementDTO dto = responseDTO.getHourly();
-            
+    // Processes a single JSON file: streams it to MongoDB, extracts cityId and computes the thresholds.
+    private void processFile(Resource resource, HourlyMeasurementIngestPipeline pipeline) {
+        try {
             // Use the filename (e.g. pis-tus-43.7085-10.4036.json) as the cityId
             String cityId = Optional.ofNullable(resource.getFilename())
                     .map(name -> name.replace(".json", ""))
@@ -139,33 +155,34 @@ public class DataInitializeService {
             logger.info("Initializing measurements of city: " + cityId);
             System.out.println("Initializing measurements of city: " + cityId);
 
-            dto.setCityId(cityId);
-            // Save the parsed measurement to MongoDB
-            hourlyMeasurementService.saveHourlyMeasurements(dto);
+            // Stream the measurements to MongoDB, computing the statistics on the way
+            HourlyMeasurementIngestPipeline.IngestResult result = pipeline.ingest(cityId, resource);
+            if (result.getHours() == 0) {
+                logger.error("No measurements found in " + resource.getFilename());
+                return;
+            }
+            logger.info("Measurements saved for " + cityId + ": " + result.getHours() + " hours, " + result.getReport());
 
             // Computes the EWE Thresholds
-            EWEThreshold cityEweThresholds = getEweThresholdsFromMeasurements(dto, PERCENTILE);
+            EWEThreshold cityEweThresholds = result.getThresholds(PERCENTILE);
             logger.info("EWE Thresholds calculated for "+cityId+": "+cityEweThresholds.toString());
 
             cityService.updateCityThresholds(cityId, cityEweThresholds);
             
             // Save the first and last element of the time as timeframe of the historical data
-            List<String> timeList = dto.getTime(); 
-            String endDate = timeList.get(timeList.size() - 1);
-            String startDate = timeList.get(0);
+            String startDate = ISODateUtil.formatEpochHour(result.getFirstEpochHour());
+            String endDate = ISODateUtil.formatEpochHour(result.getLastEpochHour());
             // Update the city Last Update date
             cityService.updateStartEndDate(startDate, endDate, cityId);
-            // System.out.println("cityService.updateStartEndDate: cityId:"+cityId+" startDate:"+startDate+" endDate:"+endDate);
 
             // Update lastMeasurementUpdate
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
             LocalDateTime endDate_toLDT = LocalDateTime.parse(endDate, formatter);
             cityService.setLastMeasurementUpdateById(cityId, endDate_toLDT);
-            // System.out.println("cityService.setLastMeasurementUpdateById: cityId:"+cityId+" lastMas.Update:"+endDate_toLDT);
 
             logger.info("Added HourlyMeasurement for "+cityId+" and updated city.endDate = "+ endDate);
 
-        } catch (IOException e) {
+        } catch (IOException | IllegalStateException e) {
             // Log the error but don't stop the process
             logger.error("Failed to process " + resource.getFilename() + ": " + e.getMessage());
         }
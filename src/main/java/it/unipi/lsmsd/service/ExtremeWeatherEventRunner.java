@@ -0,0 +1,210 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.exception.ThresholdsNotPresentException;
+import it.unipi.lsmsd.model.City;
+import it.unipi.lsmsd.model.ExtremeWeatherEvent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the automatic extreme weather event detection of many cities in parallel.
+ * <p>
+ * Each city is an independent task, run by a work-stealing pool of {@code parallelism} threads, which also
+ * bounds the concurrent reads and writes on MongoDB. A city that fails is recorded in the {@link Report}
+ * and does not stop the others; its last EWE update is left as it was, so the next run retries it.
+ * Only one run at a time is allowed: a run requested meanwhile is skipped, and its {@link Report} says so.
+ * No run is started while the measurements are being migrated to a time-series collection.
+ * The progress of the run is available through {@link #getProgress()} and logged every {@code progress-every} cities.
+ */
+@Service
+public class ExtremeWeatherEventRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtremeWeatherEventRunner.class);
+
+    private final ExtremeWeatherEventService extremeWeatherEventService;
+    private final MeasurementCollectionService measurementCollectionService;
+    private final ForkJoinPool pool;
+    private final int progressEvery;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Counters of the current (or last) run
+    private volatile RunState state;
+
+    public ExtremeWeatherEventRunner(
+            ExtremeWeatherEventService extremeWeatherEventService,
+            MeasurementCollectionService measurementCollectionService,
+            @Value("${ewe-detection.parallelism:0}") int parallelism,
+            @Value("${ewe-detection.progress-every:100}") int progressEvery
+    ) {
+        this.extremeWeatherEventService = extremeWeatherEventService;
+        this.measurementCollectionService = measurementCollectionService;
+        // 0 means one thread per core
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.progressEvery = Math.max(1, progressEvery);
+        // No run yet
+        this.state = new RunState(0);
+        this.state.finishedAt = this.state.startedAt;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Updates the extreme weather events of the given cities, in parallel, and waits for all of them.
+     *
+     * @param cities the cities to update
+     * @return the outcome of every city, with the duration and throughput of the run; if another run is in
+     *         progress nothing is done and the report is {@linkplain Report#isSkipped() skipped}, with the
+     *         progress of the other run
+     * @throws IllegalStateException if the measurements are being migrated to a time-series collection
+     */
+    public Report run(List<City> cities) {
+        if (measurementCollectionService.isMigrating()) {
+            throw new IllegalStateException("Measurements are being migrated to a time-series collection");
+        }
+        if (!running.compareAndSet(false, true)) {
+            logger.info("Extreme weather event detection skipped: already running");
+            return new Report(getProgress(), true, List.of(), List.of());
+        }
+        RunState run = new RunState(cities.size());
+        state = run;
+        try {
+            // One task per city: an idle thread takes the next city, however long the previous ones take
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(cities.size());
+            for (City city : cities) {
+                tasks.add(pool.submit(() -> update(city, run)));
+            }
+            tasks.forEach(ForkJoinTask::join);
+        }
+        finally {
+            run.finishedAt = System.nanoTime();
+            running.set(false);
+        }
+
+        Report report = new Report(run.snapshot(false), false, run.withoutThresholds, run.failed);
+        logger.info("Extreme weather event detection completed: {} cities in {} ms ({} cities/s), {} events, {} without thresholds, {} failed",
+                report.getProgress().getTotal(), report.getProgress().getElapsedMillis(),
+                String.format("%.1f", report.getProgress().getCitiesPerSecond()), report.getProgress().getEventsCreated(),
+                report.getWithoutThresholds().size(), report.getFailed().size());
+        return report;
+    }
+
+    /**
+     * Returns the progress of the current run, or of the last one when none is running.
+     */
+    public Progress getProgress() {
+        return state.snapshot(running.get());
+    }
+
+    // Failure boundary of a single city
+    private void update(City city, RunState run) {
+        try {
+            List<ExtremeWeatherEvent> created = extremeWeatherEventService.updateExtremeWeatherEventAutomatic(city.getId());
+            run.eventsCreated.addAndGet(created.size());
+            run.updated.incrementAndGet();
+        }
+        catch (ThresholdsNotPresentException e) {
+            run.withoutThresholds.add(city.getId());
+        }
+        catch (RuntimeException e) {
+            // A city deleted meanwhile (CityNotFoundException) or any other error
+            logger.error("ExtremeWeatherEvent updating error for {} ({}): {}", city.getId(), city.getName(), e.toString());
+            run.failed.add(city.getId());
+        }
+
+        int done = run.done.incrementAndGet();
+        if (done % progressEvery == 0) {
+            Progress progress = run.snapshot(true);
+            logger.info("Extreme weather event detection: {}/{} cities, {} cities/s",
+                    done, progress.getTotal(), String.format("%.1f", progress.getCitiesPerSecond()));
+        }
+    }
+
+    private static final class RunState {
+        private final int total;
+        private final long startedAt = System.nanoTime();
+        private volatile long finishedAt;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger eventsCreated = new AtomicInteger();
+        private final List<String> withoutThresholds = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+
+        private RunState(int total) {
+            this.total = total;
+        }
+
+        private Progress snapshot(boolean running) {
+            long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+            return new Progress(running, total, done.get(), updated.get(), withoutThresholds.size(), failed.size(),
+                    eventsCreated.get(), (end - startedAt) / 1_000_000);
+        }
+    }
+
+    public static class Progress {
+        private final boolean running;
+        private final int total;
+        private final int done;
+        private final int updated;
+        private final int withoutThresholds;
+        private final int failed;
+        private final int eventsCreated;
+        private final long elapsedMillis;
+
+        public Progress(boolean running, int total, int done, int updated, int withoutThresholds, int failed,
+                        int eventsCreated, long elapsedMillis) {
+            this.running = running;
+            this.total = total;
+            this.done = done;
+            this.updated = updated;
+            this.withoutThresholds = withoutThresholds;
+            this.failed = failed;
+            this.eventsCreated = eventsCreated;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public boolean isRunning() { return running; }
+        public int getTotal() { return total; }
+        public int getDone() { return done; }
+        public int getUpdated() { return updated; }
+        public int getWithoutThresholds() { return withoutThresholds; }
+        public int getFailed() { return failed; }
+        public int getEventsCreated() { return eventsCreated; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public double getCitiesPerSecond() { return elapsedMillis == 0 ? 0 : done * 1000.0 / elapsedMillis; }
+    }
+
+    // Outcome of a completed (or skipped) run, with the ids of the cities not updated
+    public static class Report {
+        private final Progress progress;
+        private final boolean skipped;
+        private final List<String> withoutThresholds;
+        private final List<String> failed;
+
+        public Report(Progress progress, boolean skipped, List<String> withoutThresholds, List<String> failed) {
+            this.progress = progress;
+            this.skipped = skipped;
+            this.withoutThresholds = List.copyOf(withoutThresholds);
+            this.failed = List.copyOf(failed);
+        }
+
+        public Progress getProgress() { return progress; }
+        // True if another run was in progress, so this one did nothing
+        public boolean isSkipped() { return skipped; }
+        public List<String> getWithoutThresholds() { return withoutThresholds; }
+        public List<String> getFailed() { return failed; }
+    }
+}
@@ -5,7 +5,6 @@ import it.unipi.lsmsd.exception.ThresholdsNotPresentException;
 import it.unipi.lsmsd.model.*;
 import it.unipi.lsmsd.repository.CityRepository;
 //import it.unipi.lsmsd.repository.ExtremeWeatherEventRepository;
-import it.unipi.lsmsd.repository.HourlyMeasurementRepository;
 import it.unipi.lsmsd.utility.QuadrupleEWEInformationHolder;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,11 +27,13 @@ public class ExtremeWeatherEventService {
     //@Autowired
     //private ExtremeWeatherEventRepository eweRepository;
     @Autowired
-    private HourlyMeasurementRepository hourlyMeasurementRepository;
+    private MeasurementStorageService measurementStorageService;
     @Autowired
     private CityRepository cityRepository;
     @Autowired
     private CityService cityService;
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
 
     public List<ExtremeWeatherEvent> getEventsOfCity(String cityId) {
         return cityRepository.findById(cityId)
@@ -81,6 +82,11 @@ public class ExtremeWeatherEventService {
             String cityId
     ) throws CityNotFoundException, ThresholdsNotPresentException {
 
+        // The hours not written during a measurement migration would be skipped for good by the lastEweUpdate below
+        if (measurementCollectionService.isMigrating()) {
+            throw new IllegalStateException("Measurements are being migrated to a time-series collection, EWE of " + cityId + " not updated");
+        }
+
         // Get city's last Ewe update
         LocalDateTime lastEweUpdate = cityService.getLastEweUpdateById(cityId);
 
@@ -116,7 +122,7 @@ public class ExtremeWeatherEventService {
     ) throws CityNotFoundException, ThresholdsNotPresentException {
 
         // Retrieve the timestamp of the latest measurement for the given city
-        Optional<HourlyMeasurement> firstMeasurement = hourlyMeasurementRepository.findFirstByCityIdOrderByTimeAsc(cityId);
+        Optional<HourlyMeasurement> firstMeasurement = measurementStorageService.findFirstByCityId(cityId);
 
         if(firstMeasurement.isEmpty()) {
             return Collections.emptyList();
@@ -152,7 +158,7 @@ public class ExtremeWeatherEventService {
         // Gets all measurements for a given city
         Date startTime = Date.from(startTimeInterval.toInstant(ZoneOffset.UTC));
         Date endTime = Date.from(endTimeInterval.toInstant(ZoneOffset.UTC));
-        List<HourlyMeasurement> hourlyMeasurements = hourlyMeasurementRepository.findByCityIdAndTimeBetweenOrderByTimeTimeAsc(cityId, startTime, endTime);
+        List<HourlyMeasurement> hourlyMeasurements = measurementStorageService.findByCityIdAndTimeBetween(cityId, startTime, endTime);
 
         // Gets the target city, in order to get the thresholds
         Optional<City> city = cityRepository.findById(cityId);
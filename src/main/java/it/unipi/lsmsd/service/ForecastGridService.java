@@ -0,0 +1,434 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.utility.ForecastKeyUtility;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interpolated forecast grid, precomputed at every full forecast refresh so that the forecast of an
+ * arbitrary location is a bilinear read of four cells instead of an interpolation over the nearby cities.
+ * <p>
+ * The grid covers the bounding box of the cities with cells of {@code cell-degrees}. Every cell node is
+ * interpolated from the cities of {@link CitySpatialIndex} near it with {@link #weightsOf}, the scheme shared
+ * with {@link RedisForecastService#getForecastArbitraryCityTargetDay}, and stores the reference elevation of
+ * those cities; a lookup shifts the temperature from it to the requested elevation with
+ * {@link #temperatureShift}, as the interpolation over the cities does. A node with no city in range is left empty.
+ * <p>
+ * Each day is stored in Redis in bands of {@code band-rows} rows, every band in its own slot so that the
+ * grid is spread over the cluster:
+ * <pre>
+ * forecast:{grid:day}:g&lt;gen&gt;:meta     "minLat;minLon;cellDegrees;rows;columns;bandRows"
+ * forecast:{grid:day:&lt;band&gt;}:g&lt;gen&gt;   cell[bandRows * columns], row-major
+ * cell: short elevation, short temperature[24], short rain[24], short snowfall[24], short windspeed[24]
+ * </pre>
+ * Values are hundredths ({@link #NULL_VALUE} when missing), so a lookup is two GETRANGEs of two adjacent
+ * cells each, sent in one pipeline.
+ * <p>
+ * A city added after the build is not part of the grid: {@link #invalidate} drops the grid of the current
+ * generation, and the locations are interpolated over the cities until the next full refresh.
+ */
+@Service
+public class ForecastGridService {
+
+    private static final short NULL_VALUE = Short.MIN_VALUE;
+    private static final double SCALE = 100.0;
+    private static final int HOURS = 24;
+    private static final int VARIABLES = 4;
+    private static final int CELL_BYTES = 2 + VARIABLES * HOURS * 2;
+    // Standard lapse rate, to adjust the temperature of a node to the elevation of the requested location
+    private static final double LAPSE_RATE_PER_METER = -0.0065;
+
+    private final JedisCluster jedisCluster;
+    private final ClusterConnectionProvider clusterConnectionProvider;
+    private final CitySpatialIndex citySpatialIndex;
+
+    private final boolean enabled;
+    private final double cellDegrees;
+    private final int bandRows;
+    private final int neighbours;
+    private final double radiusKm;
+    private final long layoutCacheNanos;
+
+    // Grid layouts already read, by meta key
+    private final Map<String, Layout> layouts = new ConcurrentHashMap<>();
+
+    public ForecastGridService(
+            JedisCluster jedisCluster,
+            ClusterConnectionProvider clusterConnectionProvider,
+            CitySpatialIndex citySpatialIndex,
+            @Value("${forecast.grid.enabled:true}") boolean enabled,
+            @Value("${forecast.grid.cell-degrees:0.1}") double cellDegrees,
+            @Value("${forecast.grid.band-rows:16}") int bandRows,
+            @Value("${forecast.interpolation.neighbours:8}") int neighbours,
+            @Value("${forecast.interpolation.radius-km:50}") double radiusKm,
+            // A dropped grid is noticed as late as a generation flip
+            @Value("${forecast.generation.cache:5s}") Duration layoutCache
+    ) {
+        if (cellDegrees <= 0 || bandRows < 1) {
+            throw new IllegalArgumentException("Invalid forecast.grid configuration");
+        }
+        this.jedisCluster = jedisCluster;
+        this.clusterConnectionProvider = clusterConnectionProvider;
+        this.citySpatialIndex = citySpatialIndex;
+        this.enabled = enabled;
+        this.cellDegrees = cellDegrees;
+        this.bandRows = bandRows;
+        this.neighbours = neighbours;
+        this.radiusKm = radiusKm;
+        this.layoutCacheNanos = layoutCache.toNanos();
+    }
+
+    /**
+     * Builds and stores the grid of every forecast day, in the given generation.
+     *
+     * @param forecasts  the forecasts of the cities, each with its {@code cityId} set
+     * @param firstDay   the first day to build
+     * @param days       the number of days to build
+     * @param generation the generation of the forecasts
+     */
+    public void build(List<HourlyMeasurementColumns> forecasts, LocalDate firstDay, int days, long generation) {
+        double[] bounds = citySpatialIndex.bounds();
+        if (!enabled || bounds == null) {
+            return;
+        }
+        double minLatitude = Math.floor(bounds[0] / cellDegrees) * cellDegrees;
+        double minLongitude = Math.floor(bounds[1] / cellDegrees) * cellDegrees;
+        int rows = (int) Math.ceil((bounds[2] - minLatitude) / cellDegrees) + 2;
+        int columns = (int) Math.ceil((bounds[3] - minLongitude) / cellDegrees) + 2;
+        Layout layout = new Layout(minLatitude, minLongitude, cellDegrees, rows, columns, bandRows);
+
+        // Hourly forecasts by city and day
+        Map<String, Map<Long, HourlyMeasurementColumns>> byCity = new HashMap<>();
+        for (HourlyMeasurementColumns forecast : forecasts) {
+            Map<Long, HourlyMeasurementColumns> byDay = new HashMap<>();
+            for (HourlyMeasurementColumns day : forecast.splitByDay()) {
+                byDay.put(Math.floorDiv(day.getEpochHour(0), 24), day);
+            }
+            byCity.put(forecast.getCityId(), byDay);
+        }
+
+        // Neighbours and weights of every node, the same for all the days
+        List<List<CitySpatialIndex.Neighbour>> nodeNeighbours = new ArrayList<>(rows * columns);
+        double[] nodeElevation = new double[rows * columns];
+        List<double[]> nodeWeights = new ArrayList<>(rows * columns);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                List<CitySpatialIndex.Neighbour> near = citySpatialIndex.nearest(
+                        layout.latitudeOf(r), layout.longitudeOf(c), neighbours, radiusKm);
+                double elevation = near.isEmpty() ? Double.NaN : referenceElevation(near);
+                nodeNeighbours.add(near);
+                nodeElevation[r * columns + c] = elevation;
+                nodeWeights.add(weightsOf(near, elevation));
+            }
+        }
+
+        // The bands are on several nodes: the layouts are written once all of them are stored,
+        // as the grid of a day is visible as soon as its layout is there
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (int d = 0; d < days; d++) {
+                LocalDate day = firstDay.plusDays(d);
+                long epochDay = day.toEpochDay();
+                SetParams expiry = new SetParams().exAt(ForecastKeyUtility.expireAt(day));
+                for (int band = 0; band < layout.bands(); band++) {
+                    int firstRow = band * bandRows;
+                    int lastRow = Math.min(rows, firstRow + bandRows);
+                    ByteBuffer buffer = ByteBuffer.allocate((lastRow - firstRow) * columns * CELL_BYTES);
+                    for (int node = firstRow * columns; node < lastRow * columns; node++) {
+                        putNode(buffer, nodeNeighbours.get(node), nodeWeights.get(node), nodeElevation[node], byCity, epochDay);
+                    }
+                    pipeline.set(SafeEncoder.encode(bandKey(day, generation, band)), buffer.array(), expiry);
+                }
+            }
+            pipeline.sync();
+        }
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (int d = 0; d < days; d++) {
+                LocalDate day = firstDay.plusDays(d);
+                pipeline.set(metaKey(day, generation), layout.toString(), new SetParams().exAt(ForecastKeyUtility.expireAt(day)));
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Drops the grid of the given generation, for instance because a city was added after it was built:
+     * until the next build, every location is interpolated over the cities.
+     * <p>
+     * Only the layouts are deleted; the bands expire with their day. Every instance stops using the grid
+     * within {@code forecast.generation.cache}.
+     */
+    public void invalidate(LocalDate firstDay, int days, long generation) {
+        if (!enabled) {
+            return;
+        }
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (int d = 0; d < days; d++) {
+                String key = metaKey(firstDay.plusDays(d), generation);
+                pipeline.del(key);
+                layouts.remove(key);
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Reads the forecast of a location from the grid.
+     *
+     * @return the hourly temperature, rain, snowfall and wind speed of the day, or null if the grid of the day
+     *         is not available or does not cover the location
+     */
+    public double[][] lookup(double latitude, double longitude, double elevation, LocalDate day, long generation) {
+        if (!enabled) {
+            return null;
+        }
+        Layout layout = layoutOf(day, generation);
+        if (layout == null) {
+            return null;
+        }
+        double y = (latitude - layout.minLatitude) / layout.cellDegrees;
+        double x = (longitude - layout.minLongitude) / layout.cellDegrees;
+        int r = (int) Math.floor(y);
+        int c = (int) Math.floor(x);
+        if (r < 0 || c < 0 || r + 1 >= layout.rows || c + 1 >= layout.columns) {
+            return null;
+        }
+        double fy = y - r;
+        double fx = x - c;
+
+        // Cells (r, c) and (r, c + 1) are adjacent, as well as (r + 1, c) and (r + 1, c + 1)
+        List<Response<byte[]>> responses = new ArrayList<>(2);
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (int row = r; row <= r + 1; row++) {
+                long start = (long) ((row % layout.bandRows) * layout.columns + c) * CELL_BYTES;
+                responses.add(pipeline.getrange(SafeEncoder.encode(bandKey(day, generation, row / layout.bandRows)),
+                        start, start + 2L * CELL_BYTES - 1));
+            }
+            pipeline.sync();
+        }
+
+        ByteBuffer[] corners = new ByteBuffer[4];
+        double[] cornerWeights = { (1 - fy) * (1 - fx), (1 - fy) * fx, fy * (1 - fx), fy * fx };
+        for (int i = 0; i < 2; i++) {
+            byte[] cells = responses.get(i).get();
+            if (cells == null || cells.length != 2 * CELL_BYTES) {
+                return null;
+            }
+            corners[2 * i] = ByteBuffer.wrap(cells, 0, CELL_BYTES).slice();
+            corners[2 * i + 1] = ByteBuffer.wrap(cells, CELL_BYTES, CELL_BYTES).slice();
+        }
+
+        // Bilinear interpolation over the non-empty corners
+        double[][] values = new double[VARIABLES][HOURS];
+        double weightSum = 0;
+        double elevationSum = 0;
+        for (int i = 0; i < 4; i++) {
+            short cornerElevation = corners[i].getShort(0);
+            if (cornerElevation == NULL_VALUE || cornerWeights[i] == 0) {
+                continue;
+            }
+            weightSum += cornerWeights[i];
+            elevationSum += cornerElevation * cornerWeights[i];
+            for (int v = 0; v < VARIABLES; v++) {
+                for (int h = 0; h < HOURS; h++) {
+                    short value = corners[i].getShort(2 + (v * HOURS + h) * 2);
+                    values[v][h] += (value == NULL_VALUE ? 0 : value / SCALE) * cornerWeights[i];
+                }
+            }
+        }
+        if (weightSum == 0) {
+            return null;
+        }
+        double temperatureShift = temperatureShift(elevation, elevationSum / weightSum);
+        for (int v = 0; v < VARIABLES; v++) {
+            for (int h = 0; h < HOURS; h++) {
+                values[v][h] /= weightSum;
+            }
+        }
+        for (int h = 0; h < HOURS; h++) {
+            values[0][h] += temperatureShift;
+        }
+        return values;
+    }
+
+    /**
+     * Lets the grid of an old generation expire after the given number of seconds.
+     */
+    public void expireGeneration(LocalDate firstDay, int days, long generation, long seconds) {
+        if (!enabled) {
+            return;
+        }
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (int d = 0; d < days; d++) {
+                LocalDate day = firstDay.plusDays(d);
+                Layout layout = layoutOf(day, generation);
+                if (layout == null) {
+                    continue;
+                }
+                for (int band = 0; band < layout.bands(); band++) {
+                    pipeline.expire(bandKey(day, generation, band), seconds);
+                }
+                pipeline.expire(metaKey(day, generation), seconds);
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Reference elevation of an interpolation over the given cities: their elevation weighted by the inverse
+     * of the distance.
+     */
+    static double referenceElevation(List<CitySpatialIndex.Neighbour> near) {
+        double elevationSum = 0;
+        double weightSum = 0;
+        for (CitySpatialIndex.Neighbour city : near) {
+            double weight = city.getDistanceKm() == 0 ? 1000 : 1 / city.getDistanceKm();
+            elevationSum += city.getElevation() * weight;
+            weightSum += weight;
+        }
+        return elevationSum / weightSum;
+    }
+
+    /**
+     * Weights of an interpolation over the given cities, used both by the grid and by the interpolation
+     * over the cities: effective distance of 1 km per km and per 10 m of elevation from the reference elevation.
+     */
+    static double[] weightsOf(List<CitySpatialIndex.Neighbour> near, double referenceElevation) {
+        double[] weights = new double[near.size()];
+        for (int i = 0; i < near.size(); i++) {
+            double effectiveDistance = near.get(i).getDistanceKm() + 0.1 * Math.abs(referenceElevation - near.get(i).getElevation());
+            weights[i] = effectiveDistance == 0 ? 1000 : 1000 / effectiveDistance;
+        }
+        return weights;
+    }
+
+    /**
+     * Temperature correction from the reference elevation of an interpolation to the requested elevation,
+     * with the standard lapse rate.
+     */
+    static double temperatureShift(double elevation, double referenceElevation) {
+        return LAPSE_RATE_PER_METER * (elevation - referenceElevation);
+    }
+
+    private static void putNode(ByteBuffer buffer, List<CitySpatialIndex.Neighbour> near, double[] weights, double elevation,
+                                Map<String, Map<Long, HourlyMeasurementColumns>> byCity, long epochDay) {
+        double[][] sums = new double[VARIABLES][HOURS];
+        double weightSum = 0;
+        for (int i = 0; i < near.size(); i++) {
+            Map<Long, HourlyMeasurementColumns> byDay = byCity.get(near.get(i).getId());
+            HourlyMeasurementColumns day = byDay != null ? byDay.get(epochDay) : null;
+            if (day == null || day.size() != HOURS) {
+                continue;
+            }
+            weightSum += weights[i];
+            for (int h = 0; h < HOURS; h++) {
+                sums[0][h] += valueOrZero(day.getTemperature(h)) * weights[i];
+                sums[1][h] += valueOrZero(day.getRain(h)) * weights[i];
+                sums[2][h] += valueOrZero(day.getSnowfall(h)) * weights[i];
+                sums[3][h] += valueOrZero(day.getWindspeed(h)) * weights[i];
+            }
+        }
+
+        if (weightSum == 0) {
+            for (int i = 0; i < CELL_BYTES / 2; i++) {
+                buffer.putShort(NULL_VALUE);
+            }
+            return;
+        }
+        // Elevation in meters, the other values in hundredths
+        buffer.putShort((short) Math.max(NULL_VALUE + 1, Math.min(Short.MAX_VALUE, Math.round(elevation))));
+        for (int v = 0; v < VARIABLES; v++) {
+            for (int h = 0; h < HOURS; h++) {
+                buffer.putShort(scaled(sums[v][h] / weightSum));
+            }
+        }
+    }
+
+    // Hundredths, clamped to the range of a short
+    private static short scaled(double value) {
+        long scaled = Math.round(value * SCALE);
+        return (short) Math.max(NULL_VALUE + 1, Math.min(Short.MAX_VALUE, scaled));
+    }
+
+    private static double valueOrZero(double value) {
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    private Layout layoutOf(LocalDate day, long generation) {
+        String key = metaKey(day, generation);
+        Layout layout = layouts.get(key);
+        if (layout == null || System.nanoTime() - layout.readAt > layoutCacheNanos) {
+            String meta = jedisCluster.get(key);
+            if (meta == null) {
+                layouts.remove(key);
+                return null;
+            }
+            layout = Layout.parse(meta);
+            // Only the last few days and generations are ever read
+            if (layouts.size() > 64) {
+                layouts.clear();
+            }
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    private static String metaKey(LocalDate day, long generation) {
+        return "forecast:{grid:" + day + "}:g" + generation + ":meta";
+    }
+
+    private static String bandKey(LocalDate day, long generation, int band) {
+        return "forecast:{grid:" + day + ":" + band + "}:g" + generation;
+    }
+
+    private static final class Layout {
+        private final double minLatitude;
+        private final double minLongitude;
+        private final double cellDegrees;
+        private final int rows;
+        private final int columns;
+        private final int bandRows;
+        private final long readAt = System.nanoTime();
+
+        private Layout(double minLatitude, double minLongitude, double cellDegrees, int rows, int columns, int bandRows) {
+            this.minLatitude = minLatitude;
+            this.minLongitude = minLongitude;
+            this.cellDegrees = cellDegrees;
+            this.rows = rows;
+            this.columns = columns;
+            this.bandRows = bandRows;
+        }
+
+        private double latitudeOf(int row) { return minLatitude + row * cellDegrees; }
+        private double longitudeOf(int column) { return minLongitude + column * cellDegrees; }
+        private int bands() { return (rows + bandRows - 1) / bandRows; }
+
+        private static Layout parse(String meta) {
+            String[] parts = meta.split(";");
+            return new Layout(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5]));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s;%s;%s;%d;%d;%d", minLatitude, minLongitude, cellDegrees, rows, columns, bandRows);
+        }
+    }
+}
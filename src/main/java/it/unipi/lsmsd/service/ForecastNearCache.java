@@ -0,0 +1,295 @@
+package it.unipi.lsmsd.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPubSub;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * In-process cache of the forecast values read from Redis, in front of {@link RedisForecastService}.
+ * <p>
+ * Entries are evicted by LRU beyond {@code max-entries}, and dropped after {@code ttl} in any case.
+ * Invalidations come from the {@value #CHANNEL} pub/sub channel, on which every instance that writes
+ * forecasts publishes:
+ * <ul>
+ *   <li>{@code city:<id>,<id>,...}: the forecasts of these cities were overwritten in place;</li>
+ *   <li>{@code generation:<n>}: a full refresh flipped the current generation (its keys are new, so nothing
+ *       is dropped, but the readers switch to it at once);</li>
+ *   <li>{@code all}: everything is dropped.</li>
+ * </ul>
+ * While the subscription is down, invalidations could be missed, so the cache is bypassed and cleared
+ * when the subscription is restored.
+ */
+@Service
+public class ForecastNearCache {
+
+    public static final String CHANNEL = "forecast:invalidate";
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastNearCache.class);
+
+    private final JedisCluster jedisCluster;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // LRU order, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Incremented by every invalidation, so that a value read before it is not cached after it
+    private long epoch;
+
+    private final List<LongConsumer> generationListeners = new CopyOnWriteArrayList<>();
+    // Package-private so that the tests can deliver the pub/sub callbacks
+    final Subscriber subscriber = new Subscriber();
+    private volatile boolean subscribed;
+    private volatile boolean running;
+    private Thread subscriberThread;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ForecastNearCache(
+            JedisCluster jedisCluster,
+            @Value("${forecast.near-cache.enabled:true}") boolean enabled,
+            @Value("${forecast.near-cache.max-entries:10000}") int maxEntries,
+            @Value("${forecast.near-cache.ttl:10m}") Duration ttl
+    ) {
+        this.jedisCluster = jedisCluster;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        subscriberThread = new Thread(this::subscribeLoop, "forecast-near-cache-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (subscribed) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * Returns whether the cache can be used right now.
+     */
+    public boolean isActive() {
+        return enabled && subscribed;
+    }
+
+    /**
+     * Returns the current invalidation epoch, to be passed to {@link #put} along with the values read after it.
+     */
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the cached value of a key, or null on a miss (or when the cache is not active).
+     */
+    public byte[] get(String key) {
+        if (!isActive()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.storedAt > ttlNanos) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches a value read from Redis, unless some invalidation arrived since {@code readEpoch}.
+     */
+    public void put(String key, byte[] value, long readEpoch) {
+        if (!isActive() || value == null) {
+            return;
+        }
+        synchronized (this) {
+            if (readEpoch != epoch) {
+                return;
+            }
+            entries.put(key, new Entry(value, System.nanoTime()));
+            if (entries.size() > maxEntries) {
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Tells every instance that the forecasts of the given cities were overwritten in place.
+     */
+    public void publishCities(Collection<String> cityIds) {
+        if (!cityIds.isEmpty()) {
+            publish("city:" + String.join(",", cityIds));
+        }
+    }
+
+    /**
+     * Tells every instance that the current forecast generation changed.
+     */
+    public void publishGeneration(long generation) {
+        publish("generation:" + generation);
+    }
+
+    /**
+     * Registers a callback run on every generation change published by any instance.
+     */
+    public void addGenerationListener(LongConsumer listener) {
+        generationListeners.add(listener);
+    }
+
+    private void publish(String message) {
+        try {
+            jedisCluster.publish(CHANNEL, message);
+        } catch (RuntimeException e) {
+            // Other instances keep their entries until the ttl: drop ours at least
+            logger.warn("Forecast invalidation not published: {}", e.getMessage());
+            invalidate("all");
+        }
+    }
+
+    private void invalidate(String message) {
+        if (message.startsWith("generation:")) {
+            long generation = Long.parseLong(message.substring("generation:".length()));
+            generationListeners.forEach(listener -> listener.accept(generation));
+            return;
+        }
+        synchronized (this) {
+            epoch++;
+            if (message.startsWith("city:")) {
+                // Keys of a city start with forecast:{reg}rest:
+                Set<String> prefixes = new HashSet<>();
+                for (String cityId : message.substring("city:".length()).split(",")) {
+                    prefixes.add("forecast:{" + cityId.substring(0, 3) + "}" + cityId.substring(3) + ":");
+                }
+                entries.keySet().removeIf(key -> {
+                    int end = key.indexOf(':', key.indexOf('}') + 1);
+                    return end > 0 && prefixes.contains(key.substring(0, end + 1));
+                });
+            } else {
+                entries.clear();
+            }
+        }
+        invalidations.incrementAndGet();
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try {
+                // Blocks until unsubscribed or disconnected
+                jedisCluster.subscribe(subscriber, CHANNEL);
+            } catch (RuntimeException e) {
+                logger.warn("Forecast near cache subscription lost: {}", e.getMessage());
+            }
+            subscribed = false;
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    class Subscriber extends JedisPubSub {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // Messages may have been missed while not subscribed
+            invalidate("all");
+            subscribed = true;
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            invalidate(message);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the size and counters of the cache.
+     */
+    public Stats getStats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(isActive(), size, maxEntries, hits.get(), misses.get(), evictions.get(), invalidations.get());
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final long storedAt;
+
+        private Entry(byte[] value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+    public static class Stats {
+        private final boolean active;
+        private final int size;
+        private final int maxEntries;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+
+        public Stats(boolean active, int size, int maxEntries, long hits, long misses, long evictions, long invalidations) {
+            this.active = active;
+            this.size = size;
+            this.maxEntries = maxEntries;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public boolean isActive() { return active; }
+        public int getSize() { return size; }
+        public int getMaxEntries() { return maxEntries; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getInvalidations() { return invalidations; }
+        public double getHitRatio() { return hits + misses == 0 ? 0 : (double) hits / (hits + misses); }
+    }
+}
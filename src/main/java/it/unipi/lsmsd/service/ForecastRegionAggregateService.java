@@ -0,0 +1,191 @@
+package it.unipi.lsmsd.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.utility.ForecastCodec;
+import it.unipi.lsmsd.utility.ForecastKeyUtility;
+import it.unipi.lsmsd.utility.ISODateUtil;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hourly forecast aggregates of every region, precomputed at every full forecast refresh so that
+ * "region X tomorrow" is a single read, however many cities the region has.
+ * <p>
+ * For each region (the first three characters of the city ids) and day, the min, max, mean and sum of
+ * every variable are computed hour by hour over the cities of the region, skipping missing values, and
+ * stored as the JSON served by the endpoint, in the slot of the forecasts of the region:
+ * <pre>
+ * forecast:{reg}:region:day:g&lt;gen&gt;
+ * {"region", "date", "cities", "time": [..], "count": [..],
+ *  "temperature_2m": {"min": [..], "max": [..], "mean": [..], "sum": [..]}, "rain": {..}, ..}
+ * </pre>
+ * {@code count} is the number of cities forecast at each hour; a city missing a single value is left out
+ * of the aggregates of that variable only. Cities whose forecast could not be
+ * refreshed are left out, and forecasts refreshed one city at a time are not reflected until the next
+ * full refresh.
+ */
+@Service
+public class ForecastRegionAggregateService {
+
+    private static final int HOURS = 24;
+
+    private final ClusterConnectionProvider clusterConnectionProvider;
+    private final boolean enabled;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ForecastRegionAggregateService(
+            ClusterConnectionProvider clusterConnectionProvider,
+            @Value("${forecast.region-aggregates.enabled:true}") boolean enabled
+    ) {
+        this.clusterConnectionProvider = clusterConnectionProvider;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Computes and stores the aggregates of every region and forecast day, in the given generation.
+     *
+     * @param forecasts  the forecasts of the cities, each with its {@code cityId} set
+     * @param firstDay   the first day to aggregate
+     * @param days       the number of days to aggregate
+     * @param generation the generation of the forecasts
+     */
+    public void build(Collection<HourlyMeasurementColumns> forecasts, LocalDate firstDay, int days, long generation)
+            throws JsonProcessingException {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Aggregate[]> regions = new HashMap<>();
+        for (HourlyMeasurementColumns forecast : forecasts) {
+            Aggregate[] regionDays = regions.computeIfAbsent(forecast.getCityId().substring(0, 3), region -> {
+                Aggregate[] aggregates = new Aggregate[days];
+                for (int d = 0; d < days; d++) {
+                    aggregates[d] = new Aggregate();
+                }
+                return aggregates;
+            });
+            for (HourlyMeasurementColumns day : forecast.splitByDay()) {
+                int d = (int) (Math.floorDiv(day.getEpochHour(0), 24) - firstDay.toEpochDay());
+                if (d >= 0 && d < days) {
+                    regionDays[d].add(day);
+                }
+            }
+        }
+
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (Map.Entry<String, Aggregate[]> region : regions.entrySet()) {
+                for (int d = 0; d < days; d++) {
+                    LocalDate day = firstDay.plusDays(d);
+                    pipeline.set(ForecastKeyUtility.regionKey(region.getKey(), day, generation),
+                            render(region.getKey(), day, region.getValue()[d]),
+                            new SetParams().exAt(ForecastKeyUtility.expireAt(day)));
+                }
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Lets the aggregates of an old generation expire.
+     *
+     * @param regionCodes the regions aggregated in that generation
+     */
+    public void expireGeneration(Collection<String> regionCodes, LocalDate firstDay, int days, long generation, long seconds) {
+        if (!enabled) {
+            return;
+        }
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (String regionCode : regionCodes) {
+                for (int d = 0; d < days; d++) {
+                    pipeline.expire(ForecastKeyUtility.regionKey(regionCode, firstDay.plusDays(d), generation), seconds);
+                }
+            }
+            pipeline.sync();
+        }
+    }
+
+    private String render(String regionCode, LocalDate day, Aggregate aggregate) throws JsonProcessingException {
+        ObjectNode result = mapper.createObjectNode();
+        result.put("region", regionCode);
+        result.put("date", day.toString());
+        result.put("cities", aggregate.cities);
+
+        ArrayNode timeArray = result.putArray("time");
+        ArrayNode countArray = result.putArray("count");
+        long firstEpochHour = day.toEpochDay() * 24;
+        for (int h = 0; h < HOURS; h++) {
+            timeArray.add(ISODateUtil.formatEpochHour(firstEpochHour + h));
+            countArray.add(aggregate.hourCount[h]);
+        }
+
+        for (int v = 0; v < ForecastCodec.FIELDS.size(); v++) {
+            ObjectNode variable = result.putObject(ForecastCodec.FIELDS.get(v));
+            ArrayNode minArray = variable.putArray("min");
+            ArrayNode maxArray = variable.putArray("max");
+            ArrayNode meanArray = variable.putArray("mean");
+            ArrayNode sumArray = variable.putArray("sum");
+            for (int h = 0; h < HOURS; h++) {
+                if (aggregate.count[v][h] == 0) {
+                    minArray.addNull();
+                    maxArray.addNull();
+                    meanArray.addNull();
+                    sumArray.addNull();
+                    continue;
+                }
+                minArray.add(aggregate.min[v][h]);
+                maxArray.add(aggregate.max[v][h]);
+                meanArray.add(Math.round(aggregate.sum[v][h] / aggregate.count[v][h] * 100) / 100.0);
+                sumArray.add(Math.round(aggregate.sum[v][h] * 100) / 100.0);
+            }
+        }
+        return mapper.writeValueAsString(result);
+    }
+
+    // Running min, max and sum of the cities of a region on a day, by variable and hour
+    private static final class Aggregate {
+        private int cities;
+        private final int[] hourCount = new int[HOURS];
+        private final int[][] count = new int[ForecastCodec.FIELDS.size()][HOURS];
+        private final double[][] min = new double[ForecastCodec.FIELDS.size()][HOURS];
+        private final double[][] max = new double[ForecastCodec.FIELDS.size()][HOURS];
+        private final double[][] sum = new double[ForecastCodec.FIELDS.size()][HOURS];
+
+        private Aggregate() {
+            for (int v = 0; v < min.length; v++) {
+                Arrays.fill(min[v], Double.POSITIVE_INFINITY);
+                Arrays.fill(max[v], Double.NEGATIVE_INFINITY);
+            }
+        }
+
+        private void add(HourlyMeasurementColumns day) {
+            cities++;
+            for (int i = 0; i < day.size(); i++) {
+                int h = (int) Math.floorMod(day.getEpochHour(i), 24);
+                double[] values = { day.getTemperature(i), day.getRain(i), day.getSnowfall(i), day.getWindspeed(i) };
+                hourCount[h]++;
+                for (int v = 0; v < values.length; v++) {
+                    if (Double.isNaN(values[v])) {
+                        continue;
+                    }
+                    min[v][h] = Math.min(min[v][h], values[v]);
+                    max[v][h] = Math.max(max[v][h], values[v]);
+                    sum[v][h] += values[v];
+                    count[v][h]++;
+                }
+            }
+        }
+    }
+}
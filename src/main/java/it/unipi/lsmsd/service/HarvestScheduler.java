@@ -0,0 +1,243 @@
+package it.unipi.lsmsd.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for the Open-Meteo requests, shared by every {@link DataHarvestService} caller.
+ * <p>
+ * A request starts only when both:
+ * <ul>
+ *   <li>the token bucket has a token: tokens are refilled at {@code requests-per-second} up to {@code burst},
+ *       so the request rate never exceeds the configured one;</li>
+ *   <li>fewer than {@code limit} requests are in flight. The limit follows AIMD: it grows by about one
+ *       for every {@code limit} fast successful responses, and is cut by {@code backoff-ratio} on a 429,
+ *       a 5xx, an I/O error or a response slower than {@code latency-threshold} (at most once per
+ *       {@code decrease-cooldown}, so a burst of failures of the same round counts once).</li>
+ * </ul>
+ * Requests waiting for admission are queued in arrival order and never hold a thread.
+ */
+@Service
+public class HarvestScheduler {
+
+    // Outcome of a request, as seen by the concurrency limit
+    public enum Outcome { SUCCESS, OVERLOAD, IGNORED }
+
+    private final ScheduledExecutorService scheduler;
+
+    private final double requestsPerSecond;
+    private final double burst;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long decreaseCooldownNanos;
+
+    // State, guarded by this
+    private final Deque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill;
+    private long lastDecrease;
+    private boolean dispatchScheduled;
+    private long completed;
+    private long overloaded;
+
+    public HarvestScheduler(
+            @Qualifier("openMeteoRetryScheduler") ScheduledExecutorService scheduler,
+            @Value("${open-meteo.harvest.requests-per-second:10}") double requestsPerSecond,
+            @Value("${open-meteo.harvest.burst:10}") double burst,
+            @Value("${open-meteo.harvest.initial-limit:4}") int initialLimit,
+            @Value("${open-meteo.harvest.min-limit:1}") int minLimit,
+            @Value("${open-meteo.harvest.max-limit:64}") int maxLimit,
+            @Value("${open-meteo.harvest.backoff-ratio:0.5}") double backoffRatio,
+            @Value("${open-meteo.harvest.latency-threshold:4s}") Duration latencyThreshold,
+            @Value("${open-meteo.harvest.decrease-cooldown:1s}") Duration decreaseCooldown
+    ) {
+        if (requestsPerSecond <= 0 || burst < 1 || minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Invalid open-meteo.harvest configuration");
+        }
+        this.scheduler = scheduler;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.decreaseCooldownNanos = decreaseCooldown.toNanos();
+
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+        this.lastDecrease = lastRefill - decreaseCooldownNanos;
+    }
+
+    /**
+     * Queues a request for admission.
+     *
+     * @return a future completed with the {@link Permit} once the request may start; the permit must be
+     *         released when the request ends
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> permit = new CompletableFuture<>();
+        synchronized (this) {
+            waiting.add(permit);
+        }
+        dispatch();
+        return permit;
+    }
+
+    /**
+     * Runs an asynchronous request once admitted, releasing its permit when it ends.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        return acquire().thenCompose(permit -> {
+            CompletableFuture<T> result;
+            try {
+                result = request.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result.whenComplete((value, error) -> permit.release(outcomeOf(error)));
+        });
+    }
+
+    /**
+     * Maps a request failure to its effect on the concurrency limit: throttling (429), server errors and
+     * I/O errors (including timeouts) mean the upstream is overloaded, other failures are not its fault.
+     */
+    public static Outcome outcomeOf(Throwable error) {
+        if (error == null) {
+            return Outcome.SUCCESS;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpClientErrorException.TooManyRequests
+                || cause instanceof HttpServerErrorException
+                || cause instanceof ResourceAccessException) {
+            return Outcome.OVERLOAD;
+        }
+        return Outcome.IGNORED;
+    }
+
+    // Hands out as many permits as the limit and the tokens allow, or schedules the next attempt
+    private void dispatch() {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            while (!waiting.isEmpty() && inFlight < (int) limit && tokens >= 1) {
+                tokens -= 1;
+                inFlight++;
+                granted.add(waiting.poll());
+            }
+            // Only the tokens are missing: wake up when the next one is available
+            if (!waiting.isEmpty() && inFlight < (int) limit && !dispatchScheduled) {
+                long delayNanos = (long) Math.ceil((1 - tokens) / requestsPerSecond * 1e9);
+                dispatchScheduled = true;
+                scheduler.schedule(() -> {
+                    synchronized (this) {
+                        dispatchScheduled = false;
+                    }
+                    dispatch();
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Completed outside the lock, the callers continue on this thread
+        for (CompletableFuture<Permit> future : granted) {
+            Permit permit = new Permit();
+            if (!future.complete(permit)) {
+                // Cancelled while waiting, give the slot back
+                permit.release(Outcome.IGNORED);
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * requestsPerSecond);
+        lastRefill = now;
+    }
+
+    private void onRelease(Outcome outcome, long latencyNanos) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (outcome == Outcome.OVERLOAD || (outcome == Outcome.SUCCESS && latencyNanos > latencyThresholdNanos)) {
+                overloaded++;
+                if (now - lastDecrease >= decreaseCooldownNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                }
+            } else if (outcome == Outcome.SUCCESS) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            completed++;
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns a snapshot of the current limit, queue depth and counters.
+     */
+    public synchronized Status getStatus() {
+        refill();
+        return new Status((int) limit, inFlight, waiting.size(), tokens, requestsPerSecond, completed, overloaded);
+    }
+
+    // Admission of a single request, to be released exactly once when the request ends
+    public class Permit {
+        private final long startedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome, System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    public static class Status {
+        private final int limit;
+        private final int inFlight;
+        private final int queued;
+        private final double availableTokens;
+        private final double requestsPerSecond;
+        private final long completed;
+        private final long overloaded;
+
+        public Status(int limit, int inFlight, int queued, double availableTokens, double requestsPerSecond, long completed, long overloaded) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.availableTokens = availableTokens;
+            this.requestsPerSecond = requestsPerSecond;
+            this.completed = completed;
+            this.overloaded = overloaded;
+        }
+
+        public int getLimit() { return limit; }
+        public int getInFlight() { return inFlight; }
+        public int getQueued() { return queued; }
+        public double getAvailableTokens() { return availableTokens; }
+        public double getRequestsPerSecond() { return requestsPerSecond; }
+        public long getCompleted() { return completed; }
+        public long getOverloaded() { return overloaded; }
+    }
+}
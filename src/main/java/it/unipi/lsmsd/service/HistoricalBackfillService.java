@@ -0,0 +1,200 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.DTO.APIResponseDTO;
+import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
+import it.unipi.lsmsd.exception.CityNotFoundException;
+import it.unipi.lsmsd.model.City;
+import it.unipi.lsmsd.repository.CityRepository;
+import it.unipi.lsmsd.utility.HourlyMeasurementBsonEncoder;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Backfills the historical measurements of a city in fixed windows (one year or one month each),
+ * instead of a single Open-Meteo request covering the whole range.
+ * <p>
+ * Up to {@code max-concurrent-windows} windows are fetched at the same time, across all the cities
+ * being backfilled. Each window is written as soon as it arrives and then recorded in the city's
+ * {@code backfillWindows}. A later backfill of the same range skips the recorded windows, so an
+ * interrupted backfill resumes from where it stopped. Once every window is stored,
+ * {@code lastMeasurementUpdate} is advanced and the checkpoints are removed.
+ */
+@Service
+public class HistoricalBackfillService {
+
+    public enum WindowUnit { YEAR, MONTH }
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoricalBackfillService.class);
+
+    @Autowired
+    private DataHarvestService dataHarvestService;
+
+    @Autowired
+    private MeasurementBulkWriteService measurementBulkWriteService;
+
+    @Autowired
+    private CityRepository cityRepository;
+
+    @Autowired
+    private CityService cityService;
+
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
+
+    private final WindowUnit windowUnit;
+    // Shared by all backfills, bounds the concurrent Open-Meteo requests
+    private final ExecutorService windowExecutor;
+
+    public HistoricalBackfillService(
+            @Value("${backfill.window-unit:YEAR}") WindowUnit windowUnit,
+            @Value("${backfill.max-concurrent-windows:3}") int maxConcurrentWindows
+    ) {
+        this.windowUnit = windowUnit;
+        this.windowExecutor = Executors.newFixedThreadPool(maxConcurrentWindows);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        windowExecutor.shutdownNow();
+    }
+
+    /**
+     * Fetches and stores the hourly measurements of the city in {@code [startDate, endDate]}, skipping
+     * the windows already stored by a previous, interrupted backfill.
+     *
+     * @param cityId    the unique identifier of the city
+     * @param startDate the first day to backfill (inclusive)
+     * @param endDate   the last day to backfill (inclusive)
+     * @return a summary of the windows processed and of the written measurements
+     * @throws CityNotFoundException if the city does not exist
+     * @throws IllegalStateException if some windows could not be stored; the stored ones remain checkpointed,
+     *         or if the measurements are being migrated to a time-series collection
+     */
+    public BackfillReport backfill(String cityId, LocalDate startDate, LocalDate endDate) {
+        // Nothing could be written: don't fetch the windows at all
+        if (measurementCollectionService.isMigrating()) {
+            throw new IllegalStateException("Backfill of " + cityId + " rejected: measurements are being migrated to a time-series collection");
+        }
+        City city = cityRepository.findById(cityId)
+                .orElseThrow(() -> new CityNotFoundException("City with id=" + cityId + " not found"));
+
+        Set<String> completed = city.getBackfillWindows() == null ? Set.of() : new HashSet<>(city.getBackfillWindows());
+        BackfillReport report = new BackfillReport();
+
+        // Submit every window not stored yet
+        Map<String, Future<MeasurementBulkWriteService.BulkWriteReport>> pending = new LinkedHashMap<>();
+        for (LocalDate[] window : splitIntoWindows(startDate, endDate)) {
+            String key = window[0] + "/" + window[1];
+            report.windows++;
+            if (completed.contains(key)) {
+                report.skipped++;
+                continue;
+            }
+            pending.put(key, windowExecutor.submit(() -> backfillWindow(city, window[0], window[1], key)));
+        }
+
+        // Wait for all of them, so that every successful window gets its checkpoint
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, Future<MeasurementBulkWriteService.BulkWriteReport>> entry : pending.entrySet()) {
+            try {
+                report.measurements.add(entry.getValue().get());
+                report.stored++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.values().forEach(future -> future.cancel(true));
+                throw new IllegalStateException("Interrupted during backfill of " + cityId, e);
+            } catch (ExecutionException e) {
+                logger.error("Backfill of {} window {} failed: {}", cityId, entry.getKey(), e.getCause().getMessage());
+                failed.add(entry.getKey());
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Backfill of " + cityId + " incomplete, failed windows: " + failed
+                    + ". Run it again to resume");
+        }
+
+        cityService.setLastMeasurementUpdateById(cityId, endDate.atTime(23, 0));
+        cityRepository.clearBackfillWindowsById(cityId);
+        logger.info("Backfill of {} completed: {}", cityId, report);
+        return report;
+    }
+
+    // Fetches, stores and checkpoints a single window
+    private MeasurementBulkWriteService.BulkWriteReport backfillWindow(City city, LocalDate from, LocalDate to, String key) throws Exception {
+        APIResponseDTO responseDTO = dataHarvestService.getCityHistoricalMeasurement(
+                city.getLatitude(),
+                city.getLongitude(),
+                from.toString(),
+                to.toString()
+        );
+
+        HourlyMeasurementDTO hourlyMeasurementDTO = responseDTO.getHourly();
+        if (hourlyMeasurementDTO == null) {
+            throw new IllegalStateException("Open-Meteo returned no hourly data for " + key);
+        }
+        hourlyMeasurementDTO.setCityId(city.getId());
+        MeasurementBulkWriteService.BulkWriteReport writeReport =
+                measurementBulkWriteService.write(HourlyMeasurementBsonEncoder.encode(hourlyMeasurementDTO));
+
+        // Only recorded once the window is durably written
+        cityRepository.addBackfillWindowById(city.getId(), key);
+        logger.debug("Backfill of {}: window {} stored", city.getId(), key);
+        return writeReport;
+    }
+
+    // Splits [startDate, endDate] at calendar year or month boundaries
+    List<LocalDate[]> splitIntoWindows(LocalDate startDate, LocalDate endDate) {
+        List<LocalDate[]> windows = new ArrayList<>();
+        LocalDate windowStart = startDate;
+        while (!windowStart.isAfter(endDate)) {
+            LocalDate nextStart = windowUnit == WindowUnit.YEAR
+                    ? windowStart.withDayOfYear(1).plusYears(1)
+                    : windowStart.withDayOfMonth(1).plusMonths(1);
+            LocalDate windowEnd = nextStart.minusDays(1).isAfter(endDate) ? endDate : nextStart.minusDays(1);
+            windows.add(new LocalDate[] { windowStart, windowEnd });
+            windowStart = nextStart;
+        }
+        return windows;
+    }
+
+    // Outcome of a backfill
+    public static class BackfillReport {
+        private int windows;
+        private int skipped;
+        private int stored;
+        private final MeasurementBulkWriteService.BulkWriteReport measurements = new MeasurementBulkWriteService.BulkWriteReport();
+
+        public int getWindows() { return windows; }
+        public int getSkipped() { return skipped; }
+        public int getStored() { return stored; }
+        public MeasurementBulkWriteService.BulkWriteReport getMeasurements() { return measurements; }
+
+        @Override
+        public String toString() {
+            return "BackfillReport{" +
+                    "windows=" + windows +
+                    ", skipped=" + skipped +
+                    ", stored=" + stored +
+                    ", measurements=" + measurements +
+                    '}';
+        }
+    }
+}
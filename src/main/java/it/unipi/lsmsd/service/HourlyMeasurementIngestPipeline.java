@@ -0,0 +1,155 @@
+package it.unipi.lsmsd.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.model.EWEThreshold;
+import it.unipi.lsmsd.utility.EWEThresholdAccumulator;
+import it.unipi.lsmsd.utility.HourlyColumnChunkReader;
+import it.unipi.lsmsd.utility.HourlyMeasurementBsonEncoder;
+import org.bson.RawBsonDocument;
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Staged, bounded-memory ingestion of one Open-Meteo hourly file into the measurement collection.
+ * <p>
+ * The stages are connected by bounded queues, so a slow stage blocks the previous one instead of
+ * letting chunks pile up in memory:
+ * <ol>
+ *     <li>read: a {@link HourlyColumnChunkReader} parses the file once into a temporary columnar file, then reads fixed-size chunks of hours from it (caller thread),
+ *     feeding the EWE threshold statistics on the way</li>
+ *     <li>map: each chunk is encoded to BSON documents</li>
+ *     <li>write: the documents are sent with {@link MeasurementBulkWriteService}</li>
+ * </ol>
+ * The map and write stages run on the given executor, which must be able to run two tasks per
+ * concurrent {@link #ingest} call.
+ */
+public class HourlyMeasurementIngestPipeline {
+
+    // End-of-stream markers, compared by identity
+    private static final HourlyMeasurementColumns END_OF_CHUNKS =
+            new HourlyMeasurementColumns(new long[0], new double[0], new double[0], new double[0], new double[0]);
+    private static final List<RawBsonDocument> END_OF_DOCUMENTS = new ArrayList<>(0);
+
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final JsonFactory jsonFactory;
+    private final MeasurementBulkWriteService measurementBulkWriteService;
+    private final ExecutorService stageExecutor;
+    private final int chunkHours;
+    private final int queueCapacity;
+
+    public HourlyMeasurementIngestPipeline(JsonFactory jsonFactory, MeasurementBulkWriteService measurementBulkWriteService,
+                                           ExecutorService stageExecutor, int chunkHours, int queueCapacity) {
+        this.jsonFactory = jsonFactory;
+        this.measurementBulkWriteService = measurementBulkWriteService;
+        this.stageExecutor = stageExecutor;
+        this.chunkHours = chunkHours;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Streams the measurements of the given source into MongoDB.
+     *
+     * @param cityId the city the measurements belong to
+     * @param source the Open-Meteo JSON response (read once)
+     * @return a summary of the ingested series, including the EWE threshold statistics
+     * @throws IOException if the source cannot be read or parsed
+     * @throws IllegalStateException if the map or write stage fails
+     */
+    public IngestResult ingest(String cityId, InputStreamSource source) throws IOException {
+        BlockingQueue<HourlyMeasurementColumns> chunks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<RawBsonDocument>> documents = new ArrayBlockingQueue<>(queueCapacity);
+
+        Future<MeasurementBulkWriteService.BulkWriteReport> writeStage = stageExecutor.submit(() -> write(documents));
+        Future<?> mapStage = stageExecutor.submit(() -> {
+            map(chunks, documents, writeStage);
+            return null;
+        });
+
+        IngestResult result = new IngestResult();
+        try (HourlyColumnChunkReader reader = new HourlyColumnChunkReader(jsonFactory, source)) {
+            HourlyMeasurementColumns chunk;
+            while (!(chunk = reader.next(chunkHours)).isEmpty()) {
+                chunk.setCityId(cityId);
+                result.accept(chunk);
+                put(chunks, chunk, mapStage);
+            }
+            put(chunks, END_OF_CHUNKS, mapStage);
+
+            mapStage.get();
+            result.report = writeStage.get();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while ingesting measurements of " + cityId, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ingestion of measurements of " + cityId + " failed", e.getCause());
+        } finally {
+            // No-op on success, stops the stages when the reader failed
+            mapStage.cancel(true);
+            writeStage.cancel(true);
+        }
+    }
+
+    // Map stage: chunks -> BSON documents
+    private void map(BlockingQueue<HourlyMeasurementColumns> chunks, BlockingQueue<List<RawBsonDocument>> documents,
+                     Future<?> writeStage) throws InterruptedException, ExecutionException {
+        HourlyMeasurementColumns chunk;
+        while ((chunk = chunks.take()) != END_OF_CHUNKS) {
+            put(documents, HourlyMeasurementBsonEncoder.encode(chunk), writeStage);
+        }
+        put(documents, END_OF_DOCUMENTS, writeStage);
+    }
+
+    // Write stage: BSON documents -> MongoDB
+    private MeasurementBulkWriteService.BulkWriteReport write(BlockingQueue<List<RawBsonDocument>> documents) throws InterruptedException {
+        MeasurementBulkWriteService.BulkWriteReport total = new MeasurementBulkWriteService.BulkWriteReport();
+        List<RawBsonDocument> batch;
+        while ((batch = documents.take()) != END_OF_DOCUMENTS) {
+            total.add(measurementBulkWriteService.write(batch));
+        }
+        return total;
+    }
+
+    // Blocks until the queue accepts the item, failing fast if the consuming stage has stopped
+    private static <T> void put(BlockingQueue<T> queue, T item, Future<?> consumer) throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            if (consumer.isDone()) {
+                consumer.get();
+                throw new IllegalStateException("Consumer stage stopped before the end of the stream");
+            }
+        }
+    }
+
+    // Summary of an ingested file
+    public static class IngestResult {
+        private final EWEThresholdAccumulator thresholds = new EWEThresholdAccumulator();
+        private long hours = 0;
+        private long firstEpochHour = Long.MAX_VALUE;
+        private long lastEpochHour = Long.MIN_VALUE;
+        private MeasurementBulkWriteService.BulkWriteReport report;
+
+        private void accept(HourlyMeasurementColumns chunk) {
+            thresholds.accept(chunk);
+            hours += chunk.size();
+            firstEpochHour = Math.min(firstEpochHour, chunk.getEpochHour(0));
+            lastEpochHour = Math.max(lastEpochHour, chunk.getEpochHour(chunk.size() - 1));
+        }
+
+        public long getHours() { return hours; }
+        public long getFirstEpochHour() { return firstEpochHour; }
+        public long getLastEpochHour() { return lastEpochHour; }
+        public MeasurementBulkWriteService.BulkWriteReport getReport() { return report; }
+        public EWEThreshold getThresholds(double x) { return thresholds.getThresholds(x); }
+    }
+}
@@ -2,13 +2,12 @@ package it.unipi.lsmsd.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import it.unipi.lsmsd.DTO.APIResponseDTO;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
 import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
 import it.unipi.lsmsd.exception.CityNotFoundException;
 import it.unipi.lsmsd.model.City;
-import it.unipi.lsmsd.model.HourlyMeasurement;
 import it.unipi.lsmsd.repository.CityRepository;
-import it.unipi.lsmsd.repository.HourlyMeasurementRepository;
-import it.unipi.lsmsd.utility.Mapper;
+import it.unipi.lsmsd.utility.HourlyMeasurementBsonEncoder;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
@@ -16,9 +15,13 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.Math.max;
 
@@ -29,7 +32,7 @@ public class HourlyMeasurementService {
     private DataHarvestService dataHarvestService;
 
     @Autowired
-    private HourlyMeasurementRepository hourlyMeasurementRepository;
+    private MeasurementStorageService measurementStorageService;
 
     @Autowired
     private CityRepository cityRepository;
@@ -37,6 +40,12 @@ public class HourlyMeasurementService {
     @Autowired
     private CityService cityService;
 
+    @Autowired
+    private MeasurementBulkWriteService measurementBulkWriteService;
+
+    @Autowired
+    private HistoricalBackfillService historicalBackfillService;
+
     static final LocalDate STARTDATE_DEFAULT = LocalDate.of(2000, 1, 1);
     /**
      * Retrieves and stores all available hourly weather measurements for the specified city
@@ -80,8 +89,118 @@ public class HourlyMeasurementService {
     }
 
     /**
-     * Retrieves and stores the last seven full days (from eight days ago to yesterday)
+     * Batched variant of {@link #refreshHourlyMeasurementsAutomaticFromOpenMeteo(String)} for many cities.
+     * <p>
+     * A multi-location request shares the date range of all its locations, so the cities are grouped by
+     * the day after their {@code lastMeasurementUpdate}; each group is fetched with requests of up to
+     * {@code open-meteo.batch-size} cities. Cities already up to date are skipped.
+     *
+     * @param cities the cities whose measurements are to be refreshed
+     * @return the ids of the cities whose measurements could not be refreshed
+     */
+    public List<String> refreshHourlyMeasurementsAutomaticFromOpenMeteo(List<City> cities) {
+        // Up until yesterday
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        List<String> failed = new ArrayList<>();
+
+        // Group the cities by the first day to retrieve
+        Map<LocalDate, List<City>> citiesByStartDate = new TreeMap<>();
+        for (City city : cities) {
+            if (city.getLastMeasurementUpdate() == null) {
+                failed.add(city.getId());
+                continue;
+            }
+            LocalDate startDate = city.getLastMeasurementUpdate().toLocalDate().plusDays(1);
+            if (!startDate.isAfter(yesterday)) {
+                citiesByStartDate.computeIfAbsent(startDate, d -> new ArrayList<>()).add(city);
+            }
+        }
+
+        failed.addAll(refreshHourlyMeasurementsFromOpenMeteo(citiesByStartDate, yesterday));
+        return failed;
+    }
+
+    /**
+     * Retrieves and stores the measurements in {@code [startDate, endDate]} of several cities, with
+     * multi-location requests of up to {@code open-meteo.batch-size} cities each.
+     * The {@code lastMeasurementUpdate} of every stored city is set to {@code endDate}.
+     *
+     * @param cities    the cities whose measurements are to be retrieved
+     * @param startDate the first day to retrieve (inclusive)
+     * @param endDate   the last day to retrieve (inclusive)
+     * @return the ids of the cities whose measurements could not be stored
+     */
+    public List<String> refreshHourlyMeasurementsFromOpenMeteo(List<City> cities, LocalDate startDate, LocalDate endDate) {
+        return refreshHourlyMeasurementsFromOpenMeteo(Map.of(startDate, cities), endDate);
+    }
+
+    /**
+     * Variant of {@link #refreshHourlyMeasurementsFromOpenMeteo(List, LocalDate, LocalDate)} for cities
+     * grouped by their first day to retrieve, all sharing the same {@code endDate}.
+     * <p>
+     * The requests of every group are handed to the {@link HarvestScheduler} at once, which sends them
+     * as fast as Open-Meteo accepts; the responses are then stored in order.
+     *
+     * @param citiesByStartDate the cities to refresh, keyed by the first day to retrieve (inclusive)
+     * @param endDate           the last day to retrieve (inclusive)
+     * @return the ids of the cities whose measurements could not be stored
+     */
+    public List<String> refreshHourlyMeasurementsFromOpenMeteo(Map<LocalDate, List<City>> citiesByStartDate, LocalDate endDate) {
+        List<List<City>> batches = new ArrayList<>();
+        List<CompletableFuture<List<APIResponseDTO>>> pending = new ArrayList<>();
+        for (Map.Entry<LocalDate, List<City>> group : citiesByStartDate.entrySet()) {
+            for (List<City> batch : dataHarvestService.partitionIntoBatches(group.getValue())) {
+                double[] latitudes = new double[batch.size()];
+                double[] longitudes = new double[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    latitudes[i] = batch.get(i).getLatitude();
+                    longitudes[i] = batch.get(i).getLongitude();
+                }
+                batches.add(batch);
+                pending.add(dataHarvestService.getCitiesHistoricalMeasurementAsync(latitudes, longitudes, group.getKey().toString(), endDate.toString()));
+            }
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (int b = 0; b < batches.size(); b++) {
+            failed.addAll(saveHourlyMeasurementsBatch(batches.get(b), pending.get(b), endDate));
+        }
+        return failed;
+    }
+
+    // Waits for the response of a batch of cities and stores it, returns the failed cities
+    private List<String> saveHourlyMeasurementsBatch(List<City> batch, CompletableFuture<List<APIResponseDTO>> response, LocalDate endDate) {
+        List<String> failed = new ArrayList<>();
+        List<APIResponseDTO> responses;
+        try {
+            responses = response.join();
+        }
+        catch (Exception e) {
+            batch.forEach(city -> failed.add(city.getId()));
+            return failed;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            String cityId = batch.get(i).getId();
+            try {
+                HourlyMeasurementDTO hourlyMeasurementDTO = responses.get(i).getHourly();
+                hourlyMeasurementDTO.setCityId(cityId);
+                // Save the data in MongoDB
+                saveHourlyMeasurements(hourlyMeasurementDTO);
+                cityService.setLastMeasurementUpdateById(cityId, endDate.atTime(23, 0));
+            }
+            catch (Exception e) {
+                failed.add(cityId);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Retrieves and stores the last {@code pastDays} full days (up to yesterday)
      * of hourly weather measurements for the specified city using the Open-Meteo API.
+     * With a null {@code pastDays} the whole history since {@code STARTDATE_DEFAULT} is backfilled
+     * by {@link HistoricalBackfillService}, window by window.
      * <p>
      * If the city is not found, a {@link CityNotFoundException} is thrown.
      * The retrieved measurements are saved in MongoDB, and the method returns the date
@@ -99,18 +218,19 @@ public class HourlyMeasurementService {
         }
         City city = optionalCity.get();
 
-        LocalDate startDate;
-        if(pastDays == null){
-            // First of January 2000
-            startDate = STARTDATE_DEFAULT;
-        }
-        else{
-            pastDays = max(0, pastDays);
-            startDate = LocalDate.now().minusDays(pastDays);
-        }
         // Up until yesterday
         LocalDate yesterday = LocalDate.now().minusDays(1);
 
+        if(pastDays == null){
+            // Full history from the first of January 2000: fetched in checkpointed windows, resumable
+            System.out.println("\nBackfilling measurements of " + cityId + " from " + STARTDATE_DEFAULT.toString() + " to " + yesterday.toString());
+            historicalBackfillService.backfill(cityId, STARTDATE_DEFAULT, yesterday);
+            return;
+        }
+
+        pastDays = max(0, pastDays);
+        LocalDate startDate = LocalDate.now().minusDays(pastDays);
+
         System.out.println("\nUpdating measurements of " + cityId + " from " + startDate.toString() + " to " + yesterday.toString());
 
         // Validate the CityDTO values
@@ -134,25 +254,35 @@ public class HourlyMeasurementService {
         refreshHourlyMeasurementsFromOpenMeteo(cityId, pastDays);
     }
 
-    // Saves the list of hourlyMeasurement of the given city to the DB in Time-Series Collection "hourly_measurements" 
-    public void saveHourlyMeasurements( HourlyMeasurementDTO hourlyMeasurementDTO) {
-        List<HourlyMeasurement> measurements = Mapper.mapHourlyMeasurement(hourlyMeasurementDTO);
-        int batchSize = 10000;
+    /**
+     * Saves the hourly measurements of the given city to the "hourly_measurements" collection.
+     * <p>
+     * The columns are encoded directly to BSON and written with unordered bulk writes, so hours already stored for the city
+     * (e.g. on a re-run of a backfill) are handled according to the configured duplicate policy
+     * instead of failing the whole batch.
+     *
+     * @param hourlyMeasurementDTO the hourly measurements, with the {@code cityId} already set
+     * @return a report of inserted, replaced and already present measurements
+     */
+    public MeasurementBulkWriteService.BulkWriteReport saveHourlyMeasurements(HourlyMeasurementDTO hourlyMeasurementDTO) {
+        return measurementBulkWriteService.write(HourlyMeasurementBsonEncoder.encode(hourlyMeasurementDTO));
+    }
 
-        if(measurements.size()<= batchSize){         
-            hourlyMeasurementRepository.insert(measurements);
-            return;
-        }
-        
-        for (int i = 0; i < measurements.size(); i += batchSize) {
-            int end = Math.min(i + batchSize, measurements.size());
-            List<HourlyMeasurement> batch = measurements.subList(i, end);
-            hourlyMeasurementRepository.saveAll(batch);
-        }
+    // Same as saveHourlyMeasurements, for columnar measurements
+    public MeasurementBulkWriteService.BulkWriteReport saveHourlyMeasurements(HourlyMeasurementColumns hourlyMeasurementColumns) {
+        return measurementBulkWriteService.write(HourlyMeasurementBsonEncoder.encode(hourlyMeasurementColumns));
+    }
+
+    // Same as saveHourlyMeasurements, overwriting the hours already stored
+    public MeasurementBulkWriteService.BulkWriteReport upsertHourlyMeasurements(HourlyMeasurementDTO hourlyMeasurementDTO) {
+        return measurementBulkWriteService.write(
+                HourlyMeasurementBsonEncoder.encode(hourlyMeasurementDTO),
+                MeasurementBulkWriteService.DuplicatePolicy.UPSERT
+        );
     }
 
     public void deleteHourlyMeasurements(String cityId, Date startDate, Date endDate){
-        hourlyMeasurementRepository.deleteByCityIdAndTimeBetween(cityId, startDate, endDate);
+        measurementStorageService.deleteByCityIdAndTimeBetween(cityId, startDate, endDate);
     }
 }
 
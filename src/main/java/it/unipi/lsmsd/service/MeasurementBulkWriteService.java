@@ -0,0 +1,416 @@
+package it.unipi.lsmsd.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import it.unipi.lsmsd.model.MeasurementLayout;
+import it.unipi.lsmsd.utility.MeasurementBucketUtility;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDateTime;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Projections.include;
+
+// Bulk ingestion of hourly measurements into the measurement collection
+@Service
+public class MeasurementBulkWriteService {
+
+    /**
+     * Behaviour of a write when a {@code (cityId, time)} pair is already stored.
+     * <ul>
+     *     <li>{@code IGNORE}: the stored document is kept and the new one is counted as already present</li>
+     *     <li>{@code UPSERT}: the stored document is replaced by the new one</li>
+     * </ul>
+     */
+    public enum DuplicatePolicy { IGNORE, UPSERT }
+
+    // Mongo error code raised by the unique (cityId, time) index of a plain collection
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private static final Logger logger = LoggerFactory.getLogger(MeasurementBulkWriteService.class);
+
+    private final MongoDatabase database;
+    private final MeasurementCollectionService measurementCollectionService;
+    // Whether each measurement collection is a native time-series collection, resolved on first use
+    private final Map<String, Boolean> timeSeriesByCollection = new ConcurrentHashMap<>();
+    private final MeasurementLayout measurementLayout;
+    private final int maxBatchBytes;
+    private final int maxBatchDocuments;
+    private final DuplicatePolicy defaultPolicy;
+
+    // Bounds the number of batches travelling to the server at the same time, shared by all callers
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    // Serialize the read-then-write of a city in a time-series collection (striped by city id)
+    private final ReentrantLock[] cityLocks = new ReentrantLock[64];
+
+    public MeasurementBulkWriteService(
+            MongoClient mongoClient,
+            @Value("${spring.data.mongodb.database}") String databaseName,
+            MeasurementCollectionService measurementCollectionService,
+            @Value("${spring.mongo.bulk-write.max-batch-bytes:4194304}") int maxBatchBytes,
+            @Value("${spring.mongo.bulk-write.max-batch-documents:20000}") int maxBatchDocuments,
+            @Value("${spring.mongo.bulk-write.max-in-flight:4}") int maxInFlight,
+            @Value("${spring.mongo.bulk-write.duplicate-policy:IGNORE}") DuplicatePolicy defaultPolicy,
+            @Value("${spring.mongo.measurement-layout:HOURLY}") MeasurementLayout measurementLayout
+    ) {
+        this.database = mongoClient.getDatabase(databaseName);
+        this.measurementCollectionService = measurementCollectionService;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchDocuments = maxBatchDocuments;
+        this.defaultPolicy = defaultPolicy;
+        this.measurementLayout = measurementLayout;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight);
+        for (int i = 0; i < cityLocks.length; i++) {
+            cityLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Writes the given measurement documents using the configured default {@link DuplicatePolicy}.
+     *
+     * @param documents the encoded measurement documents, each holding at least {@code cityId} and {@code time}
+     * @return a {@link BulkWriteReport} with the number of inserted, replaced and already present documents
+     * @see #write(List, DuplicatePolicy)
+     */
+    public BulkWriteReport write(List<RawBsonDocument> documents) {
+        return write(documents, defaultPolicy);
+    }
+
+    /**
+     * Writes the given measurement documents with unordered bulk writes.
+     * <p>
+     * The documents are split into batches whose encoded size does not exceed the configured byte limit,
+     * and up to {@code max-in-flight} batches are sent concurrently. Since the writes are unordered, a
+     * duplicate {@code (cityId, time)} pair never stops the rest of the batch: depending on the policy it is
+     * either counted as already present or replaced.
+     * <p>
+     * With the {@code DAILY_BUCKET} layout the hours are merged into their day buckets, and the
+     * report counts buckets instead of hours.
+     *
+     * @param documents the encoded measurement documents, each holding at least {@code cityId} and {@code time}
+     * @param policy    how to treat documents already present in the collection
+     * @return a {@link BulkWriteReport} with the number of inserted, replaced and already present documents
+     * @throws com.mongodb.MongoException if a batch fails for any reason other than a duplicate key
+     * @throws IllegalStateException if the measurements are being migrated to a time-series collection
+     */
+    public BulkWriteReport write(List<RawBsonDocument> documents, DuplicatePolicy policy) {
+        if (documents == null || documents.isEmpty()) {
+            return new BulkWriteReport();
+        }
+        return write(measurementCollectionService.getWritableName(), documents, policy);
+    }
+
+    // Writes into the given measurement collection, whatever the migration state: used by the migration itself
+    BulkWriteReport write(String collectionName, List<RawBsonDocument> documents, DuplicatePolicy policy) {
+        BulkWriteReport report = new BulkWriteReport();
+        if (documents == null || documents.isEmpty()) {
+            return report;
+        }
+        MongoCollection<RawBsonDocument> collection = database.getCollection(collectionName, RawBsonDocument.class);
+
+        List<Future<BulkWriteReport>> futures = new ArrayList<>();
+        List<RawBsonDocument> batch = new ArrayList<>();
+        int batchBytes = 0;
+
+        try {
+            for (RawBsonDocument document : documents) {
+                int documentBytes = document.getByteBuffer().remaining();
+                // Close the current batch if the next document would exceed one of the limits
+                if (!batch.isEmpty() && (batchBytes + documentBytes > maxBatchBytes || batch.size() >= maxBatchDocuments)) {
+                    futures.add(submitBatch(collection, batch, policy));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(document);
+                batchBytes += documentBytes;
+            }
+            futures.add(submitBatch(collection, batch, policy));
+
+            // Collect the outcome of every batch
+            for (Future<BulkWriteReport> future : futures) {
+                report.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing measurements", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Bulk write of measurements failed", e.getCause());
+        }
+
+        logger.debug("Bulk write of {} measurements: {}", documents.size(), report);
+        return report;
+    }
+
+    // Waits for a free in-flight slot, then sends the batch on the writer pool
+    private Future<BulkWriteReport> submitBatch(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch,
+                                                DuplicatePolicy policy) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    return writeBatch(collection, batch, policy);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private BulkWriteReport writeBatch(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch, DuplicatePolicy policy) {
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            return writeBucketBatch(collection, batch, policy);
+        }
+        if (isTimeSeries(collection.getNamespace().getCollectionName())) {
+            return writeTimeSeriesBatch(collection, batch, policy);
+        }
+
+        List<WriteModel<RawBsonDocument>> models = new ArrayList<>(batch.size());
+        for (RawBsonDocument document : batch) {
+            if (policy == DuplicatePolicy.UPSERT) {
+                Bson filter = and(eq("cityId", document.get("cityId")), eq("time", document.get("time")));
+                models.add(new ReplaceOneModel<>(filter, document, new ReplaceOptions().upsert(true)));
+            } else {
+                models.add(new InsertOneModel<>(document));
+            }
+        }
+
+        BulkWriteReport report = new BulkWriteReport();
+        try {
+            report.add(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)));
+        } catch (MongoBulkWriteException e) {
+            // Duplicate keys are expected on overlapping ranges, anything else is a real failure
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY_ERROR) {
+                    throw e;
+                }
+            }
+            report.add(e.getWriteResult());
+            report.alreadyPresent += e.getWriteErrors().size();
+        }
+        return report;
+    }
+
+    /**
+     * Writes a batch into a time-series collection, which has no unique index to reject duplicates:
+     * the hours already stored for the city are looked up first, then either skipped
+     * ({@code IGNORE}) or written again ({@code UPSERT}), the new documents being inserted before the
+     * old ones are deleted by {@code _id}, so that a failure in between leaves a duplicate hour and never
+     * a missing one. Hours repeated inside the batch are written once.
+     * <p>
+     * The look-up and the write of a city hold the lock of the city, so concurrent batches of this
+     * instance cannot both find an hour missing and insert it twice. Ingestion runs on a single instance.
+     */
+    private BulkWriteReport writeTimeSeriesBatch(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch,
+                                                 DuplicatePolicy policy) {
+        BulkWriteReport report = new BulkWriteReport();
+
+        // Group the batch by city, usually a single one
+        Map<String, List<RawBsonDocument>> byCity = new LinkedHashMap<>();
+        for (RawBsonDocument document : batch) {
+            byCity.computeIfAbsent(document.getString("cityId").getValue(), c -> new ArrayList<>()).add(document);
+        }
+
+        // One city at a time, so a batch never holds more than one lock
+        for (Map.Entry<String, List<RawBsonDocument>> entry : byCity.entrySet()) {
+            ReentrantLock lock = cityLocks[Math.floorMod(entry.getKey().hashCode(), cityLocks.length)];
+            lock.lock();
+            try {
+                writeTimeSeriesCity(collection, entry.getKey(), entry.getValue(), policy, report);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return report;
+    }
+
+    private void writeTimeSeriesCity(MongoCollection<RawBsonDocument> collection, String cityId, List<RawBsonDocument> documents,
+                                     DuplicatePolicy policy, BulkWriteReport report) {
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (RawBsonDocument document : documents) {
+            long time = document.getDateTime("time").getValue();
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+        }
+        Bson range = and(eq("cityId", cityId), gte("time", new BsonDateTime(minTime)), lte("time", new BsonDateTime(maxTime)));
+
+        // Ids of the documents stored for each hour
+        Map<Long, List<BsonValue>> stored = new HashMap<>();
+        for (RawBsonDocument document : collection.find(range).projection(include("_id", "time"))) {
+            stored.computeIfAbsent(document.getDateTime("time").getValue(), t -> new ArrayList<>()).add(document.get("_id"));
+        }
+
+        Set<Long> seen = new HashSet<>();
+        List<RawBsonDocument> toInsert = new ArrayList<>(documents.size());
+        List<BsonValue> toDelete = new ArrayList<>();
+        int replaced = 0;
+        for (RawBsonDocument document : documents) {
+            long time = document.getDateTime("time").getValue();
+            if (!seen.add(time)) {
+                report.alreadyPresent++;
+            } else if (!stored.containsKey(time)) {
+                toInsert.add(document);
+            } else if (policy == DuplicatePolicy.UPSERT) {
+                toDelete.addAll(stored.get(time));
+                toInsert.add(document);
+                replaced++;
+            } else {
+                report.alreadyPresent++;
+            }
+        }
+
+        if (!toInsert.isEmpty()) {
+            collection.insertMany(toInsert, new InsertManyOptions().ordered(false));
+        }
+        // Only once the new hours are stored
+        if (!toDelete.isEmpty()) {
+            collection.deleteMany(and(eq("cityId", cityId), in("_id", toDelete)));
+        }
+        // Replaced hours are written again but counted only as replaced
+        report.inserted += toInsert.size() - replaced;
+        report.replaced += replaced;
+    }
+
+    /**
+     * Merges a batch of hourly documents into their {@code (cityId, day)} buckets with one upserting
+     * pipeline update per bucket. {@code IGNORE} only fills the hours that are still null, {@code UPSERT}
+     * overwrites them; the daily statistics are recomputed by the same update.
+     */
+    private BulkWriteReport writeBucketBatch(MongoCollection<RawBsonDocument> collection, List<RawBsonDocument> batch, DuplicatePolicy policy) {
+        int fields = MeasurementBucketUtility.FIELDS.length;
+        Map<String, Map<Long, Double[][]>> valuesByBucket = new LinkedHashMap<>();
+        Map<String, Map<Long, boolean[]>> presentByBucket = new LinkedHashMap<>();
+
+        for (RawBsonDocument document : batch) {
+            String cityId = document.getString("cityId").getValue();
+            long time = document.getDateTime("time").getValue();
+            long day = MeasurementBucketUtility.dayOf(time);
+            int hour = (int) ((time - day) / MeasurementBucketUtility.HOUR_MILLIS);
+
+            Double[][] values = valuesByBucket.computeIfAbsent(cityId, c -> new LinkedHashMap<>())
+                    .computeIfAbsent(day, d -> new Double[fields][MeasurementBucketUtility.HOURS_PER_DAY]);
+            presentByBucket.computeIfAbsent(cityId, c -> new LinkedHashMap<>())
+                    .computeIfAbsent(day, d -> new boolean[MeasurementBucketUtility.HOURS_PER_DAY])[hour] = true;
+            for (int f = 0; f < fields; f++) {
+                BsonValue value = document.get(MeasurementBucketUtility.FIELDS[f]);
+                values[f][hour] = value != null && value.isNumber() ? value.asNumber().doubleValue() : null;
+            }
+        }
+
+        List<WriteModel<RawBsonDocument>> models = new ArrayList<>();
+        for (Map.Entry<String, Map<Long, Double[][]>> city : valuesByBucket.entrySet()) {
+            for (Map.Entry<Long, Double[][]> bucket : city.getValue().entrySet()) {
+                Bson filter = and(eq("cityId", city.getKey()), eq("day", new BsonDateTime(bucket.getKey())));
+                List<Bson> update = MeasurementBucketUtility.mergeHoursPipeline(
+                        bucket.getValue(),
+                        presentByBucket.get(city.getKey()).get(bucket.getKey()),
+                        policy == DuplicatePolicy.UPSERT
+                );
+                models.add(new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true)));
+            }
+        }
+
+        BulkWriteReport report = new BulkWriteReport();
+        report.add(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)));
+        return report;
+    }
+
+    private boolean isTimeSeries(String collectionName) {
+        return timeSeriesByCollection.computeIfAbsent(collectionName, name -> {
+            Document info = database.listCollections()
+                    .filter(eq("name", name))
+                    .first();
+            return info != null && "timeseries".equals(info.getString("type"));
+        });
+    }
+
+    // Forgets the cached collection types, to be called after a collection is recreated or migrated
+    public void refreshCollectionType() {
+        timeSeriesByCollection.clear();
+    }
+
+    // Outcome of a bulk write, summed over all batches
+    public static class BulkWriteReport {
+        private long inserted;
+        private long replaced;
+        private long alreadyPresent;
+
+        private void add(BulkWriteResult result) {
+            inserted += result.getInsertedCount() + result.getUpserts().size();
+            replaced += result.getModifiedCount();
+            // Matched but unchanged documents were already stored with the same values
+            alreadyPresent += result.getMatchedCount() - result.getModifiedCount();
+        }
+
+        public void add(BulkWriteReport other) {
+            inserted += other.inserted;
+            replaced += other.replaced;
+            alreadyPresent += other.alreadyPresent;
+        }
+
+        public long getInserted() { return inserted; }
+        public long getReplaced() { return replaced; }
+        public long getAlreadyPresent() { return alreadyPresent; }
+
+        @Override
+        public String toString() {
+            return "BulkWriteReport{" +
+                    "inserted=" + inserted +
+                    ", replaced=" + replaced +
+                    ", alreadyPresent=" + alreadyPresent +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package it.unipi.lsmsd.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Name of the collection holding the hourly measurements, for every reader and writer of them.
+ * <p>
+ * It is the configured {@code measurement-collection}, until a {@link MeasurementMigrationService time-series
+ * migration} completes: from then on it is the collection the measurements were copied into, recorded in the
+ * checkpoint of the migration. While a migration is in progress the measurements must not change, so the
+ * writers ask for {@link #getWritableName()}, which fails until the migration is completed.
+ * <p>
+ * The readers use {@link #getName()}, which re-reads the checkpoint at most every {@code pointer-refresh}:
+ * right after a switch-over they may still read the source collection for a while, which is complete.
+ */
+@Service
+public class MeasurementCollectionService {
+
+    static final String MIGRATION_COLLECTION = "migrations";
+
+    private final MongoCollection<Document> migrations;
+    private final String measurementCollectionName;
+    private final long refreshNanos;
+
+    private volatile State state;
+
+    public MeasurementCollectionService(
+            MongoClient mongoClient,
+            @Value("${spring.data.mongodb.database}") String databaseName,
+            @Value("${spring.mongo.measurement-collection}") String measurementCollectionName,
+            @Value("${spring.mongo.migration.pointer-refresh:10s}") Duration pointerRefresh
+    ) {
+        this.migrations = mongoClient.getDatabase(databaseName).getCollection(MIGRATION_COLLECTION);
+        this.measurementCollectionName = measurementCollectionName;
+        this.refreshNanos = pointerRefresh.toNanos();
+    }
+
+    // Id of the checkpoint of the time-series migration of the configured collection
+    String migrationId() {
+        return measurementCollectionName + "-timeseries";
+    }
+
+    /**
+     * Returns the name of the measurement collection to read from.
+     */
+    public String getName() {
+        State current = state;
+        if (current == null || System.nanoTime() - current.readAt > refreshNanos) {
+            current = refresh();
+        }
+        return current.name;
+    }
+
+    /**
+     * Returns the name of the measurement collection to write to, read from the checkpoint right now.
+     *
+     * @throws IllegalStateException if a time-series migration is in progress
+     */
+    public String getWritableName() {
+        State current = refresh();
+        if (current.migrating) {
+            throw new IllegalStateException("Measurements are being migrated to a time-series collection, retry when the migration is completed");
+        }
+        return current.name;
+    }
+
+    /**
+     * Returns whether a time-series migration is in progress, read from the checkpoint right now.
+     */
+    public boolean isMigrating() {
+        return refresh().migrating;
+    }
+
+    /**
+     * Re-reads the checkpoint of the migration, to be called by the migration after every change of it.
+     */
+    State refresh() {
+        Document checkpoint = migrations.find(eq("_id", migrationId())).first();
+        State current;
+        if (checkpoint == null) {
+            current = new State(measurementCollectionName, false);
+        } else if (checkpoint.getBoolean("completed", false)) {
+            String target = checkpoint.getString("target");
+            current = new State(target != null ? target : measurementCollectionName, false);
+        } else {
+            current = new State(measurementCollectionName, true);
+        }
+        state = current;
+        return current;
+    }
+
+    static final class State {
+        private final String name;
+        private final boolean migrating;
+        private final long readAt = System.nanoTime();
+
+        private State(String name, boolean migrating) {
+            this.name = name;
+            this.migrating = migrating;
+        }
+    }
+}
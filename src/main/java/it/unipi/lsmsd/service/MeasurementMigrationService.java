@@ -0,0 +1,191 @@
+package it.unipi.lsmsd.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+
+import it.unipi.lsmsd.model.MeasurementLayout;
+import it.unipi.lsmsd.utility.MongoInitializer;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+
+/**
+ * Moves the hourly measurements from a plain collection into a native time-series collection.
+ * <p>
+ * Time-series collections cannot be renamed, so the measurements are copied into a new time-series collection,
+ * {@code <name>_ts}, and then {@link MeasurementCollectionService} points every reader and writer to it.
+ * Until then the plain collection stays the one read, complete. To keep the copy equal to it, from the moment the
+ * migration starts the measurements are not written anymore (ingestion, backfill and deletions fail) and no
+ * extreme weather event detection runs, since it would skip for good the hours not written meanwhile.
+ * <p>
+ * The documents are copied in {@code _id} order with {@link MeasurementBulkWriteService} (duplicates ignored).
+ * A checkpoint is stored in the {@code migrations} collection when the migration starts, then with the last
+ * copied {@code _id} after every batch: a failed or interrupted migration resumes from there when started again.
+ * A catch-up pass then copies whatever the first one missed (a write that was already in flight when the
+ * migration started), and the switch-over only happens once both collections hold the same number of documents.
+ * <p>
+ * The plain collection is never dropped by the migration, it must be dropped by hand once the new
+ * collection has been verified.
+ */
+@Service
+public class MeasurementMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MeasurementMigrationService.class);
+
+    private static final String TIME_SERIES_SUFFIX = "_ts";
+
+    private final MongoDatabase database;
+
+    @Autowired
+    private MeasurementBulkWriteService measurementBulkWriteService;
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
+
+    @Value("${spring.mongo.measurement-collection}")
+    private String measurementCollectionName;
+    @Value("${spring.mongo.migration.batch-size:50000}")
+    private int batchSize;
+    @Value("${spring.mongo.measurement-layout:HOURLY}")
+    private MeasurementLayout measurementLayout;
+
+    public MeasurementMigrationService(MongoClient mongoClient, @Value("${spring.data.mongodb.database}") String databaseName) {
+        this.database = mongoClient.getDatabase(databaseName);
+    }
+
+    private Document collectionInfo(String name) {
+        return database.listCollections().filter(eq("name", name)).first();
+    }
+
+    /**
+     * Migrates the measurement collection to a time-series collection, or resumes a previous migration.
+     *
+     * @return the number of documents copied by this call
+     * @throws IllegalStateException if there is no measurement collection to migrate, it uses the daily-bucket layout,
+     *                               or the copy still differs from it after the catch-up pass
+     */
+    public long migrateToTimeSeries() {
+        if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+            throw new IllegalStateException("Time-series migration is not available with the DAILY_BUCKET measurement layout");
+        }
+        String targetCollectionName = measurementCollectionName + TIME_SERIES_SUFFIX;
+        String migrationId = measurementCollectionService.migrationId();
+        MongoCollection<Document> migrations = database.getCollection(MeasurementCollectionService.MIGRATION_COLLECTION);
+
+        Document checkpoint = migrations.find(eq("_id", migrationId)).first();
+        if (checkpoint != null && checkpoint.getBoolean("completed", false)) {
+            logger.info("Migration of '{}' to time-series already completed", measurementCollectionName);
+            return 0;
+        }
+
+        // Step 1: record the migration, which stops the writes to the plain collection
+        if (checkpoint == null) {
+            Document info = collectionInfo(measurementCollectionName);
+            if (info == null) {
+                throw new IllegalStateException("Collection '" + measurementCollectionName + "' does not exist");
+            }
+            if ("timeseries".equals(info.getString("type"))) {
+                logger.info("Collection '{}' is already a time-series collection", measurementCollectionName);
+                return 0;
+            }
+
+            checkpoint = new Document("_id", migrationId)
+                    .append("source", measurementCollectionName)
+                    .append("target", targetCollectionName)
+                    .append("copied", 0L)
+                    .append("completed", false)
+                    .append("startedAt", new Date());
+            migrations.insertOne(checkpoint);
+        }
+        measurementCollectionService.refresh();
+        if (collectionInfo(targetCollectionName) == null) {
+            MongoInitializer.createMeasurementTimeSeriesCollection(database, targetCollectionName);
+            logger.info("Time-series collection '{}' created", targetCollectionName);
+        }
+        // The target may have been created before the writer cached its type
+        measurementBulkWriteService.refreshCollectionType();
+
+        // Step 2: copy the documents in batches, starting after the last checkpoint
+        MongoCollection<RawBsonDocument> source = database.getCollection(measurementCollectionName, RawBsonDocument.class);
+        MongoCollection<RawBsonDocument> target = database.getCollection(targetCollectionName, RawBsonDocument.class);
+        long copiedNow = copy(source, targetCollectionName, checkpoint, migrations);
+
+        // Step 3: catch-up pass over the whole collection, only if some document is still missing
+        long sourceCount = source.countDocuments();
+        long targetCount = target.countDocuments();
+        if (sourceCount != targetCount) {
+            logger.info("Migration of '{}': {} documents in '{}', catch-up pass", measurementCollectionName, targetCount, targetCollectionName);
+            copiedNow += copy(source, targetCollectionName, null, null);
+            targetCount = target.countDocuments();
+            if (sourceCount != targetCount) {
+                throw new IllegalStateException("'" + targetCollectionName + "' holds " + targetCount + " documents instead of "
+                        + sourceCount + ", the migration is not completed");
+            }
+        }
+
+        // Step 4: switch over, the readers and writers move to the time-series collection
+        checkpoint.put("completed", true);
+        checkpoint.put("completedAt", new Date());
+        migrations.replaceOne(eq("_id", migrationId), checkpoint, new ReplaceOptions().upsert(true));
+        measurementCollectionService.refresh();
+        logger.info("Migration of '{}' to time-series completed: measurements are now stored in '{}', '{}' can be dropped",
+                measurementCollectionName, targetCollectionName, measurementCollectionName);
+
+        return copiedNow;
+    }
+
+    /**
+     * Copies the source documents in {@code _id} order, ignoring the ones already in the target.
+     * With a checkpoint the copy starts after its {@code lastId} and the checkpoint is stored after every batch,
+     * without one the whole source is copied again and only the documents actually inserted are counted.
+     */
+    private long copy(MongoCollection<RawBsonDocument> source, String targetCollectionName,
+                      Document checkpoint, MongoCollection<Document> migrations) {
+        Object lastId = checkpoint == null ? null : checkpoint.get("lastId");
+        long copied = checkpoint == null ? 0 : checkpoint.get("copied", Number.class).longValue();
+        long copiedNow = 0;
+
+        while (true) {
+            Bson filter = lastId == null ? new Document() : gt("_id", lastId);
+            List<RawBsonDocument> batch = source.find(filter)
+                    .sort(Sorts.ascending("_id"))
+                    .limit(batchSize)
+                    .into(new ArrayList<>(batchSize));
+            if (batch.isEmpty()) {
+                return copiedNow;
+            }
+
+            MeasurementBulkWriteService.BulkWriteReport report = measurementBulkWriteService.write(
+                    targetCollectionName, batch, MeasurementBulkWriteService.DuplicatePolicy.IGNORE);
+
+            BsonValue batchLastId = batch.get(batch.size() - 1).get("_id");
+            lastId = batchLastId.isObjectId() ? batchLastId.asObjectId().getValue() : batchLastId;
+            if (checkpoint == null) {
+                copiedNow += report.getInserted();
+                continue;
+            }
+            copied += batch.size();
+            copiedNow += batch.size();
+
+            checkpoint.put("lastId", lastId);
+            checkpoint.put("copied", copied);
+            migrations.replaceOne(eq("_id", checkpoint.get("_id")), checkpoint, new ReplaceOptions().upsert(true));
+            logger.info("Migration of '{}': {} documents copied ({})", measurementCollectionName, copied, report);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package it.unipi.lsmsd.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+
+import it.unipi.lsmsd.model.HourlyMeasurement;
+import it.unipi.lsmsd.model.MeasurementLayout;
+import it.unipi.lsmsd.repository.HourlyMeasurementRepository;
+import it.unipi.lsmsd.utility.MeasurementBucketUtility;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Repository-style access to the hourly measurements, independent of the configured
+ * {@link MeasurementLayout}: with {@code HOURLY} it delegates to {@link HourlyMeasurementRepository},
+ * with {@code DAILY_BUCKET} it reads the day buckets and expands them into {@link HourlyMeasurement}s.
+ */
+@Service
+public class MeasurementStorageService {
+
+    @Autowired
+    private HourlyMeasurementRepository hourlyMeasurementRepository;
+    @Autowired
+    private MeasurementCollectionService measurementCollectionService;
+
+    private final MongoCollection<Document> bucketCollection;
+    private final MeasurementLayout measurementLayout;
+
+    public MeasurementStorageService(
+            MongoClient mongoClient,
+            @Value("${spring.data.mongodb.database}") String databaseName,
+            @Value("${spring.mongo.measurement-collection}") String measurementCollectionName,
+            @Value("${spring.mongo.measurement-layout:HOURLY}") MeasurementLayout measurementLayout
+    ) {
+        this.bucketCollection = mongoClient.getDatabase(databaseName).getCollection(measurementCollectionName);
+        this.measurementLayout = measurementLayout;
+    }
+
+    public MeasurementLayout getMeasurementLayout() {
+        return measurementLayout;
+    }
+
+    /**
+     * Returns the measurements of a city in {@code [startTime, endTime]}, ordered by time.
+     */
+    public List<HourlyMeasurement> findByCityIdAndTimeBetween(String cityId, Date startTime, Date endTime) {
+        if (measurementLayout == MeasurementLayout.HOURLY) {
+            return hourlyMeasurementRepository.findByCityIdAndTimeBetweenOrderByTimeTimeAsc(cityId, startTime, endTime);
+        }
+
+        long from = startTime.getTime();
+        long to = endTime.getTime();
+        List<HourlyMeasurement> measurements = new ArrayList<>();
+        for (Document bucket : bucketCollection.find(and(
+                        eq("cityId", cityId),
+                        gte("day", new Date(MeasurementBucketUtility.dayOf(from))),
+                        lte("day", new Date(MeasurementBucketUtility.dayOf(to)))))
+                .sort(Sorts.ascending("day"))) {
+            measurements.addAll(MeasurementBucketUtility.toHourlyMeasurements(bucket, from, to));
+        }
+        return measurements;
+    }
+
+    /**
+     * Returns the oldest measurement of a city, if any.
+     */
+    public Optional<HourlyMeasurement> findFirstByCityId(String cityId) {
+        if (measurementLayout == MeasurementLayout.HOURLY) {
+            return hourlyMeasurementRepository.findFirstByCityIdOrderByTimeAsc(cityId);
+        }
+
+        // The first bucket may only hold cleared hours, so keep scanning until an hour is found
+        for (Document bucket : bucketCollection.find(eq("cityId", cityId)).sort(Sorts.ascending("day"))) {
+            List<HourlyMeasurement> measurements = MeasurementBucketUtility.toHourlyMeasurements(bucket, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (!measurements.isEmpty()) {
+                return Optional.of(measurements.get(0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Deletes the measurements of a city in {@code [startTime, endTime]}.
+     * <p>
+     * With buckets, the days fully inside the range are deleted, while the hours of the first and
+     * last day are cleared; a bucket left without any value is then removed.
+     *
+     * @throws IllegalStateException if the measurements are being migrated to a time-series collection
+     */
+    public void deleteByCityIdAndTimeBetween(String cityId, Date startTime, Date endTime) {
+        // Also refreshes the collection the repository resolves
+        measurementCollectionService.getWritableName();
+        if (measurementLayout == MeasurementLayout.HOURLY) {
+            hourlyMeasurementRepository.deleteByCityIdAndTimeBetween(cityId, startTime, endTime);
+            return;
+        }
+
+        long from = startTime.getTime();
+        long to = endTime.getTime();
+        if (to < from) {
+            return;
+        }
+        long firstDay = MeasurementBucketUtility.dayOf(from);
+        long lastDay = MeasurementBucketUtility.dayOf(to);
+
+        bucketCollection.deleteMany(and(eq("cityId", cityId), gt("day", new Date(firstDay)), lt("day", new Date(lastDay))));
+
+        // Hours of the boundary days, rounded inwards
+        long hour = MeasurementBucketUtility.HOUR_MILLIS;
+        int firstHour = (int) ((from - firstDay + hour - 1) / hour);
+        int lastHour = (int) ((to - lastDay) / hour);
+        if (firstDay == lastDay) {
+            clearHours(cityId, firstDay, firstHour, lastHour);
+        } else {
+            clearHours(cityId, firstDay, firstHour, MeasurementBucketUtility.HOURS_PER_DAY - 1);
+            clearHours(cityId, lastDay, 0, lastHour);
+        }
+
+        List<Bson> emptyBucket = new ArrayList<>();
+        for (String field : MeasurementBucketUtility.FIELDS) {
+            emptyBucket.add(new Document("daily." + field + ".count", 0));
+        }
+        bucketCollection.deleteMany(and(
+                eq("cityId", cityId),
+                in("day", new Date(firstDay), new Date(lastDay)),
+                and(emptyBucket)
+        ));
+    }
+
+    private void clearHours(String cityId, long day, int fromHour, int toHour) {
+        if (fromHour > toHour || fromHour >= MeasurementBucketUtility.HOURS_PER_DAY) {
+            return;
+        }
+        bucketCollection.updateOne(
+                and(eq("cityId", cityId), eq("day", new Date(day))),
+                MeasurementBucketUtility.clearHoursPipeline(fromHour, toHour)
+        );
+    }
+}
@@ -2,37 +2,63 @@ package it.unipi.lsmsd.service;
 
 import it.unipi.lsmsd.DTO.APIResponseDTO;
 import it.unipi.lsmsd.model.City;
+import it.unipi.lsmsd.model.CityBasicProjection;
 import it.unipi.lsmsd.repository.CityRepository;
-import it.unipi.lsmsd.utility.CityBucketResolver;
+import it.unipi.lsmsd.utility.ForecastCodec;
+import it.unipi.lsmsd.utility.ForecastKeyUtility;
+import it.unipi.lsmsd.utility.ISODateUtil;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
 import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
-import redis.clients.jedis.ConnectionPool;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ClusterPipeline;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisCluster;
-import redis.clients.jedis.params.ScanParams;
-import redis.clients.jedis.resps.ScanResult;
-
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 
 import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 public class RedisForecastService {
+    private static final Logger logger = LoggerFactory.getLogger(RedisForecastService.class);
+
     // Constant Jedis connection pool instance of Redis running on localhost and 
     // default Redis port 6379 to manage connections
     @Autowired
     private JedisCluster jedisCluster;
+    @Autowired
+    private ClusterConnectionProvider clusterConnectionProvider;
     private final ObjectMapper mapper = new ObjectMapper();
 
     @Autowired
@@ -41,10 +67,88 @@ public class RedisForecastService {
     @Autowired
     private DataHarvestService dataHarvestService;
 
+    @Autowired
+    private CitySpatialIndex citySpatialIndex;
+
+    @Autowired
+    private ForecastGridService forecastGridService;
+
+    @Autowired
+    private ForecastNearCache forecastNearCache;
+
+    @Autowired
+    private ForecastRegionAggregateService forecastRegionAggregateService;
+
     private static final double EARTH_RADIUS_KM = 6371.0;
 
     private static final int FORECAST_DAYS = 7;
 
+    // Generation of the forecasts currently served, and the counter of the generations
+    private static final String CURRENT_GENERATION_KEY = "forecast:current";
+    private static final String GENERATION_COUNTER_KEY = "forecast:generation";
+    // Set while a full refresh runs, to the generation it is writing; its expiry frees the key of a crashed refresh
+    private static final String REFRESH_KEY = "forecast:refresh";
+
+    // Moves the current generation forward only: returns the replaced generation, or -1 if ARGV[1] is not newer
+    private static final String FLIP_SCRIPT =
+            "local current = tonumber(redis.call('GET', KEYS[1]) or '0') "
+            + "if tonumber(ARGV[1]) > current then redis.call('SET', KEYS[1], ARGV[1]) return current end "
+            + "return -1";
+    // Deletes a key only while it holds the given value
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0";
+
+    // How long an old generation stays readable after the flip
+    @Value("${forecast.generation.grace:60s}")
+    private Duration generationGrace;
+    // How long the current generation is cached locally
+    @Value("${forecast.generation.cache:5s}")
+    private Duration generationCache;
+    // Longest full refresh: another one may start after it
+    @Value("${forecast.generation.refresh-timeout:30m}")
+    private Duration refreshTimeout;
+
+    // Whether new forecasts are written with ForecastCodec or as JSON; readers accept both
+    @Value("${forecast.binary-encoding:false}")
+    private boolean binaryEncoding;
+    // Version of the binary layout written; readers accept every version, so raise it once they all run a reader for it
+    @Value("${forecast.binary-version:1}")
+    private int binaryVersion;
+
+    // Cities used to interpolate the forecast of an arbitrary location
+    @Value("${forecast.interpolation.neighbours:8}")
+    private int neighbours;
+    @Value("${forecast.interpolation.radius-km:50}")
+    private double radiusKm;
+
+    // Forecasts missing from Redis are fetched from Open-Meteo on read
+    @Value("${forecast.read-through.enabled:true}")
+    private boolean readThroughEnabled;
+    @Value("${forecast.read-through.timeout:10s}")
+    private Duration readThroughTimeout;
+    @Value("${forecast.read-through.negative-ttl:30s}")
+    private Duration readThroughNegativeTtl;
+
+    // Fetches in progress by city, and recent failures (until System.nanoTime) by city or by "city:epochDay"
+    private final Map<String, CompletableFuture<Map<Long, HourlyMeasurementColumns>>> readThroughLoads = new ConcurrentHashMap<>();
+    private final Map<String, Long> readThroughFailures = new ConcurrentHashMap<>();
+    private static final int READ_THROUGH_FAILURES_PURGE = 10_000;
+
+    // Largest batch of cities read at once
+    @Value("${forecast.batch.max-cities:2000}")
+    private int batchMaxCities;
+
+    @Autowired
+    @Qualifier("redisReadExecutor")
+    private ExecutorService redisReadExecutor;
+
+    @Autowired
+    @Qualifier("forecastMaintenanceExecutor")
+    private ExecutorService forecastMaintenanceExecutor;
+
+    private volatile long cachedGeneration = -1;
+    private volatile long cachedGenerationAt;
+
     // <editor-fold desc="Utility functions">
 
     /**
@@ -73,7 +177,7 @@ public class RedisForecastService {
 
     // </editor-fold>
 
-    // <editor-fold desc="Direct access to redis (save and delete)">
+    // <editor-fold desc="Direct access to redis (save and generations)">
 
     /**
      * Retrieves the weather forecast for a specified city from the Open-Meteo API and stores it in Redis.
@@ -116,91 +220,363 @@ public class RedisForecastService {
         }
     }
 
+    /**
+     * Replaces the whole set of forecasts with a new generation, without any window where they are missing.
+     * <p>
+     * The forecasts are written under a new generation number, invisible to the readers; the cities whose
+     * forecast could not be refreshed keep their previous one, copied into the new generation, and so do the
+     * cities not listed (e.g. added meanwhile). Then the current generation pointer is moved forward, never
+     * back, by a compare-and-set script, and the keys of the replaced generation are set to expire after
+     * {@code forecast.generation.grace}, in the background: readers that resolved it just before the flip
+     * still find it. Nothing is bulk-deleted.
+     * The interpolated grid of {@link ForecastGridService} is rebuilt in the new generation as well.
+     * <p>
+     * Only one full refresh runs at a time, across all the instances: {@code forecast:refresh} holds the
+     * generation being written, for at most {@code forecast.generation.refresh-timeout}. Forecasts saved in
+     * place meanwhile are written in that generation too, see {@link #saveForecastsInPlace}.
+     *
+     * @param cities all the cities to refresh
+     * @return the ids of the cities whose forecast could not be refreshed (they keep the previous one, if any)
+     * @throws IllegalStateException if another full refresh is running
+     */
+    public List<String> refreshAllForecastsFromOpenMeteo(List<City> cities) {
+        long generation = jedisCluster.incr(GENERATION_COUNTER_KEY);
+        String refresh = String.valueOf(generation);
+        if (!"OK".equals(jedisCluster.set(REFRESH_KEY, refresh, new SetParams().nx().ex(refreshTimeout.toSeconds())))) {
+            throw new IllegalStateException("Forecast refresh already running");
+        }
+        try {
+            return refreshAllForecasts(cities, generation);
+        }
+        finally {
+            jedisCluster.eval(RELEASE_SCRIPT, List.of(REFRESH_KEY), List.of(refresh));
+        }
+    }
+
+    /**
+     * Whether a full refresh is running, on any instance.
+     */
+    public boolean isRefreshRunning() {
+        return jedisCluster.exists(REFRESH_KEY);
+    }
+
+    private List<String> refreshAllForecasts(List<City> cities, long generation) {
+        List<String> failed = new ArrayList<>();
+        List<HourlyMeasurementColumns> forecasts = fetchForecasts(cities, failed);
+
+        long previousGeneration = readCurrentGeneration();
+        failed.addAll(saveForecastsOrFail(forecasts, generation));
+        copyForecasts(failed, previousGeneration, generation, true);
+
+        // Cities not part of this refresh keep their forecast; not replaced, it may have been saved in place meanwhile
+        Set<String> cityIds = new LinkedHashSet<>();
+        cities.forEach(city -> cityIds.add(city.getId()));
+        List<String> otherCityIds = new ArrayList<>();
+        for (CityBasicProjection city : cityRepository.findAllBy()) {
+            if (!cityIds.contains(city.getId())) {
+                otherCityIds.add(city.getId());
+            }
+        }
+        copyForecasts(otherCityIds, previousGeneration, generation, false);
+        cityIds.addAll(otherCityIds);
+
+        // The cities that failed are left out of the grid, interpolated from the others
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try {
+            forecastGridService.build(forecasts, today, FORECAST_DAYS, generation);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Forecast grid not built: {}", e.getMessage());
+        }
+        try {
+            forecastRegionAggregateService.build(forecasts, today, FORECAST_DAYS, generation);
+        }
+        catch (JsonProcessingException | RuntimeException e) {
+            logger.warn("Region forecast aggregates not built: {}", e.getMessage());
+        }
+
+        // Flip, forward only: from now on the readers resolve the new generation
+        long replacedGeneration = (Long) jedisCluster.eval(FLIP_SCRIPT, List.of(CURRENT_GENERATION_KEY), List.of(String.valueOf(generation)));
+        if (replacedGeneration < 0) {
+            // A newer generation is already served (this refresh outlived its timeout): this one is dropped
+            logger.warn("Forecast generation {} not served, a newer one is current", generation);
+            expireGenerationAsync(new ArrayList<>(cityIds), today, generation);
+            return cities.stream().map(City::getId).toList();
+        }
+        cachedGeneration = generation;
+        cachedGenerationAt = System.nanoTime();
+        // The other instances switch at once, instead of within forecast.generation.cache
+        forecastNearCache.publishGeneration(generation);
+
+        expireGenerationAsync(new ArrayList<>(cityIds), today, replacedGeneration);
+        return failed;
+    }
+
+    // Lets all the keys of an old generation expire after the grace period, on the maintenance executor
+    private void expireGenerationAsync(List<String> cityIds, LocalDate today, long generation) {
+        Set<String> regionCodes = new HashSet<>();
+        cityIds.forEach(cityId -> regionCodes.add(cityId.substring(0, 3)));
+        CompletableFuture.runAsync(() -> {
+                    expireGeneration(cityIds, generation);
+                    forecastGridService.expireGeneration(today.minusDays(1), FORECAST_DAYS + 1, generation, generationGrace.toSeconds());
+                    forecastRegionAggregateService.expireGeneration(regionCodes, today.minusDays(1), FORECAST_DAYS + 1, generation, generationGrace.toSeconds());
+                }, forecastMaintenanceExecutor)
+                .exceptionally(e -> {
+                    logger.warn("Forecast generation {} not expired: {}", generation, e.getMessage());
+                    return null;
+                });
+    }
+
+    // Sends the forecast requests of all the batches at once, returns the retrieved forecasts and adds the failed cities
+    private List<HourlyMeasurementColumns> fetchForecasts(List<City> cities, List<String> failed) {
+        // Send the requests of all the batches at once, they complete on the pooled HTTP client
+        List<List<City>> batches = dataHarvestService.partitionIntoBatches(cities);
+        List<CompletableFuture<List<APIResponseDTO>>> pending = new ArrayList<>(batches.size());
+        for (List<City> batch : batches) {
+            double[] latitudes = new double[batch.size()];
+            double[] longitudes = new double[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                latitudes[i] = batch.get(i).getLatitude();
+                longitudes[i] = batch.get(i).getLongitude();
+            }
+            // Get Forecast of the whole batch from Open-Meteo
+            pending.add(dataHarvestService.getCitiesForecastAsync(latitudes, longitudes, 0, FORECAST_DAYS));
+        }
+
+        List<HourlyMeasurementColumns> forecasts = new ArrayList<>(cities.size());
+        for (int b = 0; b < batches.size(); b++) {
+            List<City> batch = batches.get(b);
+            List<APIResponseDTO> responses;
+            try {
+                responses = pending.get(b).join();
+            }
+            catch (Exception e) {
+                batch.forEach(city -> failed.add(city.getId()));
+                continue;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                String cityId = batch.get(i).getId();
+                try {
+                    HourlyMeasurementColumns columns = HourlyMeasurementColumns.fromDTO(responses.get(i).getHourly());
+                    columns.setCityId(cityId);
+                    forecasts.add(columns);
+                }
+                catch (Exception e) {
+                    failed.add(cityId);
+                }
+            }
+        }
+        return forecasts;
+    }
+
+    // Saves the forecasts of all the cities in Redis, with one pipeline per node; returns the failed cities
+    private List<String> saveForecastsOrFail(List<HourlyMeasurementColumns> forecasts, long generation) {
+        try {
+            return saveForecasts(forecasts, generation);
+        }
+        catch (JsonProcessingException e) {
+            return forecasts.stream().map(HourlyMeasurementColumns::getCityId).toList();
+        }
+    }
+
+    // Copies the forecasts of the given cities between two generations (same slot, so COPY is allowed)
+    private void copyForecasts(List<String> cityIds, long fromGeneration, long toGeneration, boolean replace) {
+        if (cityIds.isEmpty()) {
+            return;
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (String cityId : cityIds) {
+                for (int i = 0; i < FORECAST_DAYS; i++) {
+                    LocalDate day = today.plusDays(i);
+                    // The TTL is copied along with the value
+                    pipeline.copy(ForecastKeyUtility.forecastKey(cityId, day, fromGeneration),
+                            ForecastKeyUtility.forecastKey(cityId, day, toGeneration), replace);
+                }
+                pipeline.copy(ForecastKeyUtility.weekKey(cityId, today, fromGeneration),
+                        ForecastKeyUtility.weekKey(cityId, today, toGeneration), replace);
+            }
+            pipeline.sync();
+        }
+    }
+
+    // Lets the forecasts of an old generation expire after the grace period
+    private void expireGeneration(List<String> cityIds, long generation) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (String cityId : cityIds) {
+                // From yesterday, which may still exist right after midnight
+                for (int i = -1; i < FORECAST_DAYS; i++) {
+                    pipeline.expire(ForecastKeyUtility.forecastKey(cityId, today.plusDays(i), generation), generationGrace.toSeconds());
+                }
+                pipeline.expire(ForecastKeyUtility.weekKey(cityId, today, generation), generationGrace.toSeconds());
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Drops the interpolated grid of the current generation, which does not know the cities added after it was
+     * built: until the next full refresh, arbitrary locations are interpolated over the cities.
+     */
+    public void invalidateForecastGrid() {
+        forecastGridService.invalidate(LocalDate.now(ZoneOffset.UTC), FORECAST_DAYS, currentGeneration());
+    }
+
+    // Generation changes published by the other instances
+    @PostConstruct
+    private void listenToGenerationChanges() {
+        forecastNearCache.addGenerationListener(generation -> {
+            cachedGeneration = generation;
+            cachedGenerationAt = System.nanoTime();
+        });
+    }
+
+    /**
+     * Returns the generation of the forecasts currently served (0 for the keys written before generations
+     * were introduced). The value is cached for {@code forecast.generation.cache}, which must be shorter
+     * than {@code forecast.generation.grace}.
+     */
+    public long currentGeneration() {
+        if (cachedGeneration < 0 || System.nanoTime() - cachedGenerationAt > generationCache.toNanos()) {
+            return readCurrentGeneration();
+        }
+        return cachedGeneration;
+    }
+
+    // Reads the current generation from Redis, bypassing (and refreshing) the local cache
+    private long readCurrentGeneration() {
+        String current = jedisCluster.get(CURRENT_GENERATION_KEY);
+        long generation = current == null ? 0 : Long.parseLong(current);
+        cachedGeneration = generation;
+        cachedGenerationAt = System.nanoTime();
+        return generation;
+    }
+
+    /**
+     * Saves forecasts in place, so that a full refresh flipping the generation meanwhile does not lose them.
+     * <p>
+     * They are written in the current generation and in the one a full refresh is writing, if any; both are
+     * read again after the writes, which are repeated in the new generations if either changed.
+     *
+     * @return the ids of the cities whose forecast was not (completely) saved
+     */
+    private List<String> saveForecastsInPlace(List<HourlyMeasurementColumns> forecasts) throws JsonProcessingException {
+        Set<String> failed = new LinkedHashSet<>();
+        long current = readCurrentGeneration();
+        String refreshing = jedisCluster.get(REFRESH_KEY);
+        while (true) {
+            failed.addAll(saveForecasts(forecasts, current));
+            if (refreshing != null && Long.parseLong(refreshing) != current) {
+                failed.addAll(saveForecasts(forecasts, Long.parseLong(refreshing)));
+            }
+            long currentAfter = readCurrentGeneration();
+            String refreshingAfter = jedisCluster.get(REFRESH_KEY);
+            if (currentAfter == current && Objects.equals(refreshing, refreshingAfter)) {
+                return new ArrayList<>(failed);
+            }
+            current = currentAfter;
+            refreshing = refreshingAfter;
+        }
+    }
+
     /**
      * Splits an hourly forecast into separate daily forecasts and stores each one in Redis.
      * <p>
      * The input {@link HourlyMeasurementDTO} is divided based on the date portion of the timestamp,
-     * and each resulting daily forecast is serialized to JSON and saved under a Redis key following the format:
-     * {@code forecast:{cityId}:date}. Each entry is given a time-to-live (TTL) of 24 hours.
+     * and each resulting daily forecast is encoded with {@link ForecastCodec} and saved under a Redis key following the format:
+     * {@code forecast:{cityId}:date}. Each entry expires at the end of its day.
      *
      * @param dto the {@link HourlyMeasurementDTO} containing the full hourly forecast data to be persisted
      * @throws JsonProcessingException if an error occurs during the JSON serialization of any daily forecast
      */
     public void saveForecast(HourlyMeasurementDTO dto) throws JsonProcessingException {
-        // 1. Split input DTO into daily DTOs
-        Map<String, HourlyMeasurementDTO> dailyDTOs = new LinkedHashMap<>();
-        List<String> timeList = dto.getTime();
-        for (int i = 0; i < timeList.size(); i++) {
-            String dateTime = timeList.get(i);
-            String day = dateTime.split("T")[0];
-    
-            // Initialize DTO for the day if not already present
-            dailyDTOs.computeIfAbsent(day, d -> {
-                HourlyMeasurementDTO dayDTO = new HourlyMeasurementDTO();
-                dayDTO.setTime(new ArrayList<>());
-                dayDTO.setTemperature(new ArrayList<>());
-                dayDTO.setRain(new ArrayList<>());
-                dayDTO.setSnowfall(new ArrayList<>());
-                dayDTO.setWindspeed(new ArrayList<>());
-                return dayDTO;
-            });
-    
-            // Populate the daily DTO
-            HourlyMeasurementDTO dailyDTO = dailyDTOs.get(day);
-            dailyDTO.getTime().add(dateTime);
-            dailyDTO.getTemperature().add(dto.getTemperature().get(i));
-            dailyDTO.getRain().add(dto.getRain().get(i));
-            dailyDTO.getSnowfall().add(dto.getSnowfall().get(i));
-            dailyDTO.getWindspeed().add(dto.getWindspeed().get(i));
-        }
-    
-        // 2. Store each daily DTO in Redis
-        for (Map.Entry<String, HourlyMeasurementDTO> entry : dailyDTOs.entrySet()) {
-            String day = entry.getKey();
-            HourlyMeasurementDTO dayDTO = entry.getValue();
-            String redisKey = String.format("forecast:{%s}%s:%s",
-                    dto.getCityId().substring(0, 3), dto.getCityId().substring(3), day);
-            String json = mapper.writeValueAsString(dayDTO);
-    
-            jedisCluster.set(redisKey, json);                 // Save to Redis
+        saveForecast(HourlyMeasurementColumns.fromDTO(dto));
+    }
+
+    /**
+     * Splits a columnar hourly forecast into daily views and stores each one in Redis.
+     * <p>
+     * Same as {@link #saveForecast(HourlyMeasurementDTO)}: the days are slices over the same arrays,
+     * so no per-hour value is copied before being serialized.
+     *
+     * @param columns the columnar hourly forecast, with the {@code cityId} set
+     * @throws JsonProcessingException if an error occurs during the JSON serialization of any daily forecast
+     */
+    public void saveForecast(HourlyMeasurementColumns columns) throws JsonProcessingException {
+        if (!saveForecastsInPlace(List.of(columns)).isEmpty()) {
+            throw new IllegalStateException("Forecast of " + columns.getCityId() + " not saved");
         }
     }
 
     /**
-     * Deletes all forecast entries stored in Redis.
+     * Stores the daily forecasts of many cities at once, in the given generation.
      * <p>
-     * The method scans the Redis keyspace for all keys matching the pattern {@code forecast:*}
-     * and deletes them in batches. It uses a cursor-based scan to efficiently iterate through keys
-     * without blocking the Redis server.
+     * The writes are sent through a {@link ClusterPipeline}, which groups them by the node owning their
+     * slot: the whole batch costs about one round-trip per master node instead of one per day per city.
+     * Each daily forecast expires at the end of its day, see {@link ForecastKeyUtility#expireAt}, and is
+     * stored with {@link ForecastCodec} (or as JSON, when {@code forecast.binary-encoding} is off).
+     * When a forecast starts today, the gzipped JSON of its week is stored as well, already in the shape
+     * returned by {@link #get7DayForecast}, so that it can be served without being parsed.
+     *
+     * @param forecasts  the columnar hourly forecasts, each with its {@code cityId} set
+     * @param generation the generation the forecasts belong to
+     * @return the ids of the cities whose forecast was not (completely) saved
+     * @throws JsonProcessingException if an error occurs during the JSON serialization of any daily forecast
      */
-    public void deleteAllForecast() {
-        for (Map.Entry<String, ConnectionPool> entry : jedisCluster.getClusterNodes().entrySet()) {
-            String node = entry.getKey();
-            String[] hostPort = node.split(":");
-            String host = hostPort[0];
-            int port = Integer.parseInt(hostPort[1]);
-
-            try (Jedis jedis = new Jedis(host, port)) {
-                // solo sui nodi master
-                if (!jedis.info("replication").contains("role:master")) continue;
-
-                String cursor = ScanParams.SCAN_POINTER_START;
-                do {
-                    ScanParams params = new ScanParams().match("forecast:*").count(100);
-                    ScanResult<String> scanResult = jedis.scan(cursor, params);
-                    List<String> keys = scanResult.getResult();
-                    for (String key : keys) {
-                        jedis.del(key);  // safe DEL, one key at a time
+    public List<String> saveForecasts(List<HourlyMeasurementColumns> forecasts, long generation) throws JsonProcessingException {
+        Map<String, List<Response<String>>> responses = new LinkedHashMap<>();
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (HourlyMeasurementColumns columns : forecasts) {
+                String cityId = columns.getCityId();
+                List<Response<String>> cityResponses = new ArrayList<>();
+                List<HourlyMeasurementColumns> week = new ArrayList<>(FORECAST_DAYS);
+                for (HourlyMeasurementColumns dayColumns : columns.splitByDay()) {
+                    // The stored daily forecast doesn't repeat the cityId, which is already in the key
+                    dayColumns.setCityId(null);
+                    LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(dayColumns.getEpochHour(0), 24));
+                    if (!day.isBefore(today) && day.isBefore(today.plusDays(FORECAST_DAYS))) {
+                        week.add(dayColumns);
                     }
-                    cursor = scanResult.getCursor();
-
-                } while (!cursor.equals("0"));
+                    byte[] value = binaryEncoding ? ForecastCodec.encode(dayColumns, binaryVersion) : null;
+                    if (value == null) {
+                        value = mapper.writeValueAsBytes(dayColumns);
+                    }
+                    cityResponses.add(pipeline.set(SafeEncoder.encode(ForecastKeyUtility.forecastKey(cityId, day, generation)), value,
+                            new SetParams().exAt(ForecastKeyUtility.expireAt(day))));
+                }
+                // The week served by get7DayForecastGzip, valid until the end of today
+                if (!week.isEmpty() && Math.floorDiv(week.get(0).getEpochHour(0), 24) == today.toEpochDay()) {
+                    cityResponses.add(pipeline.set(SafeEncoder.encode(ForecastKeyUtility.weekKey(cityId, today, generation)),
+                            gzip(mapper.writeValueAsBytes(week)), new SetParams().exAt(ForecastKeyUtility.expireAt(today))));
+                }
+                responses.put(cityId, cityResponses);
             }
+            pipeline.sync();
+        }
+        catch (JedisException e) {
+            // A node could not be reached: the outcome of the single writes is unknown
+            return new ArrayList<>(responses.keySet());
+        }
 
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, List<Response<String>>> entry : responses.entrySet()) {
+            try {
+                entry.getValue().forEach(Response::get);
+            }
+            catch (JedisException e) {
+                failed.add(entry.getKey());
+            }
+        }
+        // Overwritten in place if this is the current generation: drop the near-cached values everywhere
+        if (generation == currentGeneration()) {
+            forecastNearCache.publishCities(responses.keySet());
         }
+        return failed;
     }
 
-
     // </editor-fold>
 
     // <editor-fold desc="Forecast functions">
@@ -210,119 +586,164 @@ public class RedisForecastService {
      * <p>
      * The method constructs the Redis key using the provided city ID and date,
      * then attempts to retrieve the corresponding forecast data.
-     * If the key does not exist in Redis, the method returns {@code null}.
+     * If the key does not exist in Redis, the forecast of the city is fetched from Open-Meteo and stored
+     * (once, however many readers are waiting for it).
      *
      * @param cityId the unique identifier of the city for which the forecast is requested
      * @param targetDate the {@link LocalDate} representing the day for which the forecast is desired (in UTC)
-     * @return a JSON-formatted string containing the forecast for the specified date, or {@code null} if the data is not present in Redis
+     * @return a JSON-formatted string containing the forecast for the specified date
      *
-     * @throws IllegalStateException If the get from redis returns an empty array
+     * @throws IllegalStateException If the forecast is neither in Redis nor available from Open-Meteo
      */
     public String getForecastTargetDay(String cityId, LocalDate targetDate){
 
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        // Outside the forecast days there is nothing stored and nothing to fetch
+        if (!isForecastDay(targetDate)) {
+            throw new IllegalStateException();
+        }
 
-        String redisKey = String.format("forecast:{%s}%s:%s",
-                cityId.substring(0, 3), cityId.substring(3), targetDate.format(formatter));
+        String redisKey = ForecastKeyUtility.forecastKey(cityId, targetDate, currentGeneration());
 
-        String redisString = jedisCluster.get(redisKey);
+        byte[] value = cachedGet(redisKey);
 
-        if (redisString == null || redisString.isEmpty()) {
-            throw new IllegalStateException();
+        if (value == null || value.length == 0) {
+            // Not refreshed yet (e.g. a new city or a flushed cache): fetched from Open-Meteo
+            HourlyMeasurementColumns day = readThrough(cityId, List.of(targetDate)).get(targetDate.toEpochDay());
+            if (day == null) {
+                throw new IllegalStateException();
+            }
+            try {
+                return mapper.writeValueAsString(day);
+            }
+            catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
         }
 
-        return redisString;
+        return ForecastCodec.toJson(value);
     }
 
     // Get full 7-day forecast
     public String get7DayForecast(String cityId) throws IOException {
 
-            //Define date format for Redis key (yyyy-MM-dd) and get current date
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd"); 
-            LocalDate currentDate = LocalDate.now();
+            // Get current date
+            LocalDate currentDate = LocalDate.now(ZoneOffset.UTC);
             
             // List to hold the 7-day forecast data
-            List<HourlyMeasurementDTO> allDaysData = new ArrayList<>();
+            List<HourlyMeasurementColumns> allDaysData = new ArrayList<>();
             List<String> redisKeys = new ArrayList<>();
+            long generation = currentGeneration();
     
             //Loop through the next 7 days (including today)
             for (int i = 0; i < 7; i++) {
-                String dayKey = currentDate.plusDays(i).format(formatter);  // Format the date for each day (e.g., "2025-03-15")
-                redisKeys.add(String.format("forecast:{%s}%s:%s", cityId.substring(0, 3), cityId.substring(3), dayKey));
+                redisKeys.add(ForecastKeyUtility.forecastKey(cityId, currentDate.plusDays(i), generation));
             }
 
-            List<String> results = jedisCluster.mget(redisKeys.toArray(new String[0]));
+            List<byte[]> results = cachedMget(redisKeys);
 
-            ObjectMapper mapper = new ObjectMapper();
+            // Some day is missing: the whole forecast is fetched from Open-Meteo, the days present are returned anyway
+            List<LocalDate> missingDays = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null || results.get(i).length == 0) {
+                    missingDays.add(currentDate.plusDays(i));
+                }
+            }
+            Map<Long, HourlyMeasurementColumns> fetched = missingDays.isEmpty() ? Map.of() : readThroughPartial(cityId, missingDays);
 
-            for (String json : results) {
-                if (json != null && !json.isEmpty()) {
+            for (int i = 0; i < results.size(); i++) {
+                byte[] value = results.get(i);
+                if (value != null && value.length > 0) {
                     try {
-                        HourlyMeasurementDTO dayData = mapper.readValue(json, HourlyMeasurementDTO.class);
-                        allDaysData.add(dayData);
+                        allDaysData.add(ForecastCodec.decode(value));
                     }
                     catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
+                else if (fetched.containsKey(currentDate.plusDays(i).toEpochDay())) {
+                    allDaysData.add(fetched.get(currentDate.plusDays(i).toEpochDay()));
+                }
             }
     
             // 11. Serialize the list of 7-day forecast data as a JSON array and return it
             return mapper.writeValueAsString(allDaysData);
     }
 
+    /**
+     * Returns the 7-day forecast of a city as gzipped JSON, the same JSON returned by {@link #get7DayForecast}.
+     * <p>
+     * The pre-rendered week stored by the last refresh is returned as is, with no parsing nor compression;
+     * when it is missing (e.g. after midnight, before the next refresh) the week is assembled from the daily
+     * forecasts and compressed.
+     *
+     * @param cityId the unique identifier of the city for which the forecast is requested
+     * @return the gzipped JSON array of the daily forecasts
+     * @throws IOException if the week cannot be assembled
+     */
+    public byte[] get7DayForecastGzip(String cityId) throws IOException {
+        byte[] week = cachedGet(ForecastKeyUtility.weekKey(cityId, LocalDate.now(ZoneOffset.UTC), currentGeneration()));
+        if (week != null && week.length > 0) {
+            return week;
+        }
+        return gzip(get7DayForecast(cityId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Compresses a rendered payload
+    public static byte[] gzip(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(payload);
+        } catch (IOException e) {
+            // Cannot happen writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Decompresses a payload for the clients that don't accept gzip
+    public static byte[] gunzip(byte[] payload) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            return gzip.readAllBytes();
+        }
+    }
+
     /**
      * Computes an estimated 24-hour weather forecast for an arbitrary geographic location on a specified date,
      * using a weighted interpolation of nearby cities' forecasts stored in Redis.
      * <p>
-     * The method normalizes the region name, retrieves a list of cities from Redis that belong to the given region,
-     * and calculates the forecast by weighting each city's data inversely by its distance from the target coordinates.
-     * The final forecast values are averaged using these weights. If no data is found for a city, it is skipped.
+     * The forecast is read from the precomputed {@link ForecastGridService} grid when available; otherwise the
+     * nearest {@code forecast.interpolation.neighbours} cities within {@code forecast.interpolation.radius-km}
+     * are taken from the {@link CitySpatialIndex}, regardless of their region, and their forecasts are read
+     * with one MGET per hash slot, all in a single pipeline. Both paths interpolate with the same scheme: each
+     * city's data is weighted inversely by its distance from the target coordinates and by its elevation
+     * difference from the reference elevation of the cities, and the temperature is then shifted from that
+     * reference to the requested elevation with the standard lapse rate. A city whose forecast of the day is
+     * missing is skipped and the weights of the others are normalised without it.
      *
-     * @param region the name of the region to which the surrounding cities belong
      * @param latitude the geographic latitude of the target location
      * @param longitude the geographic longitude of the target location
+     * @param elevation the elevation of the target location, in meters
      * @param targetDay the {@link LocalDate} (in UTC) for which the forecast is requested
      * @return a JSON-formatted string representing the 24-hour interpolated forecast for the specified location and date
      *
-     * @throws IllegalStateException If the hget from redis returns an empty array
+     * @throws IllegalStateException If no city is near enough, or none of them has the forecast of the day
      */
     public String getForecastArbitraryCityTargetDay(
-            String region,
             Double latitude,
             Double longitude,
             Double elevation,
             LocalDate targetDay
     ) throws IllegalStateException{
-        // Need to have first letter uppercase, last in lowercase
-        region = region.substring(0, 1).toUpperCase() + region.substring(1).toLowerCase();
-
-        String redisRegionKey = "region:{" + CityBucketResolver.getIdFromRegion(region) + "}";
-
-        List<City> targetCities = new ArrayList<>();
-        Set<String> cityKeys = jedisCluster.smembers(redisRegionKey);
-        for (String cityKey : cityKeys) {
-            Map<String, String> cityHash = jedisCluster.hgetAll(cityKey);
-
-            if (!cityHash.isEmpty()) {
-                City city = new City();
-                city.setName(cityHash.get("name"));
-                city.setRegion(cityHash.get("region"));
-                city.setId(cityKey.split(":")[1].substring(1, 4) + cityKey.split(":")[1].substring(5));
-
-                String[] parts = cityKey.split("-");
-                city.setLatitude(Double.parseDouble(parts[2]));
-                city.setLongitude(Double.parseDouble(parts[3]));
-
-                String elevationStr = cityHash.get("elevation");
-                if (elevationStr != null) {
-                    city.setElevation(Double.parseDouble(elevationStr));
-                } else {
-                    city.setElevation(0.0);
-                }
+        long generation = currentGeneration();
+        // Precomputed at refresh time: a bilinear read of four cells
+        double[][] gridValues = forecastGridService.lookup(latitude, longitude, elevation, targetDay, generation);
+        if (gridValues != null) {
+            return renderInterpolatedDay(targetDay, gridValues[0], gridValues[1], gridValues[2], gridValues[3]);
+        }
 
-                targetCities.add(city);
-            }
+        List<CitySpatialIndex.Neighbour> targetCities = citySpatialIndex.nearest(latitude, longitude, neighbours, radiusKm);
+        if (targetCities.isEmpty()) {
+            throw new IllegalStateException();
         }
 
         double[] rainSum = new double[24];
@@ -334,22 +755,16 @@ public class RedisForecastService {
         ObjectMapper mapper = new ObjectMapper();
         ArrayNode distancesArray = mapper.createArrayNode();
 
+        // Same scheme of the grid: weights relative to the reference elevation of the cities,
+        // then the temperature is shifted to the requested elevation
+        double referenceElevation = ForecastGridService.referenceElevation(targetCities);
+        double[] arrayWeight = ForecastGridService.weightsOf(targetCities, referenceElevation);
         List<String> redisKeys = new ArrayList<>();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        double[] arrayWeight = new double[targetCities.size()];
         int iter = 0;
-        for (City city : targetCities) {
-            double distance = haversine(latitude, longitude, city.getLatitude(), city.getLongitude());
-            double elevationDiff = Math.abs(elevation - city.getElevation());
-
-            // Normalizzing factors
-            double alpha = 1.0; // distance factor
-            double beta = 0.1; // elevation difference factor
-
-            double effectiveDistance = alpha * distance + beta * elevationDiff;
-            double weight = effectiveDistance == 0 ? 1000 : 1000 / effectiveDistance;
+        for (CitySpatialIndex.Neighbour city : targetCities) {
+            double distance = city.getDistanceKm();
+            double weight = arrayWeight[iter++];
             weightSum += weight;
-            arrayWeight[iter++] = weight;
 
             ObjectNode cityDistance = mapper.createObjectNode();
             cityDistance.put("city", city.getName());
@@ -359,40 +774,44 @@ public class RedisForecastService {
             cityDistance.put("weight", weight);
             distancesArray.add(cityDistance);
 
-            redisKeys.add(String.format(
-                    "forecast:{%s}%s:%s",
-                    city.getId().substring(0, 3), city.getId().substring(3), targetDay.format(formatter)));
+            redisKeys.add(ForecastKeyUtility.forecastKey(city.getId(), targetDay, generation));
         }
 
-        List<String> results = jedisCluster.mget(redisKeys.toArray(new String[0]));
-
-        if (results == null || results.isEmpty()) {
-            throw new IllegalStateException();
-        }
+        List<byte[]> results = cachedMget(redisKeys);
 
         iter = 0;
-        for (String result : results) {
+        for (byte[] result : results) {
+            double weight = arrayWeight[iter++];
+            // A neighbour without this day's forecast is left out, the others are reweighted
             if (result == null) {
-                throw new IllegalStateException();
+                weightSum -= weight;
+                continue;
             }
-            JsonNode root = null;
-            try {
-                root = mapper.readTree(result);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
-            }
-            double weight = arrayWeight[iter++];
+            HourlyMeasurementColumns day = ForecastCodec.decode(result);
 
             for (int i = 0; i < 24; i++) {
-                rainSum[i] += root.get("rain").get(i).asDouble() * weight;
-                snowSum[i] += root.get("snowfall").get(i).asDouble() * weight;
-                tempSum[i] += root.get("temperature_2m").get(i).asDouble() * weight;
-                windSum[i] += root.get("wind_speed_10m").get(i).asDouble() * weight;
+                rainSum[i] += valueOrZero(day.getRain(i)) * weight;
+                snowSum[i] += valueOrZero(day.getSnowfall(i)) * weight;
+                tempSum[i] += valueOrZero(day.getTemperature(i)) * weight;
+                windSum[i] += valueOrZero(day.getWindspeed(i)) * weight;
             }
         }
+        if (weightSum <= 0) {
+            throw new IllegalStateException("No forecast of the cities near " + latitude + ", " + longitude + " for " + targetDay);
+        }
 
-        // output formatting
+        double temperatureShift = ForecastGridService.temperatureShift(elevation, referenceElevation);
+        for (int i = 0; i < 24; i++) {
+            rainSum[i] /= weightSum;
+            snowSum[i] /= weightSum;
+            tempSum[i] = tempSum[i] / weightSum + temperatureShift;
+            windSum[i] /= weightSum;
+        }
+        return renderInterpolatedDay(targetDay, tempSum, rainSum, snowSum, windSum);
+    }
 
+    // Output formatting of an interpolated day
+    private String renderInterpolatedDay(LocalDate targetDay, double[] temperature, double[] rain, double[] snowfall, double[] windspeed) {
         ArrayNode timeArray = mapper.createArrayNode();
         ArrayNode rainArray = mapper.createArrayNode();
         ArrayNode snowArray = mapper.createArrayNode();
@@ -403,10 +822,10 @@ public class RedisForecastService {
         int startHour = 0;
 
         for (int i = startHour; i < 24; i++) {
-            rainArray.add(rainSum[i] / weightSum);
-            snowArray.add(snowSum[i] / weightSum);
-            tempArray.add(tempSum[i] / weightSum);
-            windArray.add(windSum[i] / weightSum);
+            rainArray.add(rain[i]);
+            snowArray.add(snowfall[i]);
+            tempArray.add(temperature[i]);
+            windArray.add(windspeed[i]);
 
             timeArray.add(targetDay + "T" + String.format("%02d:00", i));
         }
@@ -421,5 +840,466 @@ public class RedisForecastService {
         return result.toPrettyString();
     }
 
+    /**
+     * Fetches the forecast of a city from Open-Meteo and stores it in Redis, when it is missing.
+     * <p>
+     * Concurrent misses of the same city wait on the same fetch, so a flushed cache costs one upstream
+     * request per city and not one per reader. Only the days Open-Meteo can return are fetched, i.e. UTC
+     * today to today+6: other days are never requested upstream. A failed fetch is remembered for
+     * {@code forecast.read-through.negative-ttl}, during which the city fails at once, and so is a day
+     * the fetch did not return, which is not fetched again meanwhile.
+     *
+     * @param cityId the city whose forecast is missing
+     * @param days   the days (UTC) needed by the caller
+     * @return the daily forecasts by epoch day (possibly without some of the days), empty if read-through is disabled
+     * @throws IllegalStateException if the forecast could not be fetched
+     */
+    private Map<Long, HourlyMeasurementColumns> readThrough(String cityId, Collection<LocalDate> days) {
+        if (!readThroughEnabled) {
+            return Map.of();
+        }
+        Long failedUntil = readThroughFailures.get(cityId);
+        if (failedUntil != null) {
+            if (System.nanoTime() - failedUntil < 0) {
+                throw new IllegalStateException("Forecast of " + cityId + " recently unavailable");
+            }
+            readThroughFailures.remove(cityId, failedUntil);
+        }
+
+        // Days that the fetch can return and that it did not miss recently
+        List<Long> wanted = new ArrayList<>();
+        for (LocalDate day : days) {
+            String dayKey = cityId + ":" + day.toEpochDay();
+            Long missingUntil = readThroughFailures.get(dayKey);
+            if (missingUntil != null && System.nanoTime() - missingUntil < 0) {
+                continue;
+            }
+            if (missingUntil != null) {
+                readThroughFailures.remove(dayKey, missingUntil);
+            }
+            if (isForecastDay(day)) {
+                wanted.add(day.toEpochDay());
+            }
+        }
+        if (wanted.isEmpty()) {
+            return Map.of();
+        }
+
+        CompletableFuture<Map<Long, HourlyMeasurementColumns>> created = new CompletableFuture<>();
+        CompletableFuture<Map<Long, HourlyMeasurementColumns>> loading = readThroughLoads.putIfAbsent(cityId, created);
+        if (loading == null) {
+            loading = created;
+            loadForecast(cityId).whenComplete((loaded, error) -> {
+                if (error != null) {
+                    rememberFailure(cityId);
+                    created.completeExceptionally(error);
+                } else {
+                    created.complete(loaded);
+                }
+                readThroughLoads.remove(cityId, created);
+            });
+        }
+
+        Map<Long, HourlyMeasurementColumns> loaded;
+        try {
+            loaded = loading.get(readThroughTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Forecast of " + cityId + " not available", e);
+        }
+        // A day the fetch did not return would be fetched again by every request for it
+        for (long epochDay : wanted) {
+            if (!loaded.containsKey(epochDay)) {
+                rememberFailure(cityId + ":" + epochDay);
+            }
+        }
+        return loaded;
+    }
+
+    // Read-through of the reads spanning several days: if the fetch fails, the missing days are left out
+    // and the days already stored are still returned
+    private Map<Long, HourlyMeasurementColumns> readThroughPartial(String cityId, Collection<LocalDate> days) {
+        try {
+            return readThrough(cityId, days);
+        }
+        catch (IllegalStateException e) {
+            logger.debug("Forecast of {}: {} missing days left out ({})", cityId, days.size(), e.getMessage());
+            return Map.of();
+        }
+    }
+
+    // Whether a day (UTC) is one of the days of the forecast: today to today+6
+    private static boolean isForecastDay(LocalDate day) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        return !day.isBefore(today) && day.isBefore(today.plusDays(FORECAST_DAYS));
+    }
+
+    // Negative caching of a city or of a city day, the expired entries are dropped once the map grows
+    private void rememberFailure(String key) {
+        long now = System.nanoTime();
+        if (readThroughFailures.size() >= READ_THROUGH_FAILURES_PURGE) {
+            readThroughFailures.values().removeIf(until -> now - until >= 0);
+        }
+        readThroughFailures.put(key, now + readThroughNegativeTtl.toNanos());
+    }
+
+    // Fetches the forecast of a city and saves it in the current generation
+    private CompletableFuture<Map<Long, HourlyMeasurementColumns>> loadForecast(String cityId) {
+        Optional<City> city = cityRepository.findById(cityId);
+        if (city.isEmpty()) {
+            return CompletableFuture.failedFuture(new NoSuchElementException("City not found with id: " + cityId));
+        }
+        return dataHarvestService.getCityForecastAsync(city.get().getLatitude(), city.get().getLongitude(), 0, FORECAST_DAYS)
+                .thenApply(response -> {
+                    HourlyMeasurementColumns columns = HourlyMeasurementColumns.fromDTO(response.getHourly());
+                    columns.setCityId(cityId);
+                    try {
+                        if (!saveForecastsInPlace(List.of(columns)).isEmpty()) {
+                            logger.warn("Read-through forecast not saved: {}", cityId);
+                        }
+                    }
+                    catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    // saveForecasts cleared the cityId of the days
+                    Map<Long, HourlyMeasurementColumns> days = new HashMap<>();
+                    for (HourlyMeasurementColumns day : columns.splitByDay()) {
+                        days.put(Math.floorDiv(day.getEpochHour(0), 24), day);
+                    }
+                    return days;
+                });
+    }
+
+    /**
+     * Retrieves the daily forecasts of many cities over the same days, for map and list views.
+     * <p>
+     * All the keys are read at once, through the near cache and {@link #mgetBySlot}: one MGET per region,
+     * the cluster nodes in parallel. Days missing from Redis are left out (no read-through, which would
+     * mean one upstream request per missing city).
+     *
+     * @param cityIds   the cities, at most {@code forecast.batch.max-cities}
+     * @param startDate the first day (UTC)
+     * @param endDate   the last day (UTC, inclusive), at most 7 days after {@code startDate}
+     * @return a JSON object with, for each city id, the array of its daily forecasts
+     * @throws IllegalArgumentException if too many cities or days are requested, or a city id is not valid
+     */
+    public String getForecastsBatch(List<String> cityIds, LocalDate startDate, LocalDate endDate) throws JsonProcessingException {
+        int days = (int) (endDate.toEpochDay() - startDate.toEpochDay()) + 1;
+        if (cityIds.isEmpty() || cityIds.size() > batchMaxCities) {
+            throw new IllegalArgumentException("Between 1 and " + batchMaxCities + " cities can be requested at once");
+        }
+        if (days < 1 || days > FORECAST_DAYS) {
+            throw new IllegalArgumentException("Between 1 and " + FORECAST_DAYS + " days can be requested at once");
+        }
+        for (String cityId : cityIds) {
+            if (!ForecastKeyUtility.isValidCityId(cityId)) {
+                throw new IllegalArgumentException("Invalid city id: " + cityId);
+            }
+        }
+
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(cityIds));
+        List<String> redisKeys = new ArrayList<>(distinctIds.size() * days);
+        long generation = currentGeneration();
+        for (String cityId : distinctIds) {
+            for (int d = 0; d < days; d++) {
+                redisKeys.add(ForecastKeyUtility.forecastKey(cityId, startDate.plusDays(d), generation));
+            }
+        }
+
+        List<byte[]> results = cachedMget(redisKeys);
+
+        Map<String, List<HourlyMeasurementColumns>> forecasts = new LinkedHashMap<>();
+        for (int c = 0; c < distinctIds.size(); c++) {
+            List<HourlyMeasurementColumns> cityDays = new ArrayList<>(days);
+            for (int d = 0; d < days; d++) {
+                byte[] value = results.get(c * days + d);
+                if (value != null && value.length > 0) {
+                    cityDays.add(ForecastCodec.decode(value));
+                }
+            }
+            forecasts.put(distinctIds.get(c), cityDays);
+        }
+        return mapper.writeValueAsString(forecasts);
+    }
+
+    /**
+     * Returns the hourly min, max, mean and sum of every variable over the cities of a region on a day,
+     * as precomputed by the last full refresh (see {@link ForecastRegionAggregateService}).
+     *
+     * @param regionCode the region code, i.e. the first three characters of the ids of its cities
+     * @param targetDate the day (UTC)
+     * @return the JSON of the aggregates, as stored
+     * @throws IllegalStateException if the aggregates of that region and day are not available
+     */
+    public String getRegionForecastAggregates(String regionCode, LocalDate targetDate) {
+        byte[] value = cachedGet(ForecastKeyUtility.regionKey(regionCode, targetDate, currentGeneration()));
+        if (value == null || value.length == 0) {
+            throw new IllegalStateException();
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns some variables of the forecast of a city over a window of hours, e.g. the temperature of the
+     * next 6 hours.
+     * <p>
+     * When this instance writes version 2 values, only the requested bytes are read and decoded: for each day
+     * of the window, the header and the ranges of the requested variables are read with GETRANGE, all in one
+     * pipeline. The ranges are guessed from the typical layout (24 hours, all in hundredths) and checked against
+     * the header; a day with another layout (or stored as JSON) is read whole and sliced in memory, as is a day
+     * found in the near cache. Otherwise no value can hold ranges, so the days are read whole with a single MGET.
+     * A day not stored yet is fetched from Open-Meteo; if the fetch fails, its hours are left out of the result.
+     *
+     * @param cityId    the unique identifier of the city
+     * @param start     the first hour of the window (UTC)
+     * @param hours     the length of the window, at most 7 days
+     * @param variables the variables returned, among {@link ForecastCodec#FIELDS}
+     * @return a JSON object with the {@code time} array and one array per variable
+     * @throws IllegalArgumentException if a variable is unknown or the window is too long
+     */
+    public String getForecastSlice(String cityId, LocalDateTime start, int hours, List<String> variables) throws IOException {
+        if (hours < 1 || hours > FORECAST_DAYS * 24) {
+            throw new IllegalArgumentException("Between 1 and " + FORECAST_DAYS * 24 + " hours can be requested at once");
+        }
+        int[] fields = new int[variables.size()];
+        for (int f = 0; f < fields.length; f++) {
+            fields[f] = ForecastCodec.FIELDS.indexOf(variables.get(f));
+            if (fields[f] < 0) {
+                throw new IllegalArgumentException("Unknown variable " + variables.get(f) + ", expected one of " + ForecastCodec.FIELDS);
+            }
+        }
+
+        // Window of hours of each day: [fromHour, toHour)
+        long firstEpochHour = start.toEpochSecond(ZoneOffset.UTC) / 3600;
+        long endEpochHour = firstEpochHour + hours;
+        List<LocalDate> days = new ArrayList<>();
+        List<int[]> windows = new ArrayList<>();
+        for (long epochDay = Math.floorDiv(firstEpochHour, 24); epochDay * 24 < endEpochHour; epochDay++) {
+            days.add(LocalDate.ofEpochDay(epochDay));
+            windows.add(new int[] {
+                    (int) Math.max(0, firstEpochHour - epochDay * 24),
+                    (int) Math.min(24, endEpochHour - epochDay * 24) });
+        }
+
+        long generation = currentGeneration();
+        ForecastCodec.Slice[] slices = new ForecastCodec.Slice[days.size()];
+        List<Integer> remote = new ArrayList<>();
+        for (int d = 0; d < days.size(); d++) {
+            byte[] cached = forecastNearCache.get(ForecastKeyUtility.forecastKey(cityId, days.get(d), generation));
+            if (cached != null) {
+                slices[d] = ForecastCodec.slice(cached, fields, windows.get(d)[0], windows.get(d)[1]);
+            } else {
+                remote.add(d);
+            }
+        }
+
+        // Days read whole and sliced in memory, days not stored
+        List<Integer> whole = remote;
+        List<Integer> missing = new ArrayList<>();
+        // Ranges can only be read from version 2 values, so only once this instance writes them
+        if (!remote.isEmpty() && binaryEncoding && binaryVersion >= 2) {
+            whole = new ArrayList<>();
+            // Header and ranges of every day, in one round-trip (all the days of a city are in the same slot)
+            List<Response<byte[]>> headers = new ArrayList<>(remote.size());
+            List<List<Response<byte[]>>> ranges = new ArrayList<>(remote.size());
+            try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+                for (int d : remote) {
+                    byte[] key = SafeEncoder.encode(ForecastKeyUtility.forecastKey(cityId, days.get(d), generation));
+                    ForecastCodec.Layout typical = ForecastCodec.Layout.typical(days.get(d).toEpochDay());
+                    headers.add(pipeline.getrange(key, 0, ForecastCodec.HEADER_BYTES - 1));
+                    List<Response<byte[]>> dayRanges = new ArrayList<>(fields.length);
+                    for (int field : fields) {
+                        int[] range = typical.range(field, windows.get(d)[0], windows.get(d)[1]);
+                        // GETRANGE includes the end offset
+                        dayRanges.add(range[1] > range[0] ? pipeline.getrange(key, range[0], range[1] - 1) : null);
+                    }
+                    ranges.add(dayRanges);
+                }
+                pipeline.sync();
+            }
+
+            for (int r = 0; r < remote.size(); r++) {
+                int d = remote.get(r);
+                int[] window = windows.get(d);
+                byte[] header = headers.get(r).get();
+                ForecastCodec.Layout layout = ForecastCodec.Layout.of(header);
+                if (layout != null && layout.equals(ForecastCodec.Layout.typical(days.get(d).toEpochDay()))) {
+                    double[][] columns = new double[fields.length][];
+                    for (int f = 0; f < fields.length; f++) {
+                        Response<byte[]> range = ranges.get(r).get(f);
+                        columns[f] = range != null ? layout.readRange(range.get(), fields[f]) : new double[0];
+                    }
+                    slices[d] = new ForecastCodec.Slice(layout.epochHours(window[0], window[1]), columns);
+                } else if (header == null || header.length == 0) {
+                    missing.add(d);
+                } else {
+                    whole.add(d);
+                }
+            }
+        }
+
+        if (!whole.isEmpty()) {
+            // Another layout, an older version or JSON: the whole values, in a single read
+            List<String> keys = new ArrayList<>(whole.size());
+            for (int d : whole) {
+                keys.add(ForecastKeyUtility.forecastKey(cityId, days.get(d), generation));
+            }
+            List<byte[]> values = cachedMget(keys);
+            for (int w = 0; w < whole.size(); w++) {
+                int d = whole.get(w);
+                byte[] value = values.get(w);
+                if (value == null || value.length == 0) {
+                    missing.add(d);
+                } else {
+                    slices[d] = ForecastCodec.slice(value, fields, windows.get(d)[0], windows.get(d)[1]);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // Not refreshed yet: fetched from Open-Meteo, as by the other reads, with a single fetch
+            Map<Long, HourlyMeasurementColumns> fetched = readThroughPartial(cityId, missing.stream().map(days::get).toList());
+            for (int d : missing) {
+                HourlyMeasurementColumns day = fetched.get(days.get(d).toEpochDay());
+                if (day != null) {
+                    slices[d] = ForecastCodec.slice(mapper.writeValueAsBytes(day), fields, windows.get(d)[0], windows.get(d)[1]);
+                }
+            }
+        }
+
+        ObjectNode result = mapper.createObjectNode();
+        ArrayNode timeArray = result.putArray("time");
+        ArrayNode[] variableArrays = new ArrayNode[fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            variableArrays[f] = result.putArray(ForecastCodec.FIELDS.get(fields[f]));
+        }
+        for (ForecastCodec.Slice slice : slices) {
+            if (slice == null) {
+                continue;
+            }
+            for (int i = 0; i < slice.getEpochHours().length; i++) {
+                timeArray.add(ISODateUtil.formatEpochHour(slice.getEpochHours()[i]));
+                for (int f = 0; f < fields.length; f++) {
+                    double value = slice.getColumns()[f][i];
+                    if (Double.isNaN(value)) {
+                        variableArrays[f].addNull();
+                    } else {
+                        variableArrays[f].add(value);
+                    }
+                }
+            }
+        }
+        return mapper.writeValueAsString(result);
+    }
+
+    // Reads a key through the near cache
+    private byte[] cachedGet(String key) {
+        byte[] value = forecastNearCache.get(key);
+        if (value == null) {
+            long epoch = forecastNearCache.epoch();
+            value = jedisCluster.get(SafeEncoder.encode(key));
+            forecastNearCache.put(key, value, epoch);
+        }
+        return value;
+    }
+
+    // Reads keys through the near cache, the misses with one pipeline
+    private List<byte[]> cachedMget(List<String> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            byte[] value = forecastNearCache.get(key);
+            values.add(value);
+            if (value == null) {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return values;
+        }
+
+        long epoch = forecastNearCache.epoch();
+        List<byte[]> fetched = mgetBySlot(missing);
+        int m = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (values.get(i) == null) {
+                byte[] value = fetched.get(m++);
+                values.set(i, value);
+                forecastNearCache.put(keys.get(i), value, epoch);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads keys that may belong to different hash slots, where a single MGET is not allowed.
+     * <p>
+     * The keys are grouped by hash tag, one MGET per group; the groups are then split by the node owning
+     * their slot, and the nodes are read in parallel, one {@link ClusterPipeline} each. The whole read
+     * costs about one round-trip, however many nodes are involved.
+     *
+     * @return the values, in the order of the keys (null for the missing ones)
+     * @throws IllegalArgumentException if a key has no hash tag
+     */
+    private List<byte[]> mgetBySlot(List<String> keys) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            int open = key.indexOf('{');
+            int close = key.indexOf('}', open + 1);
+            if (open < 0 || close < 0) {
+                throw new IllegalArgumentException("Key without hash tag: " + key);
+            }
+            String tag = key.substring(open, close + 1);
+            groups.computeIfAbsent(tag, t -> new ArrayList<>()).add(i);
+        }
+
+        // Groups by owner node (null when the slot is not known yet, the pipeline will find it)
+        Map<HostAndPort, List<List<Integer>>> nodes = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            HostAndPort node = clusterConnectionProvider.getNode(JedisClusterCRC16.getSlot(group.getKey()));
+            nodes.computeIfAbsent(node, n -> new ArrayList<>()).add(group.getValue());
+        }
+
+        byte[][] values = new byte[keys.size()][];
+        if (nodes.size() == 1) {
+            mgetGroups(keys, nodes.values().iterator().next(), values);
+        } else {
+            List<CompletableFuture<Void>> reads = new ArrayList<>(nodes.size());
+            for (List<List<Integer>> nodeGroups : nodes.values()) {
+                reads.add(CompletableFuture.runAsync(() -> mgetGroups(keys, nodeGroups, values), redisReadExecutor));
+            }
+            CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).join();
+        }
+        return Arrays.asList(values);
+    }
+
+    // One MGET per group of keys with the same hash tag, in a single pipeline; each group writes its own values
+    private void mgetGroups(List<String> keys, List<List<Integer>> groups, byte[][] values) {
+        List<Response<List<byte[]>>> responses = new ArrayList<>(groups.size());
+        try (ClusterPipeline pipeline = new ClusterPipeline(clusterConnectionProvider)) {
+            for (List<Integer> group : groups) {
+                responses.add(pipeline.mget(group.stream().map(i -> SafeEncoder.encode(keys.get(i))).toArray(byte[][]::new)));
+            }
+            pipeline.sync();
+        }
+        for (int g = 0; g < groups.size(); g++) {
+            List<Integer> group = groups.get(g);
+            List<byte[]> groupValues = responses.get(g).get();
+            for (int j = 0; j < group.size(); j++) {
+                values[group.get(j)] = groupValues.get(j);
+            }
+        }
+    }
+
+    // Missing values count as zero, as null did in the JSON forecasts
+    private static double valueOrZero(double value) {
+        return Double.isNaN(value) ? 0 : value;
+    }
+
     // </editor-fold>
 }
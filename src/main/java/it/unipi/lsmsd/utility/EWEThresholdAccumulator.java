@@ -0,0 +1,108 @@
+package it.unipi.lsmsd.utility;
+
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.model.EWEThreshold;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes the EWE thresholds of a city incrementally, one chunk of measurements at a time.
+ * <p>
+ * For each variable it keeps the number of occurrences of every distinct value. Open-Meteo values
+ * have one or two decimals, so a multi-year series has only a few thousand distinct values and the
+ * memory used does not grow with the number of hours. The percentiles are exact and identical to
+ * {@link StatisticsUtility#getEweThresholdsFromMeasurements(HourlyMeasurementColumns, double)}
+ * computed over the whole series.
+ * <p>
+ * Not thread-safe: a single accumulator must be fed by one thread.
+ */
+public class EWEThresholdAccumulator {
+
+    private final ValueCounter temperature = new ValueCounter();
+    private final ValueCounter rain = new ValueCounter();
+    private final ValueCounter snowfall = new ValueCounter();
+    private final ValueCounter windspeed = new ValueCounter();
+
+    // Adds every non-NaN value of the chunk
+    public void accept(HourlyMeasurementColumns chunk) {
+        for (int i = 0; i < chunk.size(); i++) {
+            temperature.add(chunk.getTemperature(i));
+            rain.add(chunk.getRain(i));
+            snowfall.add(chunk.getSnowfall(i));
+            windspeed.add(chunk.getWindspeed(i));
+        }
+    }
+
+    /**
+     * Returns the thresholds of the values accepted so far, using symmetric percentiles.
+     *
+     * @param x The percentile value to use for threshold computation (e.g., 10 means 10th and 90th).
+     * @return An EWEThreshold instance populated with the computed percentile values.
+     * @throws IllegalArgumentException if x is not in [0, 50] or if any variable has no values.
+     */
+    public EWEThreshold getThresholds(double x) {
+        if (x < 0 || x > 50) {
+            throw new IllegalArgumentException("Percentile value X must be between 0 and 50");
+        }
+
+        Map<String, Map<String, Double>> percentiles = new LinkedHashMap<>();
+        percentiles.put("temperature", temperature.symmetricPercentiles(x));
+        percentiles.put("rain", rain.symmetricPercentiles(x));
+        percentiles.put("snowfall", snowfall.symmetricPercentiles(x));
+        percentiles.put("windspeed", windspeed.symmetricPercentiles(x));
+
+        return StatisticsUtility.fromPercentiles(percentiles);
+    }
+
+    // Sorted histogram of exact values
+    private static class ValueCounter {
+        private final TreeMap<Double, long[]> counts = new TreeMap<>();
+        private long total = 0;
+
+        void add(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            counts.computeIfAbsent(value, v -> new long[1])[0]++;
+            total++;
+        }
+
+        Map<String, Double> symmetricPercentiles(double x) {
+            Map<String, Double> percentiles = new HashMap<>();
+            percentiles.put("low", percentile(x));
+            percentiles.put("high", percentile(100 - x));
+            return percentiles;
+        }
+
+        // Same interpolation as StatisticsUtility over the sorted values
+        private Double percentile(double percentile) {
+            if (total == 0) return null;
+
+            double index = percentile / 100.0 * (total - 1);
+            long lowerIndex = (long) Math.floor(index);
+            long upperIndex = (long) Math.ceil(index);
+
+            double lower = valueAt(lowerIndex);
+            if (lowerIndex == upperIndex) {
+                return lower;
+            }
+            double weight = index - lowerIndex;
+            return lower * (1 - weight) + valueAt(upperIndex) * weight;
+        }
+
+        // Value at the given position of the sorted series
+        private double valueAt(long position) {
+            long seen = 0;
+            for (Map.Entry<Double, long[]> entry : counts.entrySet()) {
+                seen += entry.getValue()[0];
+                if (position < seen) {
+                    return entry.getKey();
+                }
+            }
+            return counts.lastKey();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package it.unipi.lsmsd.utility;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+/**
+ * Generates deterministic, plausible hourly weather for any coordinate and hour, in the shape of the
+ * Open-Meteo responses. Used by the fake Open-Meteo server for offline load tests.
+ * <p>
+ * Every value is a function of (latitude, longitude, hour) only, so the same request always gets the
+ * same data, and the archive and forecast endpoints agree on the hours they both cover:
+ * <ul>
+ *   <li>temperature: latitude and elevation baseline, seasonal and daily cycles, a daily anomaly and hourly noise;</li>
+ *   <li>precipitation: wet days with showers of exponential size, falling as snow below 0.5 °C;</li>
+ *   <li>wind speed: a daily level plus hourly gusts.</li>
+ * </ul>
+ */
+// Utility class so cannot be instantiated
+public final class FakeWeatherGenerator {
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    // Private constructor to prevent instantiation
+    private FakeWeatherGenerator() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Writes the response of one location for the hours {@code [firstEpochHour, lastEpochHour]}.
+     */
+    public static void writeResponse(JsonGenerator generator, double latitude, double longitude,
+                                     long firstEpochHour, long lastEpochHour) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("latitude", latitude);
+        generator.writeNumberField("longitude", longitude);
+        generator.writeNumberField("generationtime_ms", 0.1);
+        generator.writeNumberField("utc_offset_seconds", 0);
+        generator.writeStringField("timezone", "GMT");
+        generator.writeStringField("timezone_abbreviation", "GMT");
+        generator.writeNumberField("elevation", elevation(latitude, longitude));
+
+        generator.writeObjectFieldStart("hourly");
+        generator.writeArrayFieldStart("time");
+        for (long hour = firstEpochHour; hour <= lastEpochHour; hour++) {
+            generator.writeString(ISODateUtil.formatEpochHour(hour));
+        }
+        generator.writeEndArray();
+        writeColumn(generator, "temperature_2m", latitude, longitude, firstEpochHour, lastEpochHour, 0);
+        writeColumn(generator, "rain", latitude, longitude, firstEpochHour, lastEpochHour, 1);
+        writeColumn(generator, "snowfall", latitude, longitude, firstEpochHour, lastEpochHour, 2);
+        writeColumn(generator, "wind_speed_10m", latitude, longitude, firstEpochHour, lastEpochHour, 3);
+        generator.writeEndObject();
+
+        generator.writeEndObject();
+    }
+
+    private static void writeColumn(JsonGenerator generator, String name, double latitude, double longitude,
+                                    long firstEpochHour, long lastEpochHour, int field) throws IOException {
+        generator.writeArrayFieldStart(name);
+        for (long hour = firstEpochHour; hour <= lastEpochHour; hour++) {
+            double value = switch (field) {
+                case 0 -> temperature(latitude, longitude, hour);
+                case 1 -> rain(latitude, longitude, hour);
+                case 2 -> snowfall(latitude, longitude, hour);
+                default -> windSpeed(latitude, longitude, hour);
+            };
+            generator.writeNumber(value);
+        }
+        generator.writeEndArray();
+    }
+
+    // Elevation in meters, between 0 and 800
+    public static double elevation(double latitude, double longitude) {
+        return Math.round(800 * noise(latitude, longitude, 0, 0));
+    }
+
+    public static double temperature(double latitude, double longitude, long epochHour) {
+        Instant instant = Instant.ofEpochSecond(epochHour * 3600);
+        int dayOfYear = instant.atZone(ZoneOffset.UTC).getDayOfYear();
+        int hourOfDay = (int) Math.floorMod(epochHour, 24);
+        long day = Math.floorDiv(epochHour, 24);
+
+        double baseline = 30 - 0.35 * Math.abs(latitude) - 0.0065 * elevation(latitude, longitude);
+        // Coldest in mid-January in the northern hemisphere, mid-July in the southern one
+        double seasonal = -(4 + 0.12 * Math.abs(latitude)) * Math.cos(TWO_PI * (dayOfYear - 15) / 365.25) * Math.signum(latitude == 0 ? 1 : latitude);
+        // Coldest at 3, warmest at 15 UTC
+        double daily = -4 * Math.cos(TWO_PI * (hourOfDay - 3) / 24);
+        double anomaly = 6 * (noise(latitude, longitude, day, 1) - 0.5) + (noise(latitude, longitude, epochHour, 2) - 0.5);
+        return round(baseline + seasonal + daily + anomaly, 10);
+    }
+
+    public static double rain(double latitude, double longitude, long epochHour) {
+        double precipitation = precipitation(latitude, longitude, epochHour);
+        return precipitation > 0 && temperature(latitude, longitude, epochHour) >= 0.5 ? precipitation : 0;
+    }
+
+    // In centimeters, about 0.7 cm per millimeter of water
+    public static double snowfall(double latitude, double longitude, long epochHour) {
+        double precipitation = precipitation(latitude, longitude, epochHour);
+        return precipitation > 0 && temperature(latitude, longitude, epochHour) < 0.5 ? round(0.7 * precipitation, 100) : 0;
+    }
+
+    public static double windSpeed(double latitude, double longitude, long epochHour) {
+        long day = Math.floorDiv(epochHour, 24);
+        return round(3 + 12 * noise(latitude, longitude, day, 5) + 4 * noise(latitude, longitude, epochHour, 6), 10);
+    }
+
+    // Millimeters of water in the hour: 30% of the days are wet, with showers in 40% of their hours
+    private static double precipitation(double latitude, double longitude, long epochHour) {
+        long day = Math.floorDiv(epochHour, 24);
+        if (noise(latitude, longitude, day, 3) >= 0.3 || noise(latitude, longitude, epochHour, 4) >= 0.4) {
+            return 0;
+        }
+        return round(-Math.log(1 - noise(latitude, longitude, epochHour, 7)) * 1.5, 10);
+    }
+
+    // Uniform value in [0, 1), a function of its arguments only
+    private static double noise(double latitude, double longitude, long time, int salt) {
+        long h = Double.doubleToLongBits(latitude) * 0x9E3779B97F4A7C15L;
+        h ^= Double.doubleToLongBits(longitude) + 0x632BE59BD9B4E019L + (h << 6) + (h >>> 2);
+        h ^= time * 0xC2B2AE3D27D4EB4FL + salt;
+        // SplitMix64 finalizer
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private static double round(double value, int scale) {
+        return Math.round(value * scale) / (double) scale;
+    }
+}
@@ -0,0 +1,422 @@
+package it.unipi.lsmsd.utility;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary encoding of the daily forecasts stored in Redis, in place of the JSON of {@link HourlyMeasurementColumns}.
+ * <p>
+ * The layout is a header followed by one column per variable (temperature, rain, snowfall, wind speed):
+ * <pre>
+ * byte version, int epochDay, byte baseHour, byte hours, byte type[4],
+ * value[hours] x 4
+ * </pre>
+ * The hours are consecutive, from {@code baseHour} of {@code epochDay}. A column of type {@link #INT16} holds
+ * hundredths as shorts ({@link #NULL_INT16} for a missing value), exact for the one or two decimals returned by
+ * Open-Meteo; a column with some value that does not fit falls back to {@link #FLOAT32}. A full day takes
+ * 203 bytes, against about 700 of JSON, and is decoded without any parsing.
+ * <p>
+ * Since all the column types are in the header, the byte range of any variable over any hours follows from
+ * the header alone (see {@link Layout}): part of a day can be read with GETRANGE and decoded without touching
+ * the rest. Version 1 had the type in front of each column; it is still written until every instance
+ * reads version 2 (see {@link #encode(HourlyMeasurementColumns, int)}) and always decoded, but not sliced.
+ * <p>
+ * During the rollout Redis holds both formats: {@link #decode} tells them apart by the first byte, which is
+ * always {@code '{'} for JSON and never for the binary versions.
+ */
+// Utility class so cannot be instantiated
+public final class ForecastCodec {
+
+    public static final byte VERSION = 2;
+    public static final int HEADER_BYTES = 1 + 4 + 1 + 1 + 4;
+
+    // Variables, in the order of the columns, with their names in the JSON
+    public static final List<String> FIELDS = List.of("temperature_2m", "rain", "snowfall", "wind_speed_10m");
+
+    private static final byte VERSION_1 = 1;
+    private static final int HEADER_BYTES_1 = 1 + 4 + 1 + 1;
+    private static final byte INT16 = 1;
+    private static final byte FLOAT32 = 2;
+    private static final short NULL_INT16 = Short.MIN_VALUE;
+    private static final double SCALE = 100.0;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Private constructor to prevent instantiation
+    private ForecastCodec() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Encodes the forecast of a single day in the current version.
+     *
+     * @param day consecutive hours, all in the same UTC day
+     * @return the encoded value, or null if the hours are not consecutive within one day (to be stored as JSON)
+     */
+    public static byte[] encode(HourlyMeasurementColumns day) {
+        return encode(day, VERSION);
+    }
+
+    /**
+     * Encodes the forecast of a single day in the given version, so that a new version is written only once
+     * every reader decodes it.
+     *
+     * @param day     consecutive hours, all in the same UTC day
+     * @param version 1 or 2 ({@link #VERSION})
+     * @return the encoded value, or null if the hours are not consecutive within one day (to be stored as JSON)
+     * @throws IllegalArgumentException if the version is unknown
+     */
+    public static byte[] encode(HourlyMeasurementColumns day, int version) {
+        if (version != VERSION_1 && version != VERSION) {
+            throw new IllegalArgumentException("Unknown forecast encoding version " + version);
+        }
+        int hours = day.size();
+        if (hours == 0 || hours > 24) {
+            return null;
+        }
+        long firstEpochHour = day.getEpochHour(0);
+        for (int i = 1; i < hours; i++) {
+            if (day.getEpochHour(i) != firstEpochHour + i) {
+                return null;
+            }
+        }
+        int baseHour = (int) Math.floorMod(firstEpochHour, 24);
+        if (baseHour + hours > 24) {
+            return null;
+        }
+
+        double[][] columns = { day.copyTemperature(), day.copyRain(), day.copySnowfall(), day.copyWindspeed() };
+        byte[] types = new byte[columns.length];
+        int size = HEADER_BYTES;
+        for (int c = 0; c < columns.length; c++) {
+            types[c] = fitsInt16(columns[c]) ? INT16 : FLOAT32;
+            size += hours * widthOf(types[c]);
+        }
+
+        if (version == VERSION_1) {
+            return encodeVersion1(firstEpochHour, baseHour, hours, columns, types);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION).putInt((int) Math.floorDiv(firstEpochHour, 24)).put((byte) baseHour).put((byte) hours).put(types);
+        for (int c = 0; c < columns.length; c++) {
+            for (double value : columns[c]) {
+                if (types[c] == INT16) {
+                    buffer.putShort(Double.isNaN(value) ? NULL_INT16 : (short) Math.round(value * SCALE));
+                } else {
+                    buffer.putFloat((float) value);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a stored daily forecast, either binary or JSON.
+     *
+     * @throws IllegalArgumentException if the value is neither a known binary version nor valid JSON
+     */
+    public static HourlyMeasurementColumns decode(byte[] value) {
+        if (value.length > 0 && value[0] == '{') {
+            try {
+                return mapper.readValue(value, HourlyMeasurementColumns.class);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid JSON forecast", e);
+            }
+        }
+        if (value.length > 0 && value[0] == VERSION_1) {
+            return decodeVersion1(value);
+        }
+
+        Layout layout = Layout.of(value);
+        if (layout == null) {
+            throw new IllegalArgumentException("Unknown forecast encoding");
+        }
+        double[][] columns = new double[FIELDS.size()][];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = layout.read(value, field, 0, 24);
+        }
+        return new HourlyMeasurementColumns(layout.epochHours(0, 24), columns[0], columns[1], columns[2], columns[3]);
+    }
+
+    /**
+     * Decodes some variables of a stored daily forecast, over the hours in {@code [fromHour, toHour)} of its day.
+     * Only the requested bytes of a binary value are decoded.
+     *
+     * @param fields indexes in {@link #FIELDS} of the variables to decode
+     * @return the epoch hours found in the window, and one column per requested variable
+     */
+    public static Slice slice(byte[] value, int[] fields, int fromHour, int toHour) {
+        Layout layout = Layout.of(value);
+        if (layout != null) {
+            double[][] columns = new double[fields.length][];
+            for (int f = 0; f < fields.length; f++) {
+                columns[f] = layout.read(value, fields[f], fromHour, toHour);
+            }
+            return new Slice(layout.epochHours(fromHour, toHour), columns);
+        }
+
+        // JSON or version 1: whole day decoded, then cut
+        HourlyMeasurementColumns day = decode(value);
+        int from = 0;
+        while (from < day.size() && Math.floorMod(day.getEpochHour(from), 24) < fromHour) {
+            from++;
+        }
+        int to = from;
+        while (to < day.size() && Math.floorMod(day.getEpochHour(to), 24) < toHour) {
+            to++;
+        }
+        HourlyMeasurementColumns window = day.slice(from, to);
+        double[][] columns = new double[fields.length][];
+        for (int f = 0; f < fields.length; f++) {
+            columns[f] = switch (fields[f]) {
+                case 0 -> window.copyTemperature();
+                case 1 -> window.copyRain();
+                case 2 -> window.copySnowfall();
+                default -> window.copyWindspeed();
+            };
+        }
+        return new Slice(window.copyEpochHours(), columns);
+    }
+
+    /**
+     * Decodes a stored daily forecast and writes it as JSON, in the same shape of the JSON encoding.
+     */
+    public static String toJson(byte[] value) {
+        // Stored JSON is returned as is
+        if (value.length > 0 && value[0] == '{') {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+        try {
+            return mapper.writeValueAsString(decode(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Version 1: the type of each column in front of the column
+    private static byte[] encodeVersion1(long firstEpochHour, int baseHour, int hours, double[][] columns, byte[] types) {
+        int size = HEADER_BYTES_1;
+        for (byte type : types) {
+            size += 1 + hours * widthOf(type);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION_1).putInt((int) Math.floorDiv(firstEpochHour, 24)).put((byte) baseHour).put((byte) hours);
+        for (int c = 0; c < columns.length; c++) {
+            buffer.put(types[c]);
+            for (double value : columns[c]) {
+                if (types[c] == INT16) {
+                    buffer.putShort(Double.isNaN(value) ? NULL_INT16 : (short) Math.round(value * SCALE));
+                } else {
+                    buffer.putFloat((float) value);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static HourlyMeasurementColumns decodeVersion1(byte[] value) {
+        if (value.length < HEADER_BYTES_1) {
+            throw new IllegalArgumentException("Unknown forecast encoding");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        buffer.get();
+        long firstEpochHour = buffer.getInt() * 24L + buffer.get();
+        int hours = buffer.get();
+
+        long[] epochHours = new long[hours];
+        for (int i = 0; i < hours; i++) {
+            epochHours[i] = firstEpochHour + i;
+        }
+        try {
+            double[][] columns = new double[FIELDS.size()][hours];
+            for (double[] column : columns) {
+                byte type = buffer.get();
+                for (int i = 0; i < hours; i++) {
+                    column[i] = readValue(buffer, type);
+                }
+            }
+            return new HourlyMeasurementColumns(epochHours, columns[0], columns[1], columns[2], columns[3]);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Truncated forecast", e);
+        }
+    }
+
+    private static boolean fitsInt16(double[] column) {
+        for (double value : column) {
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            long scaled = Math.round(value * SCALE);
+            if (scaled <= NULL_INT16 || scaled > Short.MAX_VALUE || scaled / SCALE != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int widthOf(byte type) {
+        if (type == INT16) {
+            return 2;
+        }
+        if (type == FLOAT32) {
+            return 4;
+        }
+        throw new IllegalArgumentException("Unknown column type " + type);
+    }
+
+    private static double readValue(ByteBuffer buffer, byte type) {
+        if (type == INT16) {
+            short scaled = buffer.getShort();
+            return scaled == NULL_INT16 ? Double.NaN : scaled / SCALE;
+        }
+        if (type == FLOAT32) {
+            // Shortest decimal of the float, so 12.8f reads back as 12.8 and not 12.800000190734863
+            return Double.parseDouble(Float.toString(buffer.getFloat()));
+        }
+        throw new IllegalArgumentException("Unknown column type " + type);
+    }
+
+    /**
+     * Position of the columns in a version 2 value, as read from its header.
+     */
+    public static final class Layout {
+        private final long epochDay;
+        private final int baseHour;
+        private final int hours;
+        private final byte[] types;
+
+        private Layout(long epochDay, int baseHour, int hours, byte[] types) {
+            this.epochDay = epochDay;
+            this.baseHour = baseHour;
+            this.hours = hours;
+            this.types = types;
+        }
+
+        /**
+         * Reads the layout from the first {@link #HEADER_BYTES} bytes of a value.
+         *
+         * @return the layout, or null if the value is not a version 2 binary forecast
+         */
+        public static Layout of(byte[] header) {
+            if (header == null || header.length < HEADER_BYTES || header[0] != VERSION) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            buffer.get();
+            int epochDay = buffer.getInt();
+            int baseHour = buffer.get();
+            int hours = buffer.get();
+            byte[] types = new byte[FIELDS.size()];
+            buffer.get(types);
+            if (baseHour < 0 || hours < 0 || baseHour + hours > 24) {
+                return null;
+            }
+            for (byte type : types) {
+                if (type != INT16 && type != FLOAT32) {
+                    return null;
+                }
+            }
+            return new Layout(epochDay, baseHour, hours, types);
+        }
+
+        /**
+         * The layout of most days: 24 hours, all the columns in hundredths. Used to read a slice in the same
+         * round-trip of the header, then checked against the actual layout with {@link #equals}.
+         */
+        public static Layout typical(long epochDay) {
+            byte[] types = new byte[FIELDS.size()];
+            Arrays.fill(types, INT16);
+            return new Layout(epochDay, 0, 24, types);
+        }
+
+        /**
+         * Returns the byte range {@code [start, end)} of a variable over the hours in {@code [fromHour, toHour)}
+         * of the day, limited to the stored hours.
+         */
+        public int[] range(int field, int fromHour, int toHour) {
+            int from = Math.max(0, Math.min(hours, fromHour - baseHour));
+            int to = Math.max(from, Math.min(hours, toHour - baseHour));
+            int start = HEADER_BYTES;
+            for (int f = 0; f < field; f++) {
+                start += hours * widthOf(types[f]);
+            }
+            int width = widthOf(types[field]);
+            return new int[] { start + from * width, start + to * width };
+        }
+
+        /**
+         * Decodes a variable over the hours in {@code [fromHour, toHour)} of the day, from the whole value.
+         */
+        public double[] read(byte[] value, int field, int fromHour, int toHour) {
+            int[] range = range(field, fromHour, toHour);
+            if (range[1] > value.length) {
+                throw new IllegalArgumentException("Truncated forecast");
+            }
+            return readRange(ByteBuffer.wrap(value, range[0], range[1] - range[0]), field, range[1] - range[0]);
+        }
+
+        /**
+         * Decodes a variable from just the bytes of one of its {@link #range}s, as returned by GETRANGE.
+         */
+        public double[] readRange(byte[] bytes, int field) {
+            return readRange(ByteBuffer.wrap(bytes), field, bytes.length);
+        }
+
+        private double[] readRange(ByteBuffer buffer, int field, int length) {
+            double[] column = new double[length / widthOf(types[field])];
+            for (int i = 0; i < column.length; i++) {
+                column[i] = readValue(buffer, types[field]);
+            }
+            return column;
+        }
+
+        /**
+         * Returns the stored epoch hours among the hours in {@code [fromHour, toHour)} of the day.
+         */
+        public long[] epochHours(int fromHour, int toHour) {
+            int from = Math.max(0, Math.min(hours, fromHour - baseHour));
+            int to = Math.max(from, Math.min(hours, toHour - baseHour));
+            long[] epochHours = new long[to - from];
+            for (int i = 0; i < epochHours.length; i++) {
+                epochHours[i] = epochDay * 24 + baseHour + from + i;
+            }
+            return epochHours;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Layout other)) {
+                return false;
+            }
+            return epochDay == other.epochDay && baseHour == other.baseHour && hours == other.hours
+                    && Arrays.equals(types, other.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(epochDay) * 31 + baseHour) * 31 + hours;
+        }
+    }
+
+    // Some variables of a forecast over a window of hours, the columns in the order they were requested
+    public static final class Slice {
+        private final long[] epochHours;
+        private final double[][] columns;
+
+        public Slice(long[] epochHours, double[][] columns) {
+            this.epochHours = epochHours;
+            this.columns = columns;
+        }
+
+        public long[] getEpochHours() { return epochHours; }
+        public double[][] getColumns() { return columns; }
+    }
+}
@@ -0,0 +1,52 @@
+package it.unipi.lsmsd.utility;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Redis keys of the daily forecasts: {@code forecast:{reg}rest:yyyy-MM-dd}, where {@code reg} are the first
+ * three characters of the city id (its region code) and {@code rest} the remaining ones.
+ * Since forecasts are refreshed by generations, the key of generation {@code n > 0} has the {@code :gn} suffix.
+ * <p>
+ * The hash tag keeps all the forecasts of a region in the same slot, so they can be read together
+ * and written in a single pipeline per node.
+ */
+// Utility class so cannot be instantiated
+public final class ForecastKeyUtility {
+
+    // Private constructor to prevent instantiation
+    private ForecastKeyUtility() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    // Whether a city id fits in the keys: a three-character region code, at least one more character, and no braces
+    public static boolean isValidCityId(String cityId) {
+        return cityId != null && cityId.length() > 3 && cityId.indexOf('{') < 0 && cityId.indexOf('}') < 0;
+    }
+
+    public static String forecastKey(String cityId, LocalDate day) {
+        return "forecast:{" + cityId.substring(0, 3) + "}" + cityId.substring(3) + ":" + day;
+    }
+
+    // Key of a daily forecast of the given generation, generation 0 being the unversioned keys above
+    public static String forecastKey(String cityId, LocalDate day, long generation) {
+        return generation == 0 ? forecastKey(cityId, day) : forecastKey(cityId, day) + ":g" + generation;
+    }
+
+    // Key of the pre-rendered week starting on firstDay, in the same slot of the daily forecasts of the city
+    public static String weekKey(String cityId, LocalDate firstDay, long generation) {
+        String key = "forecast:{" + cityId.substring(0, 3) + "}" + cityId.substring(3) + ":week:" + firstDay;
+        return generation == 0 ? key : key + ":g" + generation;
+    }
+
+    // Key of the hourly aggregates of a region on a day, in the same slot of the forecasts of its cities
+    public static String regionKey(String regionCode, LocalDate day, long generation) {
+        String key = "forecast:{" + regionCode + "}:region:" + day;
+        return generation == 0 ? key : key + ":g" + generation;
+    }
+
+    // Expiration of a daily forecast (epoch seconds): the end of its UTC day, when it cannot be requested anymore
+    public static long expireAt(LocalDate day) {
+        return day.plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+    }
+}
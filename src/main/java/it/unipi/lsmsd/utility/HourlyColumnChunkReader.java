@@ -0,0 +1,169 @@
+package it.unipi.lsmsd.utility;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumnsDeserializer;
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the {@code hourly} object of an Open-Meteo response in fixed-size chunks of hours.
+ * <p>
+ * The response is column-major ({@code "time":[...], "temperature_2m":[...], ...}), so no row is complete
+ * before the last column is read. The source is parsed once, sequentially, and each column is spilled as
+ * it is read to a temporary file (8 bytes per hour and column); every chunk then reads its hours from the
+ * columns of that file. The heap used depends only on the chunk size, never on the length of the source.
+ * The temporary file is deleted on {@link #close()}.
+ */
+public class HourlyColumnChunkReader implements Closeable {
+
+    // Open-Meteo names of the value columns, in the order of HourlyMeasurementColumns
+    private static final String[] VALUE_COLUMNS = { "temperature_2m", "rain", "snowfall", "wind_speed_10m" };
+    private static final int SPILL_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel spill;
+    // Position in the spill file and number of values of each column (no time offset or no values when absent)
+    private long timeOffset = -1;
+    private int hours;
+    private final long[] valueOffsets = new long[VALUE_COLUMNS.length];
+    private final int[] valueLengths = new int[VALUE_COLUMNS.length];
+    private int position = 0;
+
+    public HourlyColumnChunkReader(JsonFactory jsonFactory, InputStreamSource source) throws IOException {
+        Path file = Files.createTempFile("hourly-", ".columns");
+        spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            spillColumns(jsonFactory, source);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next chunk of hours.
+     *
+     * @param maxHours maximum number of hours in the chunk
+     * @return the next hours, or an empty instance once the end of the columns is reached
+     * @throws IOException if the spilled columns cannot be read
+     */
+    public HourlyMeasurementColumns next(int maxHours) throws IOException {
+        int n = Math.min(hours - position, maxHours);
+
+        ByteBuffer buffer = read(timeOffset, n);
+        long[] epochHours = new long[n];
+        buffer.asLongBuffer().get(epochHours);
+
+        // NaN for a missing or shorter column, the extra values of a longer one are ignored
+        double[][] values = new double[VALUE_COLUMNS.length][];
+        for (int c = 0; c < VALUE_COLUMNS.length; c++) {
+            values[c] = new double[n];
+            int available = Math.max(0, Math.min(n, valueLengths[c] - position));
+            if (available > 0) {
+                read(valueOffsets[c], available).asDoubleBuffer().get(values[c], 0, available);
+            }
+            Arrays.fill(values[c], available, n, Double.NaN);
+        }
+
+        position += n;
+        return new HourlyMeasurementColumns(epochHours, values[0], values[1], values[2], values[3]);
+    }
+
+    // Parses the source once, appending every column of the hourly object to the spill file
+    private void spillColumns(JsonFactory jsonFactory, InputStreamSource source) throws IOException {
+        // Not closed: it would close the spill channel
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(spill), SPILL_BUFFER_BYTES));
+        long written = 0;
+
+        try (JsonParser parser = jsonFactory.createParser(source.getInputStream())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Open-Meteo response is not a JSON object");
+            }
+            if (!moveToField(parser, "hourly") || parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Open-Meteo response has no hourly object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                int column = Arrays.asList(VALUE_COLUMNS).indexOf(name);
+                if (!name.equals("time") && column < 0) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.START_ARRAY) {
+                    throw new IOException("Hourly column " + name + " is not an array");
+                }
+
+                long offset = written;
+                int length = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (column < 0) {
+                        out.writeLong(HourlyMeasurementColumnsDeserializer.epochHourOf(parser));
+                    } else {
+                        out.writeDouble(HourlyMeasurementColumnsDeserializer.valueOf(parser));
+                    }
+                    length++;
+                }
+                written += 8L * length;
+
+                if (column < 0) {
+                    timeOffset = offset;
+                    hours = length;
+                } else {
+                    valueOffsets[column] = offset;
+                    valueLengths[column] = length;
+                }
+            }
+        }
+        out.flush();
+
+        if (timeOffset < 0) {
+            throw new IOException("Open-Meteo response has no hourly time column");
+        }
+    }
+
+    // Reads n consecutive values of a column, starting from the current position
+    private ByteBuffer read(long columnOffset, int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * n);
+        long from = columnOffset + 8L * position;
+        while (buffer.hasRemaining()) {
+            if (spill.read(buffer, from + buffer.position()) < 0) {
+                throw new EOFException("Spilled hourly columns are truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Skips the fields of the current object until the given one, leaving the parser on its value
+    private static boolean moveToField(JsonParser parser, String field) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    // Deletes the spill file
+    @Override
+    public void close() throws IOException {
+        spill.close();
+    }
+}
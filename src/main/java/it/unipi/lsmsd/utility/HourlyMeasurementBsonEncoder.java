@@ -0,0 +1,149 @@
+package it.unipi.lsmsd.utility;
+
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Encodes Open-Meteo hourly columns straight into the BSON stored in the measurement collection
+// Utility class so cannot be instantiated
+public final class HourlyMeasurementBsonEncoder {
+
+    // Rough size of one encoded measurement, used to presize the output buffer
+    private static final int ESTIMATED_DOCUMENT_BYTES = 128;
+
+    // Private constructor to prevent instantiation
+    private HourlyMeasurementBsonEncoder() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Encodes every hour of the given DTO as a measurement document, without building
+     * {@link it.unipi.lsmsd.model.HourlyMeasurement} objects.
+     * <p>
+     * The produced documents have the same shape Spring Data writes for {@code HourlyMeasurement}
+     * ({@code cityId}, {@code time}, {@code temperature}, {@code rainfall}, {@code snowfall}, {@code windSpeed}),
+     * with null values omitted. All documents share a single backing byte array: each returned
+     * {@link RawBsonDocument} is a view over its own slice of it.
+     *
+     * @param dto the hourly columns, with the {@code cityId} already set
+     * @return the encoded documents, one per hour, in the order of {@code dto.getTime()}
+     */
+    public static List<RawBsonDocument> encode(HourlyMeasurementDTO dto) {
+        List<String> times = dto.getTime();
+        int size = times == null ? 0 : times.size();
+        return encode(dto, 0, size);
+    }
+
+    /**
+     * Encodes the hours in {@code [from, to)} of the given DTO as measurement documents.
+     *
+     * @param dto  the hourly columns, with the {@code cityId} already set
+     * @param from index of the first hour to encode (inclusive)
+     * @param to   index of the last hour to encode (exclusive)
+     * @return the encoded documents, one per hour
+     * @see #encode(HourlyMeasurementDTO)
+     */
+    public static List<RawBsonDocument> encode(HourlyMeasurementDTO dto, int from, int to) {
+        List<RawBsonDocument> documents = new ArrayList<>(Math.max(0, to - from));
+        if (to <= from) {
+            return documents;
+        }
+
+        String cityId = dto.getCityId();
+        List<String> times = dto.getTime();
+        List<Double> temperatures = dto.getTemperature();
+        List<Double> rains = dto.getRain();
+        List<Double> snowfalls = dto.getSnowfall();
+        List<Double> windSpeeds = dto.getWindspeed();
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer((to - from) * ESTIMATED_DOCUMENT_BYTES);
+        int[] offsets = new int[to - from + 1];
+
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            for (int i = from; i < to; i++) {
+                offsets[i - from] = buffer.getPosition();
+
+                writer.writeStartDocument();
+                writer.writeString("cityId", cityId);
+                writer.writeDateTime("time", ISODateUtil.getEpochMillis(times.get(i)));
+                writeDouble(writer, "temperature", temperatures, i);
+                writeDouble(writer, "rainfall", rains, i);
+                writeDouble(writer, "snowfall", snowfalls, i);
+                writeDouble(writer, "windSpeed", windSpeeds, i);
+                writer.writeEndDocument();
+            }
+            offsets[to - from] = buffer.getPosition();
+        }
+
+        // Slice the shared buffer, no copy per document
+        byte[] bytes = buffer.getInternalBuffer();
+        for (int i = 0; i < to - from; i++) {
+            documents.add(new RawBsonDocument(bytes, offsets[i], offsets[i + 1] - offsets[i]));
+        }
+        return documents;
+    }
+
+    /**
+     * Encodes every hour of the given columns as a measurement document.
+     * NaN values are omitted, like null values in {@link #encode(HourlyMeasurementDTO)}.
+     *
+     * @param columns the hourly columns, with the {@code cityId} already set
+     * @return the encoded documents, one per hour, in time order
+     */
+    public static List<RawBsonDocument> encode(HourlyMeasurementColumns columns) {
+        int size = columns.size();
+        List<RawBsonDocument> documents = new ArrayList<>(size);
+        if (size == 0) {
+            return documents;
+        }
+
+        String cityId = columns.getCityId();
+        BasicOutputBuffer buffer = new BasicOutputBuffer(size * ESTIMATED_DOCUMENT_BYTES);
+        int[] offsets = new int[size + 1];
+
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            for (int i = 0; i < size; i++) {
+                offsets[i] = buffer.getPosition();
+
+                writer.writeStartDocument();
+                writer.writeString("cityId", cityId);
+                writer.writeDateTime("time", columns.getEpochHour(i) * 3_600_000L);
+                writeDouble(writer, "temperature", columns.getTemperature(i));
+                writeDouble(writer, "rainfall", columns.getRain(i));
+                writeDouble(writer, "snowfall", columns.getSnowfall(i));
+                writeDouble(writer, "windSpeed", columns.getWindspeed(i));
+                writer.writeEndDocument();
+            }
+            offsets[size] = buffer.getPosition();
+        }
+
+        byte[] bytes = buffer.getInternalBuffer();
+        for (int i = 0; i < size; i++) {
+            documents.add(new RawBsonDocument(bytes, offsets[i], offsets[i + 1] - offsets[i]));
+        }
+        return documents;
+    }
+
+    private static void writeDouble(BsonBinaryWriter writer, String name, double value) {
+        if (!Double.isNaN(value)) {
+            writer.writeDouble(name, value);
+        }
+    }
+
+    // Writes the value at index i, skipping missing columns and null values
+    private static void writeDouble(BsonBinaryWriter writer, String name, List<Double> values, int i) {
+        if (values == null || i >= values.size()) {
+            return;
+        }
+        Double value = values.get(i);
+        if (value != null) {
+            writer.writeDouble(name, value);
+        }
+    }
+}
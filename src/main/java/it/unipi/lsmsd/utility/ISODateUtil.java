@@ -25,4 +25,93 @@ public final class ISODateUtil {
         // Convert Instant to java.util.Date
         return Date.from(instant);
     }
+
+    /**
+     * Returns the UTC epoch milliseconds of an Open-Meteo timestamp ({@code yyyy-MM-dd'T'HH:mm}).
+     * <p>
+     * Equivalent to {@code getISODate(time).getTime()}, but parses the fixed-width string directly,
+     * without allocating a formatter, a {@link LocalDateTime} or a {@link Date}. Intended for the
+     * bulk encoding paths that convert hundreds of thousands of timestamps.
+     *
+     * @param time the timestamp, e.g. {@code "2025-03-15T00:00"}
+     * @return the number of milliseconds since the epoch, interpreting {@code time} as UTC
+     * @throws IllegalArgumentException if the string is not in the expected format
+     */
+    public static long getEpochMillis(CharSequence time) {
+        if (time.length() != 16 || time.charAt(4) != '-' || time.charAt(7) != '-' || time.charAt(10) != 'T' || time.charAt(13) != ':') {
+            throw new IllegalArgumentException("Time not in yyyy-MM-dd'T'HH:mm format: " + time);
+        }
+        int year = digits(time, 0, 4);
+        int month = digits(time, 5, 7);
+        int day = digits(time, 8, 10);
+        int hour = digits(time, 11, 13);
+        int minute = digits(time, 14, 16);
+
+        return ((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60_000L;
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date (days-from-civil algorithm)
+    static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int digits(CharSequence s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Time not in yyyy-MM-dd'T'HH:mm format: " + s);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Formats an hour since the epoch as an Open-Meteo timestamp ({@code yyyy-MM-dd'T'HH:mm}, UTC).
+     * Inverse of {@link #getEpochMillis(CharSequence)} for whole hours.
+     *
+     * @param epochHour the number of hours since 1970-01-01T00:00 UTC
+     * @return the formatted timestamp, e.g. {@code "2025-03-15T00:00"}
+     */
+    public static String formatEpochHour(long epochHour) {
+        long epochDay = Math.floorDiv(epochHour, 24);
+        int hour = (int) Math.floorMod(epochHour, 24);
+
+        // civil-from-days, inverse of epochDay()
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] out = new char[16];
+        writeDigits(out, 0, year, 4);
+        out[4] = '-';
+        writeDigits(out, 5, month, 2);
+        out[7] = '-';
+        writeDigits(out, 8, day, 2);
+        out[10] = 'T';
+        writeDigits(out, 11, hour, 2);
+        out[13] = ':';
+        out[14] = '0';
+        out[15] = '0';
+        return new String(out);
+    }
+
+    private static void writeDigits(char[] out, int from, long value, int width) {
+        for (int i = from + width - 1; i >= from; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
 }
@@ -1,21 +1,28 @@
 package it.unipi.lsmsd.utility;
 
+import it.unipi.lsmsd.DTO.APIResponseColumnsDTO;
 import it.unipi.lsmsd.DTO.APIResponseDTO;
 import it.unipi.lsmsd.DTO.CityDTO;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
 import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
 import it.unipi.lsmsd.model.City;
 import it.unipi.lsmsd.model.HourlyMeasurement;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -34,6 +41,49 @@ public final class Mapper {
         return objectMapper.readValue(json, APIResponseDTO.class);
     }
 
+    // Extracts the responses of a multi-location request: a JSON array with one response per location,
+    // or a single object when only one location was requested
+    public static List<APIResponseDTO> mapAPIResponseList(String json) throws JsonProcessingException{
+        try (JsonParser parser = objectMapper.createParser(json)) {
+            return readAPIResponseList(parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // Not expected when reading from a String
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same as mapAPIResponseList(String), decoding while reading the given input: each response is
+    // mapped as soon as it is parsed, without materialising the body or a JSON tree
+    public static List<APIResponseDTO> mapAPIResponseList(InputStream json) throws IOException{
+        try (JsonParser parser = objectMapper.createParser(json)) {
+            return readAPIResponseList(parser);
+        }
+    }
+
+    private static List<APIResponseDTO> readAPIResponseList(JsonParser parser) throws IOException{
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_ARRAY) {
+            return List.of(objectMapper.readValue(parser, APIResponseDTO.class));
+        }
+        List<APIResponseDTO> responses = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            responses.add(objectMapper.readValue(parser, APIResponseDTO.class));
+        }
+        return responses;
+    }
+
+    // Extracts hourly weather data from the JSON string into primitive columns
+    public static APIResponseColumnsDTO mapAPIResponseColumns(String json) throws JsonProcessingException{
+        return objectMapper.readValue(json, APIResponseColumnsDTO.class);
+    }
+
+    // Extracts hourly weather data into primitive columns, streaming from the given input
+    public static APIResponseColumnsDTO mapAPIResponseColumns(InputStream json) throws IOException{
+        return objectMapper.readValue(json, APIResponseColumnsDTO.class);
+    }
+
     // Extracts list of cityDTO from the JSON string 
     public static List<CityDTO> mapCityList(String json) throws IOException{
         // Extract the "results" array from {  "results": [ { "id": 3170647, "name": "Pisa", ... }],"generationtime_ms": 2.6580095 }
@@ -43,6 +93,14 @@ public final class Mapper {
         return objectMapper.readerForListOf(CityDTO.class).readValue(resultsNode);
     }
 
+    // Extracts list of cityDTO, reading the given input
+    public static List<CityDTO> mapCityList(InputStream json) throws IOException{
+        JsonNode root = objectMapper.readTree(json);
+        JsonNode resultsNode = root.get("results");
+        // Map to the List of CityDTO
+        return objectMapper.readerForListOf(CityDTO.class).readValue(resultsNode);
+    }
+
     // Maps HourlyMeasurementDTO to List<HourlyMeasurement>
     public static List<HourlyMeasurement> mapHourlyMeasurement(HourlyMeasurementDTO dto) {
         List<HourlyMeasurement> measurements = new ArrayList<>();
@@ -70,6 +128,29 @@ public final class Mapper {
         return measurements;
     }
     
+    // Maps HourlyMeasurementColumns to List<HourlyMeasurement> (NaN values become null)
+    public static List<HourlyMeasurement> mapHourlyMeasurement(HourlyMeasurementColumns columns) {
+        List<HourlyMeasurement> measurements = new ArrayList<>(columns.size());
+
+        for (int i = 0; i < columns.size(); i++) {
+            HourlyMeasurement measurement = new HourlyMeasurement();
+
+            measurement.setCityId(columns.getCityId());
+            measurement.setTime(new Date(columns.getEpochHour(i) * 3_600_000L));
+            measurement.setTemperature(nullIfNaN(columns.getTemperature(i)));
+            measurement.setRainfall(nullIfNaN(columns.getRain(i)));
+            measurement.setSnowfall(nullIfNaN(columns.getSnowfall(i)));
+            measurement.setWindSpeed(nullIfNaN(columns.getWindspeed(i)));
+            measurements.add(measurement);
+        }
+
+        return measurements;
+    }
+
+    private static Double nullIfNaN(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
     // Maps List<HourlyMeasurement> to HourlyMeasurementDTO
     public static HourlyMeasurementDTO mapHourlyMeasurementDTO(List<HourlyMeasurement> hourlyMeasurements){
         HourlyMeasurementDTO hourlyMeasurementDTO = new HourlyMeasurementDTO();
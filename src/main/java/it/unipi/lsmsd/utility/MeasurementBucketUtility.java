@@ -0,0 +1,195 @@
+package it.unipi.lsmsd.utility;
+
+import it.unipi.lsmsd.model.HourlyMeasurement;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Helpers for the daily-bucket measurement layout.
+ * <p>
+ * A bucket holds the measurements of one city for one UTC day:
+ * <pre>
+ * { cityId, day: &lt;UTC midnight&gt;,
+ *   temperature: [24], rainfall: [24], snowfall: [24], windSpeed: [24],
+ *   daily: { temperature: { min, max, sum, count }, ... } }
+ * </pre>
+ * Slot {@code h} of every array is the hour {@code day + h}. A slot whose values are all null is an
+ * hour without measurements.
+ */
+// Utility class so cannot be instantiated
+public final class MeasurementBucketUtility {
+
+    public static final int HOURS_PER_DAY = 24;
+    public static final long HOUR_MILLIS = 3_600_000L;
+    public static final long DAY_MILLIS = HOURS_PER_DAY * HOUR_MILLIS;
+
+    // Measurement fields, with the same names used by HourlyMeasurement
+    public static final String[] FIELDS = { "temperature", "rainfall", "snowfall", "windSpeed" };
+
+    // Private constructor to prevent instantiation
+    private MeasurementBucketUtility() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    // UTC midnight of the day containing the given instant
+    public static long dayOf(long epochMillis) {
+        return Math.floorDiv(epochMillis, DAY_MILLIS) * DAY_MILLIS;
+    }
+
+    /**
+     * Builds the update pipeline that merges some hours into a bucket, creating it when missing.
+     *
+     * @param values    the new values, as {@code values[field][hour]}; null for a null measurement
+     * @param present   which hours of the day are written
+     * @param overwrite true to replace the stored values of the written hours, false to only fill the null ones
+     * @return the stages of the update pipeline
+     */
+    public static List<Bson> mergeHoursPipeline(Double[][] values, boolean[] present, boolean overwrite) {
+        Document merged = new Document();
+        for (int f = 0; f < FIELDS.length; f++) {
+            List<Object> slots = new ArrayList<>(HOURS_PER_DAY);
+            for (int h = 0; h < HOURS_PER_DAY; h++) {
+                Document stored = storedSlot(FIELDS[f], h);
+                if (!present[h]) {
+                    slots.add(stored);
+                } else if (overwrite || values[f][h] == null) {
+                    slots.add(overwrite ? values[f][h] : stored);
+                } else {
+                    slots.add(new Document("$ifNull", Arrays.asList(stored, values[f][h])));
+                }
+            }
+            merged.append(FIELDS[f], slots);
+        }
+        return Arrays.asList(new Document("$set", merged), dailyStatsStage());
+    }
+
+    /**
+     * Builds the update pipeline that clears the hours in {@code [fromHour, toHour]} of a bucket.
+     *
+     * @param fromHour first hour to clear (inclusive, 0-23)
+     * @param toHour   last hour to clear (inclusive, 0-23)
+     * @return the stages of the update pipeline
+     */
+    public static List<Bson> clearHoursPipeline(int fromHour, int toHour) {
+        Document cleared = new Document();
+        for (String field : FIELDS) {
+            Document inRange = new Document("$and", Arrays.asList(
+                    new Document("$gte", Arrays.asList("$$h", fromHour)),
+                    new Document("$lte", Arrays.asList("$$h", toHour))
+            ));
+            cleared.append(field, new Document("$map", new Document("input", hourRange())
+                    .append("as", "h")
+                    .append("in", new Document("$cond", Arrays.asList(inRange, null,
+                            new Document("$arrayElemAt", Arrays.asList(fieldOrEmpty(field), "$$h")))))));
+        }
+        return Arrays.asList(new Document("$set", cleared), dailyStatsStage());
+    }
+
+    // Recomputes the daily min, max, sum and count of non-null values of every field
+    public static Bson dailyStatsStage() {
+        Document daily = new Document();
+        for (String field : FIELDS) {
+            String path = "$" + field;
+            daily.append(field, new Document("min", new Document("$min", path))
+                    .append("max", new Document("$max", path))
+                    .append("sum", new Document("$sum", path))
+                    .append("count", new Document("$size", new Document("$filter", new Document("input", path)
+                            .append("cond", new Document("$ne", Arrays.asList("$$this", null)))))));
+        }
+        return new Document("$set", new Document("daily", daily));
+    }
+
+    /**
+     * Aggregation stages turning buckets into documents with the hourly shape
+     * ({@code cityId, time, temperature, rainfall, snowfall, windSpeed}), one per stored hour.
+     */
+    public static List<Bson> unwindToHourlyStages() {
+        Document hour = new Document("time", new Document("$add", Arrays.asList("$day",
+                new Document("$multiply", Arrays.asList("$$h", HOUR_MILLIS)))));
+        List<Document> anyValue = new ArrayList<>();
+        for (String field : FIELDS) {
+            hour.append(field, new Document("$arrayElemAt", Arrays.asList("$" + field, "$$h")));
+            anyValue.add(new Document(field, new Document("$ne", null)));
+        }
+
+        return Arrays.asList(
+                new Document("$project", new Document("_id", 0)
+                        .append("cityId", 1)
+                        .append("hours", new Document("$map", new Document("input", hourRange())
+                                .append("as", "h")
+                                .append("in", hour)))),
+                new Document("$unwind", "$hours"),
+                new Document("$replaceRoot", new Document("newRoot",
+                        new Document("$mergeObjects", Arrays.asList(new Document("cityId", "$cityId"), "$hours")))),
+                // Hours without any value were never written
+                new Document("$match", new Document("$or", anyValue))
+        );
+    }
+
+    /**
+     * Expands a bucket into the hourly measurements whose time is in {@code [fromMillis, toMillis]}.
+     * Hours without any value are skipped.
+     */
+    public static List<HourlyMeasurement> toHourlyMeasurements(Document bucket, long fromMillis, long toMillis) {
+        List<HourlyMeasurement> measurements = new ArrayList<>();
+        String cityId = bucket.getString("cityId");
+        long day = bucket.getDate("day").getTime();
+
+        List<?>[] columns = new List<?>[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            columns[f] = bucket.getList(FIELDS[f], Object.class);
+        }
+
+        for (int h = 0; h < HOURS_PER_DAY; h++) {
+            long time = day + h * HOUR_MILLIS;
+            if (time < fromMillis || time > toMillis) {
+                continue;
+            }
+            Double[] values = new Double[FIELDS.length];
+            boolean any = false;
+            for (int f = 0; f < FIELDS.length; f++) {
+                values[f] = slot(columns[f], h);
+                any |= values[f] != null;
+            }
+            if (!any) {
+                continue;
+            }
+
+            HourlyMeasurement measurement = new HourlyMeasurement();
+            measurement.setCityId(cityId);
+            measurement.setTime(new Date(time));
+            measurement.setTemperature(values[0]);
+            measurement.setRainfall(values[1]);
+            measurement.setSnowfall(values[2]);
+            measurement.setWindSpeed(values[3]);
+            measurements.add(measurement);
+        }
+        return measurements;
+    }
+
+    private static Double slot(List<?> column, int hour) {
+        if (column == null || hour >= column.size() || !(column.get(hour) instanceof Number number)) {
+            return null;
+        }
+        return number.doubleValue();
+    }
+
+    // Value currently stored in slot h, null on a new bucket
+    private static Document storedSlot(String field, int hour) {
+        return new Document("$arrayElemAt", Arrays.asList(fieldOrEmpty(field), hour));
+    }
+
+    private static Document fieldOrEmpty(String field) {
+        return new Document("$ifNull", Arrays.asList("$" + field, new ArrayList<>()));
+    }
+
+    private static Document hourRange() {
+        return new Document("$range", Arrays.asList(0, HOURS_PER_DAY));
+    }
+}
@@ -3,9 +3,13 @@ package it.unipi.lsmsd.utility;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.TimeSeriesGranularity;
+import com.mongodb.client.model.TimeSeriesOptions;
 
+import it.unipi.lsmsd.model.MeasurementLayout;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +36,10 @@ public class MongoInitializer implements CommandLineRunner {
     private String cityCollectionName;
     @Value("${spring.mongo.user-collection}")
     private String userCollectionName;
+    @Value("${spring.mongo.measurement-time-series:true}")
+    private boolean measurementTimeSeries;
+    @Value("${spring.mongo.measurement-layout:HOURLY}")
+    private MeasurementLayout measurementLayout;
 
     public MongoInitializer(MongoClient mongoClient) { this.mongoClient = mongoClient; }
 
@@ -52,10 +60,18 @@ public class MongoInitializer implements CommandLineRunner {
                         
             // Create Collection if not in DB
             if (!mongoCollectionList.contains(measurementCollectionName)) {
-                database.createCollection(measurementCollectionName);
-                // Create Unique index with cityId aand time
-                // Ordered in ascending order first by cityId and then by time
-                database.getCollection(measurementCollectionName).createIndex(Indexes.ascending("cityId", "time"),new IndexOptions().unique(true));
+                if (measurementLayout == MeasurementLayout.DAILY_BUCKET) {
+                    database.createCollection(measurementCollectionName);
+                    // One bucket per city per day
+                    database.getCollection(measurementCollectionName).createIndex(Indexes.ascending("cityId", "day"), new IndexOptions().unique(true));
+                } else if (measurementTimeSeries) {
+                    createMeasurementTimeSeriesCollection(database, measurementCollectionName);
+                } else {
+                    database.createCollection(measurementCollectionName);
+                    // Create Unique index with cityId aand time
+                    // Ordered in ascending order first by cityId and then by time
+                    database.getCollection(measurementCollectionName).createIndex(Indexes.ascending("cityId", "time"),new IndexOptions().unique(true));
+                }
                 // log
                 logger.info("MongoDB: Collection '" + measurementCollectionName + "' has been created");
 
@@ -80,4 +96,23 @@ public class MongoInitializer implements CommandLineRunner {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a native time-series collection for the hourly measurements:
+     * {@code time} is the time field, {@code cityId} the meta field and the granularity is hourly,
+     * so MongoDB groups the measurements of a city into compressed buckets.
+     * <p>
+     * Time-series collections don't support unique indexes: the secondary {@code (cityId, time)} index
+     * only serves the range scans, while duplicates are filtered out by {@code MeasurementBulkWriteService}.
+     *
+     * @param database the target database
+     * @param collectionName the name of the collection to create
+     */
+    public static void createMeasurementTimeSeriesCollection(MongoDatabase database, String collectionName) {
+        TimeSeriesOptions timeSeriesOptions = new TimeSeriesOptions("time")
+                .metaField("cityId")
+                .granularity(TimeSeriesGranularity.HOURS);
+        database.createCollection(collectionName, new CreateCollectionOptions().timeSeriesOptions(timeSeriesOptions));
+        database.getCollection(collectionName).createIndex(Indexes.ascending("cityId", "time"));
+    }
+}
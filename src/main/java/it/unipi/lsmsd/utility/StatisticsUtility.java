@@ -1,5 +1,6 @@
 package it.unipi.lsmsd.utility;
 
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
 import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
 import it.unipi.lsmsd.model.EWEThreshold;
 
@@ -28,6 +29,30 @@ public class StatisticsUtility {
         return fromPercentiles(percentiles);
     }
 
+    /**
+     * Computes an EWEThreshold object from the given columnar measurements using symmetric percentiles.
+     * Same as {@link #getEweThresholdsFromMeasurements(HourlyMeasurementDTO, double)}, with NaN values
+     * treated like null values and the percentiles computed on sorted primitive copies of the columns.
+     *
+     * @param columns The columnar hourly measurement data.
+     * @param x       The percentile value to use for threshold computation (e.g., 10 means 10th and 90th).
+     * @return An EWEThreshold instance populated with the computed percentile values.
+     * @throws IllegalArgumentException if x is not in [0, 50] or if any measurement column has no values.
+     */
+    public static EWEThreshold getEweThresholdsFromMeasurements(HourlyMeasurementColumns columns, double x) {
+        if (x < 0 || x > 50) {
+            throw new IllegalArgumentException("Percentile value X must be between 0 and 50");
+        }
+
+        Map<String, Map<String, Double>> percentiles = new LinkedHashMap<>();
+
+        percentiles.put("temperature", calculateSymmetricPercentiles(columns.copyTemperature(), x));
+        percentiles.put("rain", calculateSymmetricPercentiles(columns.copyRain(), x));
+        percentiles.put("snowfall", calculateSymmetricPercentiles(columns.copySnowfall(), x));
+        percentiles.put("windspeed", calculateSymmetricPercentiles(columns.copyWindspeed(), x));
+
+        return fromPercentiles(percentiles);
+    }
 
     /**
      * Computes the Xth and (100-X)th percentiles for each numerical parameter in the given HourlyMeasurementDTO.
@@ -72,6 +97,36 @@ public class StatisticsUtility {
         return percentiles;
     }
 
+    // Sorts the given array in place, ignoring NaN values (sorted after every number)
+    private static Map<String, Double> calculateSymmetricPercentiles(double[] data, double x) {
+        Map<String, Double> percentiles = new HashMap<>();
+
+        Arrays.sort(data);
+        int size = data.length;
+        while (size > 0 && Double.isNaN(data[size - 1])) {
+            size--;
+        }
+
+        percentiles.put("low", getPercentile(data, size, x));
+        percentiles.put("high", getPercentile(data, size, 100 - x));
+        return percentiles;
+    }
+
+    private static Double getPercentile(double[] sortedData, int size, double percentile) {
+        if (size == 0) return null;
+
+        double index = percentile / 100.0 * (size - 1);
+        int lowerIndex = (int) Math.floor(index);
+        int upperIndex = (int) Math.ceil(index);
+
+        if (lowerIndex == upperIndex) {
+            return sortedData[lowerIndex];
+        } else {
+            double weight = index - lowerIndex;
+            return sortedData[lowerIndex] * (1 - weight) + sortedData[upperIndex] * weight;
+        }
+    }
+
     private static Double getPercentile(List<Double> sortedData, double percentile) {
         if (sortedData.isEmpty()) return null;
 
@@ -97,7 +152,7 @@ public class StatisticsUtility {
      * @return A new instance of EWEThreshold populated with the selected percentiles.
      * @throws IllegalArgumentException if any required value is missing or null.
      */
-    private static EWEThreshold fromPercentiles(Map<String, Map<String, Double>> percentiles) {
+    static EWEThreshold fromPercentiles(Map<String, Map<String, Double>> percentiles) {
         double rainfall = enforceAbsMin(getValue(percentiles, "rain", "high"), RAINSTORM_ABS_LIMIT);
         double snowfall = enforceAbsMin(getValue(percentiles, "snowfall", "high"), SNOWSTORM_ABS_LIMIT);
         double windSpeed = enforceAbsMin(getValue(percentiles, "windspeed", "high"), HURRICANE_ABS_LIMIT);
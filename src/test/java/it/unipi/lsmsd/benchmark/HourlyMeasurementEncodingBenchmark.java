@@ -0,0 +1,126 @@
+package it.unipi.lsmsd.benchmark;
+
+import it.unipi.lsmsd.DTO.HourlyMeasurementDTO;
+import it.unipi.lsmsd.model.HourlyMeasurement;
+import it.unipi.lsmsd.utility.HourlyMeasurementBsonEncoder;
+import it.unipi.lsmsd.utility.Mapper;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the two ways of turning an Open-Meteo hourly response into measurement documents:
+ * <ul>
+ *     <li>old path: {@link Mapper#mapHourlyMeasurement(HourlyMeasurementDTO)}, then the Spring Data converter
+ *     and the driver codec, as {@code insertAll} did;</li>
+ *     <li>new path: {@link HourlyMeasurementBsonEncoder#encode(HourlyMeasurementDTO)}.</li>
+ * </ul>
+ * Not a unit test, so surefire does not run it. Run it after {@code mvn test-compile} with
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependency classpath&gt; it.unipi.lsmsd.benchmark.HourlyMeasurementEncodingBenchmark [hours]
+ * </pre>
+ * Results on 220,000 hours (one city, 25 years), OpenJDK 17.0.9, median of 5 rounds after warm-up, three runs:
+ * <pre>
+ * old path: 1222-1480 ms, 811 MB allocated
+ * encoder:   144-179 ms,  62 MB allocated
+ * </pre>
+ */
+public class HourlyMeasurementEncodingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int hours = args.length > 0 ? Integer.parseInt(args[0]) : 220_000;
+        HourlyMeasurementDTO dto = syntheticResponse("bologna-44.494-11.343", hours);
+
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        DocumentCodec codec = new DocumentCodec();
+
+        // Both paths must produce the same documents
+        List<RawBsonDocument> expected = oldPath(dto, converter, codec);
+        List<RawBsonDocument> actual = HourlyMeasurementBsonEncoder.encode(dto);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("The encoder output differs from the Spring Data documents");
+        }
+
+        System.out.printf("%d hours, %d rounds after %d warm-up rounds%n", hours, MEASURED_ROUNDS, WARMUP_ROUNDS);
+        measure("old path", () -> oldPath(dto, converter, codec));
+        measure("encoder ", () -> HourlyMeasurementBsonEncoder.encode(dto));
+    }
+
+    private static List<RawBsonDocument> oldPath(HourlyMeasurementDTO dto, MappingMongoConverter converter, DocumentCodec codec) {
+        List<HourlyMeasurement> measurements = Mapper.mapHourlyMeasurement(dto);
+        List<RawBsonDocument> documents = new ArrayList<>(measurements.size());
+        for (HourlyMeasurement measurement : measurements) {
+            Document document = new Document();
+            converter.write(measurement, document);
+            // The class hint is not part of the comparison: the encoder never writes it
+            document.remove("_class");
+            documents.add(new RawBsonDocument(document, codec));
+        }
+        return documents;
+    }
+
+    private static void measure(String name, Runnable body) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            body.run();
+        }
+
+        long[] millis = new long[MEASURED_ROUNDS];
+        long[] bytes = new long[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            body.run();
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+            bytes[i] = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        java.util.Arrays.sort(millis);
+        java.util.Arrays.sort(bytes);
+        System.out.printf("%s: %d ms, %d MB allocated (median)%n",
+                name, millis[MEASURED_ROUNDS / 2], bytes[MEASURED_ROUNDS / 2] / (1024 * 1024));
+    }
+
+    // Hourly columns shaped like an Open-Meteo archive response, with some missing snowfall values
+    private static HourlyMeasurementDTO syntheticResponse(String cityId, int hours) {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+        LocalDateTime time = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+        List<String> times = new ArrayList<>(hours);
+        List<Double> temperature = new ArrayList<>(hours);
+        List<Double> rain = new ArrayList<>(hours);
+        List<Double> snowfall = new ArrayList<>(hours);
+        List<Double> windspeed = new ArrayList<>(hours);
+        for (int i = 0; i < hours; i++) {
+            times.add(time.plusHours(i).format(format));
+            temperature.add(Math.round((12 + 10 * Math.sin(i / 24.0)) * 10) / 10.0);
+            rain.add(i % 7 == 0 ? 0.4 : 0.0);
+            snowfall.add(i % 11 == 0 ? null : 0.0);
+            windspeed.add((i % 40) / 2.0);
+        }
+
+        HourlyMeasurementDTO dto = new HourlyMeasurementDTO();
+        dto.setCityId(cityId);
+        dto.setTime(times);
+        dto.setTemperature(temperature);
+        dto.setRain(rain);
+        dto.setSnowfall(snowfall);
+        dto.setWindspeed(windspeed);
+        return dto;
+    }
+}
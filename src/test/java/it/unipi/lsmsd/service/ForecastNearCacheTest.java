@@ -0,0 +1,159 @@
+package it.unipi.lsmsd.service;
+
+import it.unipi.lsmsd.utility.ForecastKeyUtility;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForecastNearCacheTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 10, 18);
+    private static final String ROME = ForecastKeyUtility.forecastKey("ITArome", DAY, 3);
+    private static final String PARIS = ForecastKeyUtility.forecastKey("FRAparis", DAY, 3);
+
+    // No Redis: the subscription is simulated through the subscriber callbacks, and publishing fails
+    private static ForecastNearCache subscribedCache(int maxEntries, Duration ttl) {
+        ForecastNearCache cache = new ForecastNearCache(null, true, maxEntries, ttl);
+        cache.subscriber.onSubscribe(ForecastNearCache.CHANNEL, 1);
+        return cache;
+    }
+
+    private static byte[] value(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void bypassedUntilSubscribed() {
+        ForecastNearCache cache = new ForecastNearCache(null, true, 100, Duration.ofMinutes(10));
+
+        cache.put(ROME, value("rome"), cache.epoch());
+
+        assertFalse(cache.isActive());
+        assertNull(cache.get(ROME));
+        cache.subscriber.onSubscribe(ForecastNearCache.CHANNEL, 1);
+        assertNull(cache.get(ROME));
+    }
+
+    @Test
+    void returnsTheValuesPut() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+
+        cache.put(ROME, value("rome"), cache.epoch());
+
+        assertArrayEquals(value("rome"), cache.get(ROME));
+        assertNull(cache.get(PARIS));
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    void valueReadBeforeAnInvalidationIsNotCached() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+
+        long readEpoch = cache.epoch();
+        // The city is overwritten while its old value is in flight from Redis
+        cache.subscriber.onMessage(ForecastNearCache.CHANNEL, "city:ITArome");
+        cache.put(ROME, value("stale"), readEpoch);
+
+        assertNull(cache.get(ROME));
+        cache.put(ROME, value("fresh"), cache.epoch());
+        assertArrayEquals(value("fresh"), cache.get(ROME));
+    }
+
+    @Test
+    void anyInvalidationMovesTheEpoch() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+
+        long readEpoch = cache.epoch();
+        // An invalidation of another city still rejects the values read before it
+        cache.subscriber.onMessage(ForecastNearCache.CHANNEL, "city:FRAparis");
+        cache.put(ROME, value("rome"), readEpoch);
+
+        assertNull(cache.get(ROME));
+        assertTrue(cache.epoch() > readEpoch);
+    }
+
+    @Test
+    void cityInvalidationDropsOnlyThatCity() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+        String romeWeek = ForecastKeyUtility.weekKey("ITArome", DAY, 3);
+        cache.put(ROME, value("rome"), cache.epoch());
+        cache.put(romeWeek, value("week"), cache.epoch());
+        cache.put(PARIS, value("paris"), cache.epoch());
+
+        cache.subscriber.onMessage(ForecastNearCache.CHANNEL, "city:ITArome");
+
+        assertNull(cache.get(ROME));
+        assertNull(cache.get(romeWeek));
+        assertArrayEquals(value("paris"), cache.get(PARIS));
+    }
+
+    @Test
+    void generationChangeNotifiesWithoutDropping() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+        AtomicLong generation = new AtomicLong();
+        cache.addGenerationListener(generation::set);
+        cache.put(ROME, value("rome"), cache.epoch());
+        long readEpoch = cache.epoch();
+
+        cache.subscriber.onMessage(ForecastNearCache.CHANNEL, "generation:4");
+
+        assertEquals(4, generation.get());
+        assertEquals(readEpoch, cache.epoch());
+        assertArrayEquals(value("rome"), cache.get(ROME));
+    }
+
+    @Test
+    void failedPublishDropsTheLocalEntries() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+        long readEpoch = cache.epoch();
+        cache.put(ROME, value("rome"), readEpoch);
+
+        cache.publishCities(List.of("FRAparis"));
+
+        assertNull(cache.get(ROME));
+        assertTrue(cache.epoch() > readEpoch);
+    }
+
+    @Test
+    void resubscribingDropsEverything() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ofMinutes(10));
+        cache.put(ROME, value("rome"), cache.epoch());
+
+        cache.subscriber.onSubscribe(ForecastNearCache.CHANNEL, 1);
+
+        assertNull(cache.get(ROME));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        ForecastNearCache cache = subscribedCache(2, Duration.ofMinutes(10));
+        String milan = ForecastKeyUtility.forecastKey("ITAmilan", DAY, 3);
+        cache.put(ROME, value("rome"), cache.epoch());
+        cache.put(PARIS, value("paris"), cache.epoch());
+        cache.get(ROME);
+
+        cache.put(milan, value("milan"), cache.epoch());
+
+        assertNotNull(cache.get(ROME));
+        assertNull(cache.get(PARIS));
+        assertNotNull(cache.get(milan));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+
+    @Test
+    void expiredEntriesAreMisses() {
+        ForecastNearCache cache = subscribedCache(100, Duration.ZERO);
+
+        cache.put(ROME, value("rome"), cache.epoch());
+
+        assertNull(cache.get(ROME));
+        assertEquals(0, cache.getStats().getSize());
+    }
+}
@@ -0,0 +1,189 @@
+package it.unipi.lsmsd.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HarvestSchedulerTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private HarvestScheduler scheduler(double requestsPerSecond, double burst, int initialLimit, int minLimit,
+                                       Duration latencyThreshold, Duration decreaseCooldown) {
+        return new HarvestScheduler(executor, requestsPerSecond, burst, initialLimit, minLimit, 64, 0.5,
+                latencyThreshold, decreaseCooldown);
+    }
+
+    private static List<CompletableFuture<HarvestScheduler.Permit>> acquire(HarvestScheduler scheduler, int requests) {
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            permits.add(scheduler.acquire());
+        }
+        return permits;
+    }
+
+    private static long granted(List<CompletableFuture<HarvestScheduler.Permit>> permits) {
+        return permits.stream().filter(CompletableFuture::isDone).count();
+    }
+
+    @Test
+    void burstBoundsTheRequestsStartedAtOnce() {
+        // One token per minute: nothing is refilled during the test
+        HarvestScheduler scheduler = scheduler(1 / 60.0, 3, 10, 1, Duration.ofSeconds(4), Duration.ofSeconds(1));
+
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = acquire(scheduler, 5);
+
+        assertEquals(3, granted(permits));
+        assertEquals(2, scheduler.getStatus().getQueued());
+        assertTrue(scheduler.getStatus().getAvailableTokens() < 1);
+    }
+
+    @Test
+    void tokensAreRefilledAtTheConfiguredRate() throws Exception {
+        HarvestScheduler scheduler = scheduler(20, 1, 10, 1, Duration.ofSeconds(4), Duration.ofSeconds(1));
+
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = acquire(scheduler, 2);
+        assertEquals(1, granted(permits));
+
+        // The next token comes after about 50 ms, through the scheduled dispatch
+        assertNotNull(permits.get(1).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void limitBoundsTheRequestsInFlight() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 2, 1, Duration.ofSeconds(4), Duration.ofSeconds(1));
+
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = acquire(scheduler, 4);
+        assertEquals(2, granted(permits));
+        assertEquals(2, scheduler.getStatus().getInFlight());
+
+        permits.get(0).join().release(HarvestScheduler.Outcome.IGNORED);
+
+        assertEquals(3, granted(permits));
+        assertEquals(1, scheduler.getStatus().getQueued());
+    }
+
+    @Test
+    void limitGrowsByAboutOneEveryLimitSuccesses() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 4, 1, Duration.ofSeconds(4), Duration.ofSeconds(1));
+
+        // 4 + 1/4 + 1/4.25 + ... crosses 5 at the fifth success
+        for (CompletableFuture<HarvestScheduler.Permit> permit : acquire(scheduler, 4)) {
+            permit.join().release(HarvestScheduler.Outcome.SUCCESS);
+        }
+        assertEquals(4, scheduler.getStatus().getLimit());
+
+        scheduler.acquire().join().release(HarvestScheduler.Outcome.SUCCESS);
+        assertEquals(5, scheduler.getStatus().getLimit());
+    }
+
+    @Test
+    void overloadCutsTheLimitOncePerCooldown() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 8, 1, Duration.ofSeconds(4), Duration.ofHours(1));
+
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = acquire(scheduler, 3);
+        permits.get(0).join().release(HarvestScheduler.Outcome.OVERLOAD);
+        // Same round of failures: within the cooldown, not cut again
+        permits.get(1).join().release(HarvestScheduler.Outcome.OVERLOAD);
+        permits.get(2).join().release(HarvestScheduler.Outcome.IGNORED);
+
+        assertEquals(4, scheduler.getStatus().getLimit());
+        assertEquals(2, scheduler.getStatus().getOverloaded());
+        assertEquals(3, scheduler.getStatus().getCompleted());
+    }
+
+    @Test
+    void limitNeverGoesBelowTheMinimum() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 8, 3, Duration.ofSeconds(4), Duration.ZERO);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.acquire().join().release(HarvestScheduler.Outcome.OVERLOAD);
+        }
+
+        assertEquals(3, scheduler.getStatus().getLimit());
+    }
+
+    @Test
+    void slowSuccessCountsAsOverload() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 8, 1, Duration.ZERO, Duration.ZERO);
+
+        scheduler.acquire().join().release(HarvestScheduler.Outcome.SUCCESS);
+
+        assertEquals(4, scheduler.getStatus().getLimit());
+        assertEquals(1, scheduler.getStatus().getOverloaded());
+    }
+
+    @Test
+    void permitIsReleasedOnlyOnce() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 8, 1, Duration.ofSeconds(4), Duration.ZERO);
+
+        HarvestScheduler.Permit permit = scheduler.acquire().join();
+        permit.release(HarvestScheduler.Outcome.OVERLOAD);
+        permit.release(HarvestScheduler.Outcome.OVERLOAD);
+
+        assertEquals(4, scheduler.getStatus().getLimit());
+        assertEquals(0, scheduler.getStatus().getInFlight());
+    }
+
+    @Test
+    void cancelledWaiterGivesItsSlotBack() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 1, 1, Duration.ofSeconds(4), Duration.ofSeconds(1));
+
+        List<CompletableFuture<HarvestScheduler.Permit>> permits = acquire(scheduler, 3);
+        permits.get(1).cancel(false);
+        permits.get(0).join().release(HarvestScheduler.Outcome.IGNORED);
+
+        // The cancelled one was skipped, the third one started
+        assertTrue(permits.get(2).isDone());
+        assertEquals(1, scheduler.getStatus().getInFlight());
+        assertEquals(0, scheduler.getStatus().getQueued());
+    }
+
+    @Test
+    void submitReleasesThePermitWithTheOutcomeOfTheRequest() {
+        HarvestScheduler scheduler = scheduler(1000, 1000, 8, 1, Duration.ofSeconds(4), Duration.ZERO);
+        HttpServerErrorException badGateway = (HttpServerErrorException) HttpServerErrorException.create(
+                HttpStatus.BAD_GATEWAY, "Bad Gateway", HttpHeaders.EMPTY, null, null);
+
+        CompletableFuture<String> failed = scheduler.submit(() -> CompletableFuture.failedFuture(badGateway));
+
+        assertThrows(CompletionException.class, failed::join);
+        assertEquals(4, scheduler.getStatus().getLimit());
+        assertEquals(0, scheduler.getStatus().getInFlight());
+    }
+
+    @Test
+    void outcomeOfTellsOverloadFromOtherFailures() {
+        HttpClientErrorException tooManyRequests = HttpClientErrorException.create(
+                HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", HttpHeaders.EMPTY, null, null);
+        HttpClientErrorException notFound = HttpClientErrorException.create(
+                HttpStatus.NOT_FOUND, "Not Found", HttpHeaders.EMPTY, null, null);
+
+        assertEquals(HarvestScheduler.Outcome.SUCCESS, HarvestScheduler.outcomeOf(null));
+        assertEquals(HarvestScheduler.Outcome.OVERLOAD, HarvestScheduler.outcomeOf(tooManyRequests));
+        assertEquals(HarvestScheduler.Outcome.OVERLOAD, HarvestScheduler.outcomeOf(new CompletionException(tooManyRequests)));
+        assertEquals(HarvestScheduler.Outcome.OVERLOAD, HarvestScheduler.outcomeOf(new ResourceAccessException("timeout")));
+        assertEquals(HarvestScheduler.Outcome.IGNORED, HarvestScheduler.outcomeOf(notFound));
+        assertEquals(HarvestScheduler.Outcome.IGNORED, HarvestScheduler.outcomeOf(new IllegalStateException()));
+    }
+}
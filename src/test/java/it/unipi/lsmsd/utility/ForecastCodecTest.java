@@ -0,0 +1,185 @@
+package it.unipi.lsmsd.utility;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.unipi.lsmsd.DTO.HourlyMeasurementColumns;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForecastCodecTest {
+
+    private static final long EPOCH_DAY = LocalDate.of(2026, 3, 15).toEpochDay();
+
+    // Hours [baseHour, baseHour + hours) of EPOCH_DAY, with a missing snowfall every fifth hour
+    private static HourlyMeasurementColumns day(int baseHour, int hours) {
+        long[] epochHours = new long[hours];
+        double[] temperature = new double[hours];
+        double[] rain = new double[hours];
+        double[] snowfall = new double[hours];
+        double[] windspeed = new double[hours];
+        for (int i = 0; i < hours; i++) {
+            epochHours[i] = EPOCH_DAY * 24 + baseHour + i;
+            temperature[i] = -3.25 + i * 0.5;
+            rain[i] = i % 3 == 0 ? 0.4 : 0.0;
+            snowfall[i] = i % 5 == 0 ? Double.NaN : 0.01 * i;
+            windspeed[i] = 12.8 + i;
+        }
+        return new HourlyMeasurementColumns(epochHours, temperature, rain, snowfall, windspeed);
+    }
+
+    private static void assertSameDay(HourlyMeasurementColumns expected, HourlyMeasurementColumns actual) {
+        assertArrayEquals(expected.copyEpochHours(), actual.copyEpochHours());
+        assertArrayEquals(expected.copyTemperature(), actual.copyTemperature());
+        assertArrayEquals(expected.copyRain(), actual.copyRain());
+        assertArrayEquals(expected.copySnowfall(), actual.copySnowfall());
+        assertArrayEquals(expected.copyWindspeed(), actual.copyWindspeed());
+    }
+
+    @Test
+    void version1RoundTripsAFullDay() {
+        HourlyMeasurementColumns day = day(0, 24);
+        byte[] value = ForecastCodec.encode(day, 1);
+
+        assertEquals(1, value[0]);
+        // Header, then a type byte and 24 shorts per column
+        assertEquals(7 + 4 * (1 + 24 * 2), value.length);
+        assertSameDay(day, ForecastCodec.decode(value));
+    }
+
+    @Test
+    void version1RoundTripsAPartialDay() {
+        HourlyMeasurementColumns day = day(13, 11);
+        assertSameDay(day, ForecastCodec.decode(ForecastCodec.encode(day, 1)));
+    }
+
+    @Test
+    void valuesWithMoreThanTwoDecimalsFallBackToFloats() {
+        HourlyMeasurementColumns day = day(0, 24);
+        double[] temperature = day.copyTemperature();
+        temperature[7] = 12.345;
+        HourlyMeasurementColumns precise = new HourlyMeasurementColumns(day.copyEpochHours(), temperature,
+                day.copyRain(), day.copySnowfall(), day.copyWindspeed());
+
+        HourlyMeasurementColumns decoded = ForecastCodec.decode(ForecastCodec.encode(precise, 1));
+
+        assertEquals(12.345, decoded.getTemperature(7));
+        assertEquals(temperature[8], decoded.getTemperature(8));
+    }
+
+    @Test
+    void hoursNotConsecutiveWithinOneDayAreNotEncoded() {
+        HourlyMeasurementColumns gap = new HourlyMeasurementColumns(
+                new long[] { EPOCH_DAY * 24, EPOCH_DAY * 24 + 2 },
+                new double[2], new double[2], new double[2], new double[2]);
+        HourlyMeasurementColumns acrossMidnight = new HourlyMeasurementColumns(
+                new long[] { EPOCH_DAY * 24 + 23, EPOCH_DAY * 24 + 24 },
+                new double[2], new double[2], new double[2], new double[2]);
+
+        assertNull(ForecastCodec.encode(gap, 1));
+        assertNull(ForecastCodec.encode(acrossMidnight, 1));
+        assertNull(ForecastCodec.encode(day(0, 0), 1));
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ForecastCodec.encode(day(0, 24), 3));
+    }
+
+    @Test
+    void jsonValuesAreStillDecoded() throws Exception {
+        HourlyMeasurementColumns day = day(0, 24);
+        byte[] json = new ObjectMapper().writeValueAsBytes(day);
+
+        assertSameDay(day, ForecastCodec.decode(json));
+        assertEquals(new String(json, StandardCharsets.UTF_8), ForecastCodec.toJson(json));
+    }
+
+    @Test
+    void truncatedValueIsRejected() {
+        byte[] value = ForecastCodec.encode(day(0, 24), 1);
+        byte[] truncated = Arrays.copyOf(value, value.length - 10);
+
+        assertThrows(IllegalArgumentException.class, () -> ForecastCodec.decode(truncated));
+    }
+
+    @Test
+    void version2RoundTripsAFullDay() {
+        HourlyMeasurementColumns day = day(0, 24);
+        byte[] value = ForecastCodec.encode(day);
+
+        assertEquals(ForecastCodec.VERSION, value[0]);
+        assertEquals(203, value.length);
+        assertSameDay(day, ForecastCodec.decode(value));
+    }
+
+    @Test
+    void version2RoundTripsAPartialDay() {
+        HourlyMeasurementColumns day = day(6, 18);
+        assertSameDay(day, ForecastCodec.decode(ForecastCodec.encode(day, 2)));
+    }
+
+    @Test
+    void layoutIsReadFromTheHeaderAlone() {
+        byte[] value = ForecastCodec.encode(day(0, 24));
+        ForecastCodec.Layout layout = ForecastCodec.Layout.of(Arrays.copyOf(value, ForecastCodec.HEADER_BYTES));
+
+        assertEquals(ForecastCodec.Layout.typical(EPOCH_DAY), layout);
+        assertNotEquals(ForecastCodec.Layout.typical(EPOCH_DAY + 1), layout);
+        assertNull(ForecastCodec.Layout.of(ForecastCodec.encode(day(0, 24), 1)));
+    }
+
+    @Test
+    void rangeReadsTheSameValuesAsTheWholeValue() {
+        HourlyMeasurementColumns day = day(0, 24);
+        byte[] value = ForecastCodec.encode(day);
+        ForecastCodec.Layout layout = ForecastCodec.Layout.of(value);
+
+        // What a GETRANGE of the wind speed over [5, 9) returns, end inclusive there
+        int[] range = layout.range(3, 5, 9);
+        byte[] bytes = Arrays.copyOfRange(value, range[0], range[1]);
+
+        assertArrayEquals(Arrays.copyOfRange(day.copyWindspeed(), 5, 9), layout.readRange(bytes, 3));
+        assertArrayEquals(layout.read(value, 3, 5, 9), layout.readRange(bytes, 3));
+    }
+
+    @Test
+    void sliceDecodesTheRequestedFieldsAndHours() {
+        HourlyMeasurementColumns day = day(0, 24);
+
+        ForecastCodec.Slice slice = ForecastCodec.slice(ForecastCodec.encode(day), new int[] { 3, 0 }, 5, 9);
+
+        assertArrayEquals(Arrays.copyOfRange(day.copyEpochHours(), 5, 9), slice.getEpochHours());
+        assertArrayEquals(Arrays.copyOfRange(day.copyWindspeed(), 5, 9), slice.getColumns()[0]);
+        assertArrayEquals(Arrays.copyOfRange(day.copyTemperature(), 5, 9), slice.getColumns()[1]);
+    }
+
+    @Test
+    void sliceIsTheSameForEveryEncoding() throws Exception {
+        HourlyMeasurementColumns day = day(4, 20);
+        int[] fields = { 0, 1, 2, 3 };
+        ForecastCodec.Slice expected = ForecastCodec.slice(ForecastCodec.encode(day), fields, 2, 10);
+
+        for (byte[] value : new byte[][] { ForecastCodec.encode(day, 1), new ObjectMapper().writeValueAsBytes(day) }) {
+            ForecastCodec.Slice slice = ForecastCodec.slice(value, fields, 2, 10);
+            assertArrayEquals(expected.getEpochHours(), slice.getEpochHours());
+            for (int f = 0; f < fields.length; f++) {
+                assertArrayEquals(expected.getColumns()[f], slice.getColumns()[f]);
+            }
+        }
+        // Only the stored hours, from 04:00
+        assertEquals(6, expected.getEpochHours().length);
+        assertEquals(EPOCH_DAY * 24 + 4, expected.getEpochHours()[0]);
+    }
+
+    @Test
+    void sliceOutsideTheStoredHoursIsEmpty() {
+        ForecastCodec.Slice slice = ForecastCodec.slice(ForecastCodec.encode(day(12, 12)), new int[] { 1 }, 0, 6);
+
+        assertEquals(0, slice.getEpochHours().length);
+        assertEquals(0, slice.getColumns()[0].length);
+    }
+}
@@ -0,0 +1,69 @@
+package it.unipi.lsmsd.utility;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForecastKeyUtilityTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 10, 18);
+
+    @Test
+    void forecastKeyTagsTheRegion() {
+        assertEquals("forecast:{ITA}rome:2026-10-18", ForecastKeyUtility.forecastKey("ITArome", DAY));
+    }
+
+    @Test
+    void generationZeroHasNoSuffix() {
+        assertEquals(ForecastKeyUtility.forecastKey("ITArome", DAY), ForecastKeyUtility.forecastKey("ITArome", DAY, 0));
+        assertEquals("forecast:{ITA}rome:2026-10-18:g7", ForecastKeyUtility.forecastKey("ITArome", DAY, 7));
+    }
+
+    @Test
+    void weekAndRegionKeys() {
+        assertEquals("forecast:{ITA}rome:week:2026-10-18", ForecastKeyUtility.weekKey("ITArome", DAY, 0));
+        assertEquals("forecast:{ITA}rome:week:2026-10-18:g7", ForecastKeyUtility.weekKey("ITArome", DAY, 7));
+        assertEquals("forecast:{ITA}:region:2026-10-18", ForecastKeyUtility.regionKey("ITA", DAY, 0));
+        assertEquals("forecast:{ITA}:region:2026-10-18:g7", ForecastKeyUtility.regionKey("ITA", DAY, 7));
+    }
+
+    @Test
+    void keysOfARegionShareTheSlot() {
+        int slot = JedisClusterCRC16.getSlot(ForecastKeyUtility.regionKey("ITA", DAY, 3));
+
+        assertEquals(slot, JedisClusterCRC16.getSlot(ForecastKeyUtility.forecastKey("ITArome", DAY, 3)));
+        assertEquals(slot, JedisClusterCRC16.getSlot(ForecastKeyUtility.forecastKey("ITAmilan", DAY.plusDays(6), 4)));
+        assertEquals(slot, JedisClusterCRC16.getSlot(ForecastKeyUtility.weekKey("ITAmilan", DAY, 0)));
+    }
+
+    @Test
+    void expireAtIsTheEndOfTheUtcDay() {
+        long expireAt = ForecastKeyUtility.expireAt(DAY);
+
+        assertEquals(Instant.parse("2026-10-19T00:00:00Z").getEpochSecond(), expireAt);
+    }
+
+    @Test
+    void expireAtAcrossMonthAndYearEnds() {
+        assertEquals(Instant.parse("2026-03-01T00:00:00Z").getEpochSecond(),
+                ForecastKeyUtility.expireAt(LocalDate.of(2026, 2, 28)));
+        assertEquals(Instant.parse("2027-01-01T00:00:00Z").getEpochSecond(),
+                ForecastKeyUtility.expireAt(LocalDate.of(2026, 12, 31)));
+        assertEquals(86_400, ForecastKeyUtility.expireAt(DAY.plusDays(1)) - ForecastKeyUtility.expireAt(DAY));
+    }
+
+    @Test
+    void validCityIds() {
+        assertTrue(ForecastKeyUtility.isValidCityId("ITArome"));
+        assertTrue(ForecastKeyUtility.isValidCityId("ITAr"));
+        assertFalse(ForecastKeyUtility.isValidCityId(null));
+        assertFalse(ForecastKeyUtility.isValidCityId(""));
+        assertFalse(ForecastKeyUtility.isValidCityId("ITA"));
+        assertFalse(ForecastKeyUtility.isValidCityId("ITA}rome"));
+        assertFalse(ForecastKeyUtility.isValidCityId("{ITA}rome"));
+    }
+}